@@ -0,0 +1,81 @@
+package net.micode.notes.data;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class AttachmentStoreTest {
+    private Context mContext;
+
+    private AttachmentStore mStore;
+
+    private final ArrayList<File> mFiles = new ArrayList<File>();
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mStore = new AttachmentStore(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void sameContentIsStoredOnce() throws IOException {
+        byte[] content = new byte[300 * 1024];
+        new Random(42).nextBytes(content);
+        Uri first = writeSource("first.jpg", content);
+        Uri second = writeSource("second.jpg", content);
+        content[0]++;
+        Uri other = writeSource("other.jpg", content);
+
+        String path = mStore.store(first);
+        assertNotNull(path);
+        mFiles.add(new File(path));
+        assertTrue(mStore.contains(path));
+        assertEquals(content.length, new File(path).length());
+        assertEquals(path, mStore.store(second));
+
+        String otherPath = mStore.store(other);
+        assertNotNull(otherPath);
+        mFiles.add(new File(otherPath));
+        assertNotEquals(path, otherPath);
+
+        // no temporary file is left behind
+        for (File file : mStore.getDirectory().listFiles()) {
+            assertFalse(file.getName(), file.getName().endsWith(".tmp"));
+        }
+    }
+
+    private Uri writeSource(String name, byte[] content) throws IOException {
+        File file = new File(mContext.getCacheDir(), name);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+        mFiles.add(file);
+        return Uri.fromFile(file);
+    }
+}
@@ -0,0 +1,142 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class AttachmentSweeperTest {
+    private static final String DB_NAME = "attachment_test.db";
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        mDirectory = new File(mContext.getCacheDir(), "attachment_test");
+        mDirectory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void removesUnreferencedFiles() throws IOException {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        File kept = writeFile("kept.jpg");
+        File shared = writeFile("shared.jpg");
+        File released = writeFile("released.jpg");
+        File unknown = writeFile("unknown.jpg");
+        insertNote(db, kept, shared);
+        long second = insertNote(db, released, shared);
+        assertEquals(2, getRefCount(db, shared));
+
+        // deleting the note deletes its data, which releases its files
+        db.delete(TABLE.NOTE, NoteColumns.ID + "=" + second, null);
+        assertEquals(1, getRefCount(db, shared));
+        assertEquals(0, getRefCount(db, released));
+
+        // nothing is removed before the release delay
+        AttachmentSweeper.Stats stats = AttachmentSweeper.sweep(db, mDirectory,
+                System.currentTimeMillis(), false);
+        assertEquals(0, stats.deleted);
+        assertTrue(released.exists());
+
+        long later = System.currentTimeMillis() + AttachmentSweeper.RELEASE_DELAY * 2;
+        stats = AttachmentSweeper.sweep(db, mDirectory, later, true);
+        assertEquals(2, stats.unreferenced);
+        assertEquals(0, stats.deleted);
+        assertTrue(released.exists());
+        assertTrue(unknown.exists());
+
+        stats = AttachmentSweeper.sweep(db, mDirectory, later, false);
+        assertEquals(2, stats.deleted);
+        assertFalse(released.exists());
+        assertFalse(unknown.exists());
+        assertTrue(kept.exists());
+        assertTrue(shared.exists());
+        assertEquals(-1, getRefCount(db, released));
+    }
+
+    @Test
+    public void keepsRetainedFiles() throws IOException {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        File file = writeFile("retained.jpg");
+        long now = System.currentTimeMillis();
+        AttachmentSweeper.retain(db, file.getAbsolutePath(), now);
+
+        AttachmentSweeper.Stats stats = AttachmentSweeper.sweep(db, mDirectory,
+                now + AttachmentSweeper.RELEASE_DELAY / 2, false);
+        assertEquals(0, stats.deleted);
+        assertTrue(file.exists());
+    }
+
+    private long insertNote(SQLiteDatabase db, File... images) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        long noteId = db.insert(TABLE.NOTE, null, values);
+        for (File image : images) {
+            values.clear();
+            values.put(DataColumns.NOTE_ID, noteId);
+            values.put(DataColumns.MIME_TYPE, DataConstants.IMAGE_NOTE);
+            values.put(DataColumns.CONTENT, image.getAbsolutePath());
+            db.insert(TABLE.DATA, null, values);
+        }
+        return noteId;
+    }
+
+    private static long getRefCount(SQLiteDatabase db, File file) {
+        Cursor cursor = db.query(TABLE.ATTACHMENT, new String[] {
+                NotesDatabaseHelper.ATTACHMENT_REF_COUNT }, NotesDatabaseHelper.ATTACHMENT_PATH
+                + "=?", new String[] { file.getAbsolutePath() }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private File writeFile(String name) throws IOException {
+        File file = new File(mDirectory, name);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[] { 1, 2, 3 });
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,246 @@
+package net.micode.notes.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.tool.SearchTokenizer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Database size and read/write time of a corpus with large logs and pasted documents, stored
+ * as plain text and with the content compressed by {@link ContentCodec}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContentCompressionBenchmarkTest {
+    private static final String TAG = "CompressionBenchmark";
+
+    private static final String PLAIN_DB_NAME = "plain_benchmark.db";
+
+    private static final String COMPRESSED_DB_NAME = "compressed_benchmark.db";
+
+    private static final int NOTE_COUNT = 300;
+
+    private static final String[] WORDS = new String[] {
+        "connection", "timeout", "request", "response", "server", "client", "retry", "cache",
+        "user", "session", "token", "upload", "download", "queue", "worker", "started",
+        "finished", "failed", "的", "会议", "记录", "项目", "进度", "需要", "确认", "问题"
+    };
+
+    private static final String[] LEVELS = new String[] { "D", "I", "W", "E" };
+
+    private Context mContext;
+
+    private String[] mContents;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(PLAIN_DB_NAME);
+        mContext.deleteDatabase(COMPRESSED_DB_NAME);
+
+        Random random = new Random(42);
+        mContents = new String[NOTE_COUNT];
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            // most notes are short, some are logs or documents of hundreds of KB
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                mContents[i] = randomText(random, 50 + random.nextInt(2000));
+            } else if (kind < 8) {
+                mContents[i] = randomLog(random, 20 * 1024 + random.nextInt(400 * 1024));
+            } else {
+                mContents[i] = randomText(random, 10 * 1024 + random.nextInt(200 * 1024));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(PLAIN_DB_NAME);
+        mContext.deleteDatabase(COMPRESSED_DB_NAME);
+    }
+
+    @Test
+    public void compressionSavesSpace() {
+        long[] plain = run(PLAIN_DB_NAME, false);
+        long[] compressed = run(COMPRESSED_DB_NAME, true);
+
+        Log.i(TAG, "notes=" + NOTE_COUNT
+                + " plainBytes=" + plain[0] + " plainWriteMs=" + plain[1]
+                + " plainReadMs=" + plain[2]
+                + " compressedBytes=" + compressed[0] + " compressedWriteMs=" + compressed[1]
+                + " compressedReadMs=" + compressed[2]);
+        assertTrue(compressed[0] < plain[0]);
+    }
+
+    @Test
+    public void providerIsTransparent() {
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        long noteId = ContentUris.parseId(resolver.insert(Notes.CONTENT_NOTE_URI, values));
+        try {
+            String content = "compressed first line\n" + mContents[firstLargeNote()]
+                    + "\nzebracompressionmarker";
+            values.clear();
+            values.put(DataColumns.NOTE_ID, noteId);
+            values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+            values.put(DataColumns.CONTENT, content);
+            Uri dataUri = resolver.insert(Notes.CONTENT_DATA_URI, values);
+
+            Cursor c = resolver.query(dataUri, new String[] { DataColumns.CONTENT }, null, null,
+                    null);
+            try {
+                assertTrue(c.moveToFirst());
+                assertEquals(content, c.getString(0));
+                assertEquals(Cursor.FIELD_TYPE_STRING, c.getType(0));
+                assertArrayEquals(content.getBytes(StandardCharsets.UTF_8), c.getBlob(0));
+                CharArrayBuffer buffer = new CharArrayBuffer(16);
+                c.copyStringToBuffer(0, buffer);
+                assertEquals(content, new String(buffer.data, 0, buffer.sizeCopied));
+            } finally {
+                c.close();
+            }
+
+            c = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
+                    new String[] { NoteColumns.SNIPPET }, null, null, null);
+            try {
+                assertTrue(c.moveToFirst());
+                assertEquals("compressed first line", c.getString(0));
+            } finally {
+                c.close();
+            }
+
+            // the full text index is written from the decompressed content
+            c = resolver.query(Uri.parse("content://" + Notes.AUTHORITY + "/search")
+                    .buildUpon().appendQueryParameter("pattern", "zebracompressionmarker")
+                    .build(), null, null, null, null);
+            try {
+                assertNotNull(c);
+                boolean found = false;
+                while (c.moveToNext()) {
+                    found |= c.getLong(0) == noteId;
+                }
+                assertTrue(found);
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
+            }
+        } finally {
+            resolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null,
+                    null);
+        }
+    }
+
+    /**
+     * Write and read the corpus, returns the database size, the write time and read time
+     */
+    private long[] run(String name, boolean compress) {
+        NotesDatabaseHelper helper = new NotesDatabaseHelper(mContext, name);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            ContentValues values = new ContentValues();
+            long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < NOTE_COUNT; i++) {
+                values.clear();
+                values.put(NoteColumns.ID, i + 1);
+                values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+                db.insert(TABLE.NOTE, null, values);
+
+                values.clear();
+                values.put(DataColumns.NOTE_ID, i + 1);
+                values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+                values.put(DataColumns.CONTENT, mContents[i]);
+                db.insert(TABLE.DATA, null, compress ? ContentCodec.encode(values) : values);
+            }
+            long writeTime = SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            Cursor c = new DecodingCursor(db.query(TABLE.DATA, DecodingCursor.getProjection(
+                    new String[] { DataColumns.NOTE_ID, DataColumns.CONTENT }), null, null,
+                    null, null, DataColumns.NOTE_ID));
+            try {
+                while (c.moveToNext()) {
+                    assertEquals(mContents[c.getInt(0) - 1], c.getString(1));
+                }
+            } finally {
+                c.close();
+            }
+            long readTime = SystemClock.elapsedRealtime() - start;
+
+            // the full text index works on the compressed content as well
+            helper.updateSearchIndex(db);
+            String word = SearchTokenizer.getTerms(mContents[firstLargeNote()]).get(0);
+            assertTrue(DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE.SEARCH
+                    + " WHERE " + TABLE.SEARCH + " MATCH ? AND docid=?", new String[] {
+                    SearchTokenizer.buildMatchQuery(word),
+                    String.valueOf(firstLargeNote() + 1) }) == 1);
+
+            helper.checkpoint(db);
+            long size = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                    * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            return new long[] { size, writeTime, readTime };
+        } finally {
+            helper.close();
+        }
+    }
+
+    private int firstLargeNote() {
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            if (mContents[i].length() >= ContentCodec.COMPRESS_THRESHOLD) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("no large note in the corpus");
+    }
+
+    private static String randomLog(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 128);
+        long time = 1600000000000L;
+        while (sb.length() < length) {
+            time += random.nextInt(5000);
+            sb.append(time).append(' ').append(LEVELS[random.nextInt(LEVELS.length)])
+                    .append(" Worker-").append(random.nextInt(8)).append(": ");
+            int words = 4 + random.nextInt(10);
+            for (int i = 0; i < words; i++) {
+                sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            sb.append("id=").append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 32);
+        while (sb.length() < length) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(12) == 0 ? "\n" : " ");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,208 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.CheckListItem;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.tool.SearchTokenizer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upgrade of a database of the first released schema, version 4, through every step to the
+ * current version. The schema of version 4 is written out here as it was shipped.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseUpgradeTest {
+    private static final String DB_NAME = "upgrade_test.db";
+
+    private static final String[] V4_SCHEMA = new String[] {
+        "CREATE TABLE note(_id INTEGER PRIMARY KEY,parent_id INTEGER NOT NULL DEFAULT 0,"
+            + "alert_date INTEGER NOT NULL DEFAULT 0,bg_color_id INTEGER NOT NULL DEFAULT 0,"
+            + "created_date INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000),"
+            + "has_attachment INTEGER NOT NULL DEFAULT 0,"
+            + "modified_date INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000),"
+            + "notes_count INTEGER NOT NULL DEFAULT 0,snippet TEXT NOT NULL DEFAULT '',"
+            + "type INTEGER NOT NULL DEFAULT 0,widget_id INTEGER NOT NULL DEFAULT 0,"
+            + "widget_type INTEGER NOT NULL DEFAULT -1,sync_id INTEGER NOT NULL DEFAULT 0,"
+            + "local_modified INTEGER NOT NULL DEFAULT 0,"
+            + "origin_parent_id INTEGER NOT NULL DEFAULT 0,"
+            + "gtask_id TEXT NOT NULL DEFAULT '',version INTEGER NOT NULL DEFAULT 0)",
+        "CREATE TABLE data(_id INTEGER PRIMARY KEY,mime_type TEXT NOT NULL,"
+            + "note_id INTEGER NOT NULL DEFAULT 0,"
+            + "created_date INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000),"
+            + "modified_date INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000),"
+            + "content TEXT NOT NULL DEFAULT '',data1 INTEGER,data2 INTEGER,"
+            + "data3 TEXT NOT NULL DEFAULT '',data4 TEXT NOT NULL DEFAULT '',"
+            + "data5 TEXT NOT NULL DEFAULT '')",
+        "CREATE INDEX IF NOT EXISTS note_id_index ON data(note_id)",
+        "CREATE TRIGGER increase_folder_count_on_update AFTER UPDATE OF parent_id ON note"
+            + " BEGIN UPDATE note SET notes_count=notes_count + 1"
+            + " WHERE _id=new.parent_id; END",
+        "CREATE TRIGGER decrease_folder_count_on_update AFTER UPDATE OF parent_id ON note"
+            + " BEGIN UPDATE note SET notes_count=notes_count-1"
+            + " WHERE _id=old.parent_id AND notes_count>0; END",
+        "CREATE TRIGGER decrease_folder_count_on_delete AFTER DELETE ON note"
+            + " BEGIN UPDATE note SET notes_count=notes_count-1"
+            + " WHERE _id=old.parent_id AND notes_count>0; END",
+        "CREATE TRIGGER delete_data_on_delete AFTER DELETE ON note"
+            + " BEGIN DELETE FROM data WHERE note_id=old._id; END",
+        "CREATE TRIGGER increase_folder_count_on_insert AFTER INSERT ON note"
+            + " BEGIN UPDATE note SET notes_count=notes_count + 1"
+            + " WHERE _id=new.parent_id; END",
+        "CREATE TRIGGER folder_delete_notes_on_delete AFTER DELETE ON note"
+            + " BEGIN DELETE FROM note WHERE parent_id=old._id; END",
+        "CREATE TRIGGER folder_move_notes_on_trash AFTER UPDATE ON note"
+            + " WHEN new.parent_id=-3"
+            + " BEGIN UPDATE note SET parent_id=-3 WHERE parent_id=old._id; END",
+        "CREATE TRIGGER update_note_content_on_insert AFTER INSERT ON data"
+            + " WHEN new.mime_type='vnd.android.cursor.item/text_note'"
+            + " BEGIN UPDATE note SET snippet=new.content WHERE _id=new.note_id; END",
+        "CREATE TRIGGER update_note_content_on_update AFTER UPDATE ON data"
+            + " WHEN old.mime_type='vnd.android.cursor.item/text_note'"
+            + " BEGIN UPDATE note SET snippet=new.content WHERE _id=new.note_id; END",
+        "CREATE TRIGGER update_note_content_on_delete AFTER delete ON data"
+            + " WHEN old.mime_type='vnd.android.cursor.item/text_note'"
+            + " BEGIN UPDATE note SET snippet='' WHERE _id=old.note_id; END",
+        "INSERT INTO note(_id,type) VALUES(-2,2)",
+        "INSERT INTO note(_id,type) VALUES(0,2)",
+        "INSERT INTO note(_id,type) VALUES(-1,2)",
+        "INSERT INTO note(_id,type) VALUES(-3,2)"
+    };
+
+    private static final String TEXT = "budget meeting\nreview the draft";
+
+    private static final String CHECK_LIST_TEXT = CheckListItem.TAG_CHECKED + " call back\n"
+            + CheckListItem.TAG_UNCHECKED + " send the report\n";
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void upgradeFromV4() {
+        SQLiteDatabase v4 = mContext.openOrCreateDatabase(DB_NAME, Context.MODE_PRIVATE, null);
+        try {
+            for (String sql : V4_SCHEMA) {
+                v4.execSQL(sql);
+            }
+            insertNote(v4, 1, TEXT, 0);
+            insertNote(v4, 2, CHECK_LIST_TEXT, TextNote.MODE_CHECK_LIST);
+            v4.setVersion(4);
+        } finally {
+            v4.close();
+        }
+
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        assertEquals(16, db.getVersion());
+
+        // the notes queued for the index by the upgrade to v6 are indexed at the end
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, TABLE.SEARCH_PENDING));
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE.SEARCH
+                + " WHERE " + TABLE.SEARCH + " MATCH ?", new String[] {
+                SearchTokenizer.buildMatchQuery("budget") }));
+
+        // the snippet is cut to the first line by the upgrade to v9
+        assertEquals("budget meeting", DatabaseUtils.stringForQuery(db, "SELECT "
+                + NoteColumns.SNIPPET + " FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ID
+                + "=1", null));
+
+        // the check list is split into items by the upgrade to v13, its text is kept
+        Cursor c = db.query(TABLE.DATA, new String[] { DataColumns.CONTENT,
+                CheckListItem.CHECKED }, DataColumns.NOTE_ID + "=2 AND "
+                + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'", null,
+                null, null, CheckListItem.POSITION);
+        try {
+            assertEquals(2, c.getCount());
+            assertTrue(c.moveToNext());
+            assertEquals("call back", c.getString(0));
+            assertEquals(1, c.getInt(1));
+            assertTrue(c.moveToNext());
+            assertEquals("send the report", c.getString(0));
+            assertEquals(0, c.getInt(1));
+        } finally {
+            c.close();
+        }
+        assertEquals(CHECK_LIST_TEXT, DatabaseUtils.stringForQuery(db, "SELECT "
+                + DataColumns.CONTENT + " FROM " + TABLE.DATA + " WHERE " + DataColumns.NOTE_ID
+                + "=2 AND " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'", null));
+
+        // the triggers of the current version work on the upgraded tables
+        ContentValues values = new ContentValues();
+        values.put(DataColumns.CONTENT, "new first line\nmore");
+        db.update(TABLE.DATA, values, DataColumns.NOTE_ID + "=1", null);
+        assertEquals("new first line", DatabaseUtils.stringForQuery(db, "SELECT "
+                + NoteColumns.SNIPPET + " FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ID
+                + "=1", null));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, TABLE.SEARCH_PENDING));
+        db.delete(TABLE.NOTE, NoteColumns.ID + "=1", null);
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, TABLE.CHANGE,
+                Notes.ChangeColumns.NOTE_ID + "=1 AND " + Notes.ChangeColumns.OP + "="
+                + Notes.CHANGE_DELETE));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, TABLE.DATA,
+                DataColumns.NOTE_ID + "=1"));
+
+        // the text of check lists is rebuilt by the provider, not by triggers
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master"
+                + " WHERE type='trigger' AND name LIKE 'rebuild_check_list%'", null));
+
+        // the columns added by the steps are there
+        assertColumn(db, TABLE.DATA, NotesDatabaseHelper.CONTENT_CODEC);
+        assertColumn(db, TABLE.REVISION, NotesDatabaseHelper.REVISION_HASH);
+        assertColumn(db, TABLE.ATTACHMENT, NotesDatabaseHelper.ATTACHMENT_REF_COUNT);
+    }
+
+    private static void insertNote(SQLiteDatabase db, long id, String content, int mode) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.ID, id);
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        db.insert(TABLE.NOTE, null, values);
+
+        values.clear();
+        values.put(DataColumns.NOTE_ID, id);
+        values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+        values.put(DataColumns.CONTENT, content);
+        values.put(TextNote.MODE, mode);
+        db.insert(TABLE.DATA, null, values);
+    }
+
+    private static void assertColumn(SQLiteDatabase db, String table, String column) {
+        Cursor c = db.rawQuery("SELECT * FROM " + table + " LIMIT 0", null);
+        try {
+            assertTrue(table + "." + column, c.getColumnIndex(column) >= 0);
+        } finally {
+            c.close();
+        }
+    }
+}
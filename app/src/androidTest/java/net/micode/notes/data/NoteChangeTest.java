@@ -0,0 +1,216 @@
+package net.micode.notes.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.ChangeColumns;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class NoteChangeTest {
+    private static final String DB_NAME = "change_test.db";
+
+    private static final String[] PROJECTION = new String[] {
+        ChangeColumns.SEQ, ChangeColumns.NOTE_ID, ChangeColumns.OP, ChangeColumns.VERSION
+    };
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void writesAreLogged() {
+        long since = getLastSeq();
+        long id = insertNote();
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.VERSION, 5);
+        mDb.update(TABLE.NOTE, values, NoteColumns.ID + "=" + id, null);
+        mDb.delete(TABLE.NOTE, NoteColumns.ID + "=" + id, null);
+
+        ArrayList<long[]> changes = getChanges(since);
+        assertEquals(3, changes.size());
+        assertChange(changes.get(0), id, Notes.CHANGE_INSERT);
+        assertChange(changes.get(1), id, Notes.CHANGE_UPDATE);
+        assertEquals(5, changes.get(1)[3]);
+        assertChange(changes.get(2), id, Notes.CHANGE_DELETE);
+        assertTrue(changes.get(0)[0] < changes.get(1)[0]);
+        assertTrue(changes.get(1)[0] < changes.get(2)[0]);
+    }
+
+    @Test
+    public void compactionKeepsLatestChange() {
+        long first = insertNote();
+        long second = insertNote();
+        long since = getLastSeq();
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < 10; i++) {
+            values.put(NoteColumns.VERSION, i);
+            mDb.update(TABLE.NOTE, values, NoteColumns.ID + "=" + first, null);
+        }
+        long lastSeq = getLastSeq();
+
+        mHelper.compactChanges(mDb);
+
+        ArrayList<long[]> changes = getChanges(since);
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), first, Notes.CHANGE_UPDATE);
+        assertEquals(lastSeq, changes.get(0)[0]);
+        assertEquals(9, changes.get(0)[3]);
+
+        // the insert of the other note is still there for the consumers from the beginning
+        boolean found = false;
+        for (long[] change : getChanges(0)) {
+            found |= change[1] == second && change[2] == Notes.CHANGE_INSERT;
+        }
+        assertTrue(found);
+
+        // sequence numbers are not reused after compaction
+        insertNote();
+        assertTrue(getLastSeq() > lastSeq);
+    }
+
+    @Test
+    public void compactionResetsOldDeletes() {
+        int count = NotesDatabaseHelper.MAX_DELETED_CHANGES + 10;
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = insertNote();
+        }
+        long beforeDeletes = getLastSeq();
+        for (long id : ids) {
+            mDb.delete(TABLE.NOTE, NoteColumns.ID + "=" + id, null);
+        }
+
+        mHelper.compactChanges(mDb);
+
+        ArrayList<long[]> changes = getChanges(beforeDeletes);
+        assertEquals(NotesDatabaseHelper.MAX_DELETED_CHANGES + 1, changes.size());
+        assertEquals(Notes.CHANGE_RESET, changes.get(0)[2]);
+        for (int i = 1; i < changes.size(); i++) {
+            assertEquals(Notes.CHANGE_DELETE, changes.get(i)[2]);
+        }
+
+        // consumers which have read past the reset see no reset
+        long afterReset = changes.get(0)[0];
+        for (long[] change : getChanges(afterReset)) {
+            assertEquals(Notes.CHANGE_DELETE, change[2]);
+        }
+    }
+
+    @Test
+    public void providerReadsChangesSince() {
+        ContentResolver resolver = mContext.getContentResolver();
+        long since = getProviderLastSeq(resolver);
+
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        Uri uri = resolver.insert(Notes.CONTENT_NOTE_URI, values);
+        long id = ContentUris.parseId(uri);
+        try {
+            Cursor c = resolver.query(Notes.CONTENT_CHANGE_URI.buildUpon()
+                    .appendQueryParameter(Notes.PARAM_SINCE, String.valueOf(since)).build(),
+                    PROJECTION, ChangeColumns.NOTE_ID + "=?",
+                    new String[] { String.valueOf(id) }, null);
+            try {
+                assertEquals(1, c.getCount());
+                assertTrue(c.moveToFirst());
+                assertEquals(id, c.getLong(1));
+                assertEquals(Notes.CHANGE_INSERT, c.getInt(2));
+            } finally {
+                c.close();
+            }
+        } finally {
+            resolver.delete(uri, null, null);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongSince() {
+        mContext.getContentResolver().query(Notes.CONTENT_CHANGE_URI.buildUpon()
+                .appendQueryParameter(Notes.PARAM_SINCE, "latest").build(), PROJECTION, null,
+                null, null);
+    }
+
+    private long insertNote() {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        return mDb.insert(TABLE.NOTE, null, values);
+    }
+
+    private long getLastSeq() {
+        Cursor c = mDb.rawQuery("SELECT IFNULL(MAX(" + ChangeColumns.SEQ + "), 0) FROM "
+                + TABLE.CHANGE, null);
+        try {
+            c.moveToFirst();
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private long getProviderLastSeq(ContentResolver resolver) {
+        Cursor c = resolver.query(Notes.CONTENT_CHANGE_URI, PROJECTION, null, null,
+                ChangeColumns.SEQ + " DESC");
+        try {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    private ArrayList<long[]> getChanges(long since) {
+        ArrayList<long[]> changes = new ArrayList<long[]>();
+        // the system folders are updated along with their notes count, leave them out
+        Cursor c = mDb.query(TABLE.CHANGE, PROJECTION, ChangeColumns.SEQ + ">" + since
+                + " AND (" + ChangeColumns.NOTE_ID + " IS NULL OR " + ChangeColumns.NOTE_ID
+                + ">0)", null, null, null, ChangeColumns.SEQ);
+        try {
+            while (c.moveToNext()) {
+                changes.add(new long[] { c.getLong(0), c.getLong(1), c.getLong(2),
+                        c.getLong(3) });
+            }
+        } finally {
+            c.close();
+        }
+        return changes;
+    }
+
+    private static void assertChange(long[] change, long noteId, int op) {
+        assertEquals(noteId, change[1]);
+        assertEquals(op, change[2]);
+    }
+}
@@ -0,0 +1,117 @@
+package net.micode.notes.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.NoteColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class NotePageTest {
+    private static final int NOTE_COUNT = 120;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final String[] PROJECTION = new String[] {
+        NoteColumns.ID, NoteColumns.TYPE, NoteColumns.MODIFIED_DATE
+    };
+
+    private ContentResolver mResolver;
+
+    private long mFolderId;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
+        values.put(NoteColumns.SNIPPET, "page test");
+        mFolderId = ContentUris.parseId(mResolver.insert(Notes.CONTENT_NOTE_URI, values));
+
+        ContentValues[] notes = new ContentValues[NOTE_COUNT];
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            notes[i] = new ContentValues();
+            notes[i].put(NoteColumns.PARENT_ID, mFolderId);
+            // many notes share the same modified date, they are ordered by id
+            notes[i].put(NoteColumns.MODIFIED_DATE, 1000 + i / 7);
+            notes[i].put(NoteColumns.TYPE, i % 10 == 0 ? Notes.TYPE_FOLDER : Notes.TYPE_NOTE);
+        }
+        mResolver.bulkInsert(Notes.CONTENT_NOTE_URI, notes);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mFolderId), null,
+                null);
+    }
+
+    @Test
+    public void pagesFollowTheFullOrder() {
+        ArrayList<Long> expected = new ArrayList<Long>();
+        Cursor c = mResolver.query(Notes.CONTENT_NOTE_URI, PROJECTION,
+                NoteColumns.PARENT_ID + "=?", new String[] { String.valueOf(mFolderId) },
+                NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC,"
+                + NoteColumns.ID + " DESC");
+        try {
+            while (c.moveToNext()) {
+                expected.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        assertEquals(NOTE_COUNT, expected.size());
+
+        ArrayList<Long> paged = new ArrayList<Long>();
+        Uri uri = getPageUri().build();
+        while (true) {
+            c = mResolver.query(uri, PROJECTION, NoteColumns.PARENT_ID + "=?",
+                    new String[] { String.valueOf(mFolderId) }, null);
+            try {
+                assertTrue(c.getCount() <= PAGE_SIZE);
+                // one in ten is a folder, only the first page has the total
+                assertEquals(paged.isEmpty() ? NOTE_COUNT - NOTE_COUNT / 10 : -1,
+                        c.getExtras().getInt(Notes.EXTRA_NOTES_TOTAL, -1));
+                while (c.moveToNext()) {
+                    paged.add(c.getLong(0));
+                }
+                if (c.getCount() < PAGE_SIZE || !c.moveToLast()) {
+                    break;
+                }
+                uri = getPageUri()
+                        .appendQueryParameter(Notes.PARAM_AFTER_TYPE, c.getString(1))
+                        .appendQueryParameter(Notes.PARAM_AFTER_MODIFIED_DATE, c.getString(2))
+                        .appendQueryParameter(Notes.PARAM_AFTER_ID, c.getString(0))
+                        .build();
+            } finally {
+                c.close();
+            }
+        }
+        assertEquals(expected, paged);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void incompleteKey() {
+        mResolver.query(getPageUri().appendQueryParameter(Notes.PARAM_AFTER_ID, "1").build(),
+                PROJECTION, null, null, null);
+    }
+
+    private static Uri.Builder getPageUri() {
+        return Notes.CONTENT_NOTE_URI.buildUpon()
+                .appendQueryParameter(Notes.PARAM_PAGE_SIZE, String.valueOf(PAGE_SIZE));
+    }
+}
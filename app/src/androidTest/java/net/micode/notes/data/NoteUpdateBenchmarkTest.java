@@ -0,0 +1,129 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Updates per second of a note, with the version increased by a separate statement as
+ * NotesProvider did before, and in the same statement by {@link NotesProvider#updateNote}
+ */
+@RunWith(AndroidJUnit4.class)
+public class NoteUpdateBenchmarkTest {
+    private static final String TAG = "NoteUpdateBenchmark";
+
+    private static final String DB_NAME = "note_update_benchmark.db";
+
+    private static final int UPDATE_COUNT = 5000;
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private SQLiteDatabase mDb;
+
+    private long mNoteId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+        for (int i = 0; i < 1000; i++) {
+            ContentValues values = new ContentValues();
+            values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+            mNoteId = mDb.insert(TABLE.NOTE, null, values);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void updatesPerSecond() {
+        String selection = NoteColumns.ID + "=" + mNoteId + " AND ("
+                + NoteColumns.PARENT_ID + "=?)";
+        String[] selectionArgs = new String[] { String.valueOf(Notes.ID_ROOT_FOLDER) };
+
+        long version = getVersion();
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            ContentValues values = getValues(i);
+            increaseVersionSeparately(selection, selectionArgs);
+            assertEquals(1, mDb.update(TABLE.NOTE, values, selection, selectionArgs));
+        }
+        long separateTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(version + UPDATE_COUNT, getVersion());
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            assertEquals(1, NotesProvider.updateNote(mDb, getValues(i), selection,
+                    selectionArgs));
+        }
+        long singleTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(version + UPDATE_COUNT * 2, getVersion());
+
+        Log.i(TAG, "updates per second: separate=" + UPDATE_COUNT * 1000L / Math.max(separateTime, 1)
+                + " single=" + UPDATE_COUNT * 1000L / Math.max(singleTime, 1));
+        assertTrue(singleTime < separateTime);
+    }
+
+    @Test
+    public void argumentWithQuestionMark() {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.SNIPPET, "what?");
+        assertEquals(1, NotesProvider.updateNote(mDb, values, NoteColumns.ID + "=?",
+                new String[] { String.valueOf(mNoteId) }));
+
+        values.clear();
+        values.put(NoteColumns.SNIPPET, "done");
+        assertEquals(1, NotesProvider.updateNote(mDb, values, NoteColumns.SNIPPET + "=?",
+                new String[] { "what?" }));
+        assertEquals(2, getVersion());
+    }
+
+    private ContentValues getValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.MODIFIED_DATE, System.currentTimeMillis());
+        values.put(NoteColumns.LOCAL_MODIFIED, 1);
+        values.put(NoteColumns.SNIPPET, "snippet " + i);
+        return values;
+    }
+
+    private long getVersion() {
+        return DatabaseUtils.longForQuery(mDb, "SELECT " + NoteColumns.VERSION + " FROM "
+                + TABLE.NOTE + " WHERE " + NoteColumns.ID + "=" + mNoteId, null);
+    }
+
+    /**
+     * The version update which was run before every note update
+     */
+    private void increaseVersionSeparately(String selection, String[] selectionArgs) {
+        String where = selection;
+        for (String arg : selectionArgs) {
+            where = where.replaceFirst("\\?", arg);
+        }
+        mDb.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.VERSION + "="
+                + NoteColumns.VERSION + "+1 WHERE " + where);
+    }
+}
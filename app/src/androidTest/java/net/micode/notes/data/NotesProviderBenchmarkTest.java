@@ -0,0 +1,206 @@
+package net.micode.notes.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.DataUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Time of moving and deleting notes one by one, which is what every operation of a batch
+ * cost before the provider applies it in one transaction, compared with the batch calls of
+ * {@link DataUtils}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotesProviderBenchmarkTest {
+    private static final String TAG = "NotesProviderBenchmark";
+
+    private static final int NOTE_COUNT = 5000;
+
+    private ContentResolver mResolver;
+
+    private ArrayList<Long> mFolders = new ArrayList<Long>();
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        for (long folderId : mFolders) {
+            mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, folderId),
+                    null, null);
+        }
+    }
+
+    @Test
+    public void moveNotes() {
+        long source = createFolder("benchmark source");
+        long target = createFolder("benchmark target");
+        HashSet<Long> ids = createNotes(source, NOTE_COUNT);
+
+        long start = SystemClock.elapsedRealtime();
+        for (long id : ids) {
+            DataUtils.moveNoteToFoler(mResolver, id, source, target);
+        }
+        long singleTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(NOTE_COUNT, getNoteCount(target));
+
+        start = SystemClock.elapsedRealtime();
+        assertTrue(DataUtils.batchMoveToFolder(mResolver, ids, source));
+        long batchTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(NOTE_COUNT, getNoteCount(source));
+
+        Log.i(TAG, "move " + NOTE_COUNT + " notes: singleMs=" + singleTime
+                + " batchMs=" + batchTime);
+        assertTrue(batchTime < singleTime);
+    }
+
+    @Test
+    public void deleteNotes() {
+        long folder = createFolder("benchmark delete");
+        HashSet<Long> singleIds = createNotes(folder, NOTE_COUNT);
+        HashSet<Long> batchIds = createNotes(folder, NOTE_COUNT);
+
+        long start = SystemClock.elapsedRealtime();
+        for (long id : singleIds) {
+            mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id), null, null);
+        }
+        long singleTime = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        assertTrue(DataUtils.batchDeleteNotes(mResolver, batchIds));
+        long batchTime = SystemClock.elapsedRealtime() - start;
+        assertEquals(0, getNoteCount(folder));
+
+        Log.i(TAG, "delete " + NOTE_COUNT + " notes: singleMs=" + singleTime
+                + " batchMs=" + batchTime);
+        assertTrue(batchTime < singleTime);
+    }
+
+    @Test
+    public void failedBatchIsRolledBack() {
+        long source = createFolder("benchmark rollback");
+        long target = createFolder("benchmark rollback target");
+        HashSet<Long> ids = createNotes(source, 10);
+        // the note which does not exist fails the batch on its expected count
+        ids.add(Long.MAX_VALUE);
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (long id : ids) {
+            operations.add(ContentProviderOperation
+                    .newUpdate(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id))
+                    .withValue(NoteColumns.PARENT_ID, target)
+                    .withExpectedCount(1).build());
+        }
+        try {
+            mResolver.applyBatch(Notes.AUTHORITY, operations);
+            fail("batch should fail");
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals(0, getNoteCount(target));
+        assertEquals(10, getNoteCount(source));
+    }
+
+    @Test
+    public void failedInsertFailsTheBatch() {
+        long folder = createFolder("benchmark failed insert");
+        long existing = createNotes(folder, 1).iterator().next();
+
+        // the note with the id of another note fails to be inserted
+        ContentValues[] values = new ContentValues[3];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues();
+            values[i].put(NoteColumns.PARENT_ID, folder);
+        }
+        values[1].put(NoteColumns.ID, existing);
+        assertEquals(0, mResolver.bulkInsert(Notes.CONTENT_NOTE_URI, values));
+        assertEquals(1, getNoteCount(folder));
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (ContentValues value : values) {
+            operations.add(ContentProviderOperation.newInsert(Notes.CONTENT_NOTE_URI)
+                    .withValues(value).build());
+        }
+        try {
+            mResolver.applyBatch(Notes.AUTHORITY, operations);
+            fail("batch should fail");
+        } catch (Exception e) {
+            // expected
+        }
+        assertEquals(1, getNoteCount(folder));
+    }
+
+    private long createFolder(String name) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
+        values.put(NoteColumns.SNIPPET, name);
+        Uri uri = mResolver.insert(Notes.CONTENT_NOTE_URI, values);
+        long id = ContentUris.parseId(uri);
+        mFolders.add(id);
+        return id;
+    }
+
+    private HashSet<Long> createNotes(long folderId, int count) {
+        HashSet<Long> existing = getNoteIds(folderId);
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = new ContentValues();
+            values[i].put(NoteColumns.PARENT_ID, folderId);
+        }
+        assertEquals(count, mResolver.bulkInsert(Notes.CONTENT_NOTE_URI, values));
+
+        HashSet<Long> ids = getNoteIds(folderId);
+        ids.removeAll(existing);
+        assertEquals(count, ids.size());
+        return ids;
+    }
+
+    private HashSet<Long> getNoteIds(long folderId) {
+        HashSet<Long> ids = new HashSet<Long>();
+        Cursor c = mResolver.query(Notes.CONTENT_NOTE_URI, new String[] { NoteColumns.ID },
+                NoteColumns.PARENT_ID + "=?", new String[] { String.valueOf(folderId) }, null);
+        try {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+        return ids;
+    }
+
+    private int getNoteCount(long folderId) {
+        Cursor c = mResolver.query(Notes.CONTENT_NOTE_URI, new String[] { "COUNT(*)" },
+                NoteColumns.PARENT_ID + "=?", new String[] { String.valueOf(folderId) }, null);
+        try {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+}
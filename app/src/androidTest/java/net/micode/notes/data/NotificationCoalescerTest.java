@@ -0,0 +1,123 @@
+package net.micode.notes.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Looper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.DataUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class NotificationCoalescerTest {
+
+    private ContentResolver getResolver() {
+        return InstrumentationRegistry.getInstrumentation().getTargetContext().getContentResolver();
+    }
+
+    @Test
+    public void duplicatedUrisAreNotifiedOnce() {
+        NotificationCoalescer notifier = new NotificationCoalescer(getResolver(),
+                Looper.getMainLooper(), NotificationCoalescer.DEFAULT_WINDOW);
+        Uri note = ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, 1);
+        Uri data = ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, 1);
+
+        notifier.beginBatch();
+        for (int i = 0; i < 10; i++) {
+            notifier.notifyChange(note);
+            notifier.notifyChange(data);
+        }
+        assertEquals(0, notifier.getNotificationCount());
+        notifier.endBatch();
+        assertEquals(2, notifier.getNotificationCount());
+    }
+
+    @Test
+    public void itemUrisAreCollapsedIntoParent() {
+        NotificationCoalescer notifier = new NotificationCoalescer(getResolver(),
+                Looper.getMainLooper(), NotificationCoalescer.DEFAULT_WINDOW);
+
+        notifier.beginBatch();
+        notifier.notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, 1));
+        notifier.notifyChange(Notes.CONTENT_NOTE_URI);
+        for (int i = 0; i < 100; i++) {
+            notifier.notifyChange(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, i));
+        }
+        notifier.endBatch();
+        // one for the note uri, one for the data uri
+        assertEquals(2, notifier.getNotificationCount());
+    }
+
+    @Test
+    public void batchHoldsBackOnlyItsThread() throws Exception {
+        // the window does not close during the test, the write outside a batch waits for it
+        final NotificationCoalescer notifier = new NotificationCoalescer(getResolver(),
+                Looper.getMainLooper(), 60 * 1000);
+        final Uri other = ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, 2);
+
+        notifier.beginBatch();
+        notifier.notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, 1));
+        // a write of another thread is not held back by the batch, nor sent with it
+        Thread thread = new Thread() {
+            public void run() {
+                notifier.notifyChange(other);
+                notifier.beginBatch();
+                notifier.notifyChange(other);
+                notifier.endBatch();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(1, notifier.getNotificationCount());
+
+        notifier.endBatch();
+        assertEquals(2, notifier.getNotificationCount());
+        notifier.flush();
+        assertEquals(3, notifier.getNotificationCount());
+    }
+
+    @Test
+    public void batchSendsFewNotifications() {
+        ContentResolver resolver = getResolver();
+        ContentProviderClient client = resolver.acquireContentProviderClient(Notes.AUTHORITY);
+        try {
+            NotificationCoalescer notifier =
+                    ((NotesProvider) client.getLocalContentProvider()).getNotificationCoalescer();
+
+            ContentValues values = new ContentValues();
+            values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
+            values.put(NoteColumns.SNIPPET, "notification test");
+            long folderId = ContentUris.parseId(resolver.insert(Notes.CONTENT_NOTE_URI, values));
+
+            HashSet<Long> ids = new HashSet<Long>();
+            for (int i = 0; i < 100; i++) {
+                values.clear();
+                values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+                ids.add(ContentUris.parseId(resolver.insert(Notes.CONTENT_NOTE_URI, values)));
+            }
+            notifier.flush();
+
+            int before = notifier.getNotificationCount();
+            assertTrue(DataUtils.batchMoveToFolder(resolver, ids, folderId));
+            assertEquals(1, notifier.getNotificationCount() - before);
+
+            resolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, folderId),
+                    null, null);
+            notifier.flush();
+        } finally {
+            client.release();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package net.micode.notes.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.CallNote;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run EXPLAIN QUERY PLAN for the queries issued by the app, none of them should scan the
+ * whole note or data table. The selections are copied from the callers, keep them in sync
+ * when a query changes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+    private static final String DB_NAME = "query_plan_test.db";
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        mDb = mHelper.getReadableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    /**
+     * NotesListActivity#startAsyncNotesListQuery in the root folder
+     */
+    @Test
+    public void rootFolderList() {
+        assertNoScan(select(TABLE.NOTE, "(" + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM
+                + " AND " + NoteColumns.PARENT_ID + "=?)" + " OR (" + NoteColumns.ID + "="
+                + Notes.ID_CALL_RECORD_FOLDER + " AND " + NoteColumns.NOTES_COUNT + ">0)",
+                NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC"), "0");
+    }
+
+    /**
+     * NotesListActivity#startAsyncNotesListQuery in a folder, including the trash
+     */
+    @Test
+    public void folderList() {
+        String sql = select(TABLE.NOTE, NoteColumns.PARENT_ID + "=?",
+                NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+        assertNoScan(sql, String.valueOf(Notes.ID_TRASH_FOLER));
+        assertNoSort(sql, String.valueOf(Notes.ID_TRASH_FOLER));
+    }
+
+    /**
+     * The pages after the first of NotesListActivity#startAsyncNotesListPageQuery
+     */
+    @Test
+    public void folderListPage() {
+        String sql = select(TABLE.NOTE, "(" + NoteColumns.PARENT_ID + "=?) AND "
+                + NoteColumns.TYPE + "<=? AND (" + NoteColumns.TYPE + "<? OR ("
+                + NoteColumns.TYPE + "=? AND (" + NoteColumns.MODIFIED_DATE + "<? OR ("
+                + NoteColumns.MODIFIED_DATE + "=? AND " + NoteColumns.ID + "<?))))",
+                NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC,"
+                + NoteColumns.ID + " DESC LIMIT 50");
+        String[] args = new String[] { "1", "0", "0", "0", "100", "100", "10" };
+        assertNoScan(sql, args);
+        assertNoSort(sql, args);
+    }
+
+    /**
+     * The list view joins the call data by the note id index
+     */
+    @Test
+    public void noteListView() {
+        String sql = select(TABLE.NOTE_LIST, NoteColumns.PARENT_ID + "=?",
+                NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC,"
+                + NoteColumns.ID + " DESC LIMIT 50");
+        assertNoScan(sql, String.valueOf(Notes.ID_CALL_RECORD_FOLDER));
+        assertNoSort(sql, String.valueOf(Notes.ID_CALL_RECORD_FOLDER));
+    }
+
+    /**
+     * NotesListActivity#startQueryDestinationFolders
+     */
+    @Test
+    public void destinationFolders() {
+        String selection = NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>? AND "
+                + NoteColumns.ID + "<>?";
+        assertNoScan(select(TABLE.NOTE, selection, NoteColumns.MODIFIED_DATE + " DESC"),
+                "1", "-3", "5");
+        assertNoScan(select(TABLE.NOTE, "(" + selection + ") OR (" + NoteColumns.ID + "="
+                + Notes.ID_ROOT_FOLDER + ")", NoteColumns.MODIFIED_DATE + " DESC"),
+                "1", "-3", "5");
+    }
+
+    /**
+     * AlarmInitReceiver#onReceive
+     */
+    @Test
+    public void alarms() {
+        assertNoScan("SELECT " + NoteColumns.ID + "," + NoteColumns.ALERTED_DATE + " FROM "
+                + TABLE.NOTE + " WHERE " + NoteColumns.ALERTED_DATE + ">? AND "
+                + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE, "0");
+    }
+
+    /**
+     * NoteWidgetProvider#getNoteWidgetInfo
+     */
+    @Test
+    public void widget() {
+        assertNoScan(select(TABLE.NOTE, NoteColumns.WIDGET_ID + "=? AND "
+                + NoteColumns.PARENT_ID + "<>?", null), "1", "-3");
+    }
+
+    /**
+     * GTaskManager#syncContent, GTaskManager#syncFolder and GTaskManager#refreshLocalSyncId
+     */
+    @Test
+    public void sync() {
+        assertNoScan(select(TABLE.NOTE, "(type<>? AND parent_id=?)", null), "2", "-3");
+        assertNoScan(select(TABLE.NOTE, "(type=? AND parent_id<>?)", "type DESC"), "0", "-3");
+        assertNoScan(select(TABLE.NOTE, "(type IN (?,?) AND parent_id<>?)", "type DESC"),
+                "0", "1", "-3");
+    }
+
+    /**
+     * DataUtils#getUserFolderCount, DataUtils#checkVisibleFolderName and
+     * DataUtils#getFolderNoteWidget
+     */
+    @Test
+    public void folders() {
+        assertNoScan(select(TABLE.NOTE, NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID
+                + "<>?", null), "1", "-3");
+        assertNoScan(select(TABLE.NOTE, NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER + " AND "
+                + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER + " AND "
+                + NoteColumns.SNIPPET + "=?", null), "name");
+        assertNoScan(select(TABLE.NOTE, NoteColumns.PARENT_ID + "=?", null), "1");
+    }
+
+    /**
+     * WorkingNote#loadNoteData, DataUtils#getCallNumberByNoteId and
+     * DataUtils#getNoteIdByPhoneNumberAndCallDate
+     */
+    @Test
+    public void data() {
+        assertNoScan(select(TABLE.DATA, DataColumns.NOTE_ID + "=?", null), "1");
+        assertNoScan(select(TABLE.DATA, CallNote.NOTE_ID + "=? AND " + CallNote.MIME_TYPE
+                + "=?", null), "1", CallNote.CONTENT_ITEM_TYPE);
+        assertNoScan(select(TABLE.DATA, CallNote.CALL_DATE + "=? AND " + CallNote.MIME_TYPE
+                + "=? AND PHONE_NUMBERS_EQUAL(" + CallNote.PHONE_NUMBER + ",?)", null),
+                "1", CallNote.CONTENT_ITEM_TYPE, "10086");
+    }
+
+    /**
+     * The statements in the triggers of folders
+     */
+    @Test
+    public void triggers() {
+        assertNoScan("DELETE FROM " + TABLE.NOTE + " WHERE " + NoteColumns.PARENT_ID + "=?",
+                "1");
+        assertNoScan("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.PARENT_ID + "="
+                + Notes.ID_TRASH_FOLER + " WHERE " + NoteColumns.PARENT_ID + "=?", "1");
+        assertNoScan("DELETE FROM " + TABLE.DATA + " WHERE " + DataColumns.NOTE_ID + "=?", "1");
+    }
+
+    private static String select(String table, String selection, String sortOrder) {
+        return "SELECT * FROM " + table + " WHERE " + selection
+                + (sortOrder == null ? "" : " ORDER BY " + sortOrder);
+    }
+
+    private ArrayList<String> getPlan(String sql, String... args) {
+        ArrayList<String> plan = new ArrayList<String>();
+        Cursor c = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                plan.add(c.getString(detail));
+            }
+        } finally {
+            c.close();
+        }
+        return plan;
+    }
+
+    private void assertNoScan(String sql, String... args) {
+        for (String detail : getPlan(sql, args)) {
+            // the full text table is answered by its own index
+            if (detail.startsWith("SCAN") && !detail.contains("VIRTUAL TABLE")) {
+                fail(sql + " scans the table: " + detail);
+            }
+        }
+    }
+
+    private void assertNoSort(String sql, String... args) {
+        for (String detail : getPlan(sql, args)) {
+            if (detail.contains("TEMP B-TREE")) {
+                fail(sql + " sorts the result: " + detail);
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package net.micode.notes.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.RevisionColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Storage overhead and rebuild time of notes with 1,000 revisions, each revision is a small
+ * edit of the previous one as written by the autosave of the editor.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RevisionBenchmarkTest {
+    private static final String TAG = "RevisionBenchmark";
+
+    private static final String DB_NAME = "revision_benchmark.db";
+
+    private static final int REVISION_COUNT = 1000;
+
+    private static final int CHECK_INTERVAL = 10;
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    private static final String[] WORDS = new String[] {
+        "meeting", "project", "deadline", "review", "budget", "design", "draft", "todo",
+        "会议", "记录", "进度", "确认", "问题", "方案"
+    };
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void smallNote() {
+        run(1, 2 * 1024);
+    }
+
+    @Test
+    public void largeNote() {
+        run(2, 64 * 1024);
+    }
+
+    @Test
+    public void pruneByCount() {
+        Random random = new Random(7);
+        String content = randomText(random, 1024);
+        long now = System.currentTimeMillis();
+        long firstKept = 0;
+        String firstKeptContent = null;
+        int total = RevisionStore.MAX_REVISIONS + RevisionStore.SNAPSHOT_INTERVAL / 2;
+        for (int i = 0; i < total; i++) {
+            String next = edit(random, content);
+            long id = RevisionStore.record(mDb, 3, content, next, now);
+            content = next;
+            if (i == total - RevisionStore.MAX_REVISIONS) {
+                firstKept = id;
+                firstKeptContent = content;
+            }
+        }
+
+        RevisionStore.prune(mDb, now);
+        assertEquals(RevisionStore.MAX_REVISIONS, countRevisions(3));
+        assertEquals(firstKeptContent, RevisionStore.getContent(mDb, firstKept));
+        assertEquals(content, RevisionStore.getContent(mDb, latestRevision(3)));
+    }
+
+    @Test
+    public void pruneByAge() {
+        Random random = new Random(11);
+        String content = randomText(random, 1024);
+        long now = System.currentTimeMillis();
+        long old = now - RevisionStore.MAX_REVISION_AGE - DAY;
+        for (int i = 0; i < 50; i++) {
+            String next = edit(random, content);
+            RevisionStore.record(mDb, 4, content, next, old + i);
+            content = next;
+        }
+
+        // the latest revision is kept even if it is too old
+        RevisionStore.prune(mDb, now);
+        assertEquals(1, countRevisions(4));
+        assertEquals(content, RevisionStore.getContent(mDb, latestRevision(4)));
+
+        // the new revision is a delta, it becomes a snapshot when the one before is pruned
+        String next = edit(random, content);
+        RevisionStore.record(mDb, 4, content, next, now);
+        assertEquals(2, countRevisions(4));
+        RevisionStore.prune(mDb, now + RevisionStore.MAX_REVISION_AGE / 2);
+        assertEquals(1, countRevisions(4));
+        assertEquals(next, RevisionStore.getContent(mDb, latestRevision(4)));
+    }
+
+    @Test
+    public void missedWriteOfSameLength() {
+        long now = System.currentTimeMillis();
+        RevisionStore.record(mDb, 5, "first", "second", now);
+        // a write the history missed left another text of the same length
+        long id = RevisionStore.record(mDb, 5, "secant", "secant line", now);
+        assertEquals("secant line", RevisionStore.getContent(mDb, id));
+        assertEquals("secant", RevisionStore.getContent(mDb, id - 1));
+        assertEquals("second", RevisionStore.getContent(mDb, id - 2));
+    }
+
+    @Test
+    public void revisionWithoutHash() {
+        long now = System.currentTimeMillis();
+        RevisionStore.record(mDb, 6, "first", "second", now);
+        mDb.execSQL("UPDATE " + TABLE.REVISION + " SET " + NotesDatabaseHelper.REVISION_HASH
+                + "=NULL");
+
+        // the latest revision is rebuilt, a delta is stored from it if it is the same text
+        long id = RevisionStore.record(mDb, 6, "second", "second line", now);
+        assertEquals(3, countRevisions(6));
+        assertEquals("second line", RevisionStore.getContent(mDb, id));
+
+        mDb.execSQL("UPDATE " + TABLE.REVISION + " SET " + NotesDatabaseHelper.REVISION_HASH
+                + "=NULL");
+        id = RevisionStore.record(mDb, 6, "secant line", "secant", now);
+        assertEquals(5, countRevisions(6));
+        assertEquals("secant", RevisionStore.getContent(mDb, id));
+        assertEquals("secant line", RevisionStore.getContent(mDb, id - 1));
+    }
+
+    @Test
+    public void providerRecordsRevisions() {
+        ContentResolver resolver = mContext.getContentResolver();
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        long noteId = ContentUris.parseId(resolver.insert(Notes.CONTENT_NOTE_URI, values));
+        try {
+            values.clear();
+            values.put(DataColumns.NOTE_ID, noteId);
+            values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+            values.put(DataColumns.CONTENT, "first");
+            Uri dataUri = resolver.insert(Notes.CONTENT_DATA_URI, values);
+
+            values.clear();
+            values.put(DataColumns.CONTENT, "first and second");
+            resolver.update(dataUri, values, null, null);
+            values.put(DataColumns.CONTENT, "second");
+            resolver.update(dataUri, values, null, null);
+
+            String[] expected = new String[] { "first", "first and second", "second" };
+            Cursor c = resolver.query(Notes.CONTENT_REVISION_URI, null,
+                    RevisionColumns.NOTE_ID + "=" + noteId, null, null);
+            try {
+                assertEquals(expected.length, c.getCount());
+                int i = 0;
+                while (c.moveToNext()) {
+                    long revisionId = c.getLong(c.getColumnIndexOrThrow(RevisionColumns.ID));
+                    assertEquals(expected[i].length(),
+                            c.getInt(c.getColumnIndexOrThrow(RevisionColumns.LENGTH)));
+                    Cursor item = resolver.query(ContentUris.withAppendedId(
+                            Notes.CONTENT_REVISION_URI, revisionId),
+                            new String[] { RevisionColumns.CONTENT }, null, null, null);
+                    try {
+                        assertTrue(item.moveToFirst());
+                        assertEquals(expected[i], item.getString(0));
+                    } finally {
+                        item.close();
+                    }
+                    i++;
+                }
+            } finally {
+                c.close();
+            }
+        } finally {
+            resolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null,
+                    null);
+        }
+
+        Cursor c = resolver.query(Notes.CONTENT_REVISION_URI, null,
+                RevisionColumns.NOTE_ID + "=" + noteId, null, null);
+        try {
+            assertEquals(0, c.getCount());
+        } finally {
+            c.close();
+        }
+    }
+
+    private void run(long noteId, int length) {
+        Random random = new Random(noteId);
+        String content = randomText(random, length);
+        HashMap<Long, String> checked = new HashMap<Long, String>();
+        long fullBytes = 0;
+        long now = System.currentTimeMillis();
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < REVISION_COUNT; i++) {
+            String next = edit(random, content);
+            long id = RevisionStore.record(mDb, noteId, content, next, now);
+            content = next;
+            fullBytes += content.length() * 2;
+            if (i % CHECK_INTERVAL == 0 || i == REVISION_COUNT - 1) {
+                checked.put(id, content);
+            }
+        }
+        long recordTime = SystemClock.elapsedRealtime() - start;
+
+        long storedBytes = DatabaseUtils.longForQuery(mDb, "SELECT SUM(LENGTH(CAST("
+                + NotesDatabaseHelper.REVISION_PAYLOAD + " AS BLOB))) FROM " + TABLE.REVISION
+                + " WHERE " + RevisionColumns.NOTE_ID + "=" + noteId, null);
+
+        ArrayList<Long> ids = new ArrayList<Long>(checked.keySet());
+        long maxRebuildNanos = 0;
+        long totalRebuildNanos = 0;
+        for (long id : ids) {
+            long rebuildStart = SystemClock.elapsedRealtimeNanos();
+            String rebuilt = RevisionStore.getContent(mDb, id);
+            long nanos = SystemClock.elapsedRealtimeNanos() - rebuildStart;
+            maxRebuildNanos = Math.max(maxRebuildNanos, nanos);
+            totalRebuildNanos += nanos;
+            assertEquals(checked.get(id), rebuilt);
+        }
+
+        Log.i(TAG, "length=" + length + " revisions=" + countRevisions(noteId)
+                + " fullCopyBytes=" + fullBytes + " storedBytes=" + storedBytes
+                + " recordMs=" + recordTime
+                + " avgRebuildUs=" + totalRebuildNanos / ids.size() / 1000
+                + " maxRebuildUs=" + maxRebuildNanos / 1000);
+        // the first revision is the text before the edits
+        assertEquals(REVISION_COUNT + 1, countRevisions(noteId));
+        assertTrue(storedBytes * 5 < fullBytes);
+    }
+
+    private int countRevisions(long noteId) {
+        return (int) DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM " + TABLE.REVISION
+                + " WHERE " + RevisionColumns.NOTE_ID + "=" + noteId, null);
+    }
+
+    private long latestRevision(long noteId) {
+        return DatabaseUtils.longForQuery(mDb, "SELECT MAX(" + RevisionColumns.ID + ") FROM "
+                + TABLE.REVISION + " WHERE " + RevisionColumns.NOTE_ID + "=" + noteId, null);
+    }
+
+    /**
+     * Insert, delete or retype a few words somewhere in the text
+     */
+    private static String edit(Random random, String content) {
+        String edited;
+        do {
+            edited = randomEdit(random, content);
+        } while (edited.equals(content));
+        return edited;
+    }
+
+    private static String randomEdit(Random random, String content) {
+        StringBuilder sb = new StringBuilder(content);
+        int position = random.nextInt(sb.length() + 1);
+        switch (random.nextInt(3)) {
+            case 0:
+                sb.insert(position, randomText(random, 5 + random.nextInt(40)));
+                break;
+            case 1:
+                sb.delete(position, Math.min(sb.length(), position + 1 + random.nextInt(30)));
+                break;
+            default:
+                int end = Math.min(sb.length(), position + random.nextInt(20));
+                sb.replace(position, end, randomText(random, 1 + random.nextInt(20)));
+                break;
+        }
+        return sb.toString();
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(10) == 0 ? "\n" : " ");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,188 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.tool.SearchTokenizer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Index size and query latency of the full text search on a synthetic corpus of chinese
+ * notes, compared with the substring scan on the content of notes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchBenchmarkTest {
+    private static final String TAG = "SearchBenchmark";
+
+    private static final String DB_NAME = "search_benchmark.db";
+
+    private static final int NOTE_COUNT = 50000;
+
+    private static final int QUERY_COUNT = 20;
+
+    private static final String CHARACTERS =
+            "的一是在不了有和人这中大为上个国我以要他时来用们生到作地于出就分对成会可主发年动"
+            + "同工也能下过子说产种面而方后多定行学法所民得经十三之进着等部度家电力里如水化高自"
+            + "二理起小物现实加量都两体制机当使点从业本去把性好应开它合还因由其些然前外天政四日"
+            + "那社义事平形相全表间样与关各重新线内数正心反你明看原又么利比或但质气第向道命此变"
+            + "条只没结解问意建月公无系军很情者最立代想已通并提直题党程展五果料象员革位入常文总"
+            + "次品式活设及管特件长求老头基资边流路级少图山统接知较将组见计别她手角期根论运农指";
+
+    private static final String PUNCTUATIONS = "，。、；：！？\n";
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private SQLiteDatabase mDb;
+
+    private String[] mContents;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+        mContents = new String[NOTE_COUNT];
+
+        Random random = new Random(42);
+        ContentValues values = new ContentValues();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < NOTE_COUNT; i++) {
+                mContents[i] = randomContent(random);
+                values.clear();
+                values.put(NoteColumns.ID, i + 1);
+                values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+                mDb.insert(TABLE.NOTE, null, values);
+
+                values.clear();
+                values.put(DataColumns.NOTE_ID, i + 1);
+                values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+                values.put(DataColumns.CONTENT, mContents[i]);
+                mDb.insert(TABLE.DATA, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void fullTextSearchBeatsSubstringScan() {
+        long start = SystemClock.elapsedRealtime();
+        mHelper.updateSearchIndex(mDb);
+        long indexTime = SystemClock.elapsedRealtime() - start;
+
+        long contentSize = DatabaseUtils.longForQuery(mDb,
+                "SELECT SUM(LENGTH(CAST(" + DataColumns.CONTENT + " AS BLOB))) FROM " + TABLE.DATA, null);
+        long indexSize = DatabaseUtils.longForQuery(mDb,
+                "SELECT IFNULL(SUM(LENGTH(block)), 0) FROM " + TABLE.SEARCH + "_segments", null)
+                + DatabaseUtils.longForQuery(mDb,
+                "SELECT IFNULL(SUM(LENGTH(root)), 0) FROM " + TABLE.SEARCH + "_segdir", null);
+        long tokenizedSize = DatabaseUtils.longForQuery(mDb,
+                "SELECT SUM(LENGTH(CAST(c0" + NotesDatabaseHelper.SEARCH_CONTENT + " AS BLOB)))"
+                + " FROM " + TABLE.SEARCH + "_content", null);
+
+        Random random = new Random(7);
+        long[] ftsTimes = new long[QUERY_COUNT];
+        long[] likeTimes = new long[QUERY_COUNT];
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String query = randomQuery(random);
+
+            start = SystemClock.elapsedRealtimeNanos();
+            int ftsCount = count("SELECT docid FROM " + TABLE.SEARCH + " WHERE " + TABLE.SEARCH
+                    + " MATCH ?", SearchTokenizer.buildMatchQuery(query));
+            ftsTimes[i] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            int likeCount = count("SELECT " + DataColumns.NOTE_ID + " FROM " + TABLE.DATA
+                    + " WHERE " + DataColumns.CONTENT + " LIKE ?", "%" + query + "%");
+            likeTimes[i] = SystemClock.elapsedRealtimeNanos() - start;
+
+            // the bigram phrase matches exactly the notes containing the query
+            assertEquals("result of " + query, likeCount, ftsCount);
+        }
+
+        long ftsMedian = median(ftsTimes);
+        long likeMedian = median(likeTimes);
+        Log.i(TAG, "notes=" + NOTE_COUNT + " indexTimeMs=" + indexTime
+                + " contentBytes=" + contentSize + " tokenizedBytes=" + tokenizedSize
+                + " indexBytes=" + indexSize
+                + " ftsMedianUs=" + ftsMedian / 1000 + " likeMedianUs=" + likeMedian / 1000);
+        assertTrue("full text search should be faster than substring scan",
+                ftsMedian < likeMedian);
+    }
+
+    private int count(String sql, String arg) {
+        Cursor c = mDb.rawQuery(sql, new String[] { arg });
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    private String randomContent(Random random) {
+        int length = 40 + random.nextInt(160);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(12) == 0) {
+                sb.append(PUNCTUATIONS.charAt(random.nextInt(PUNCTUATIONS.length())));
+            } else {
+                sb.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Take two or three continuous characters from a random note as query
+     */
+    private String randomQuery(Random random) {
+        while (true) {
+            String content = mContents[random.nextInt(NOTE_COUNT)];
+            int length = 2 + random.nextInt(2);
+            int start = random.nextInt(content.length() - length);
+            String query = content.substring(start, start + length);
+            if (SearchTokenizer.getTerms(query).size() == 1
+                    && SearchTokenizer.getTerms(query).get(0).length() == length) {
+                return query;
+            }
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,218 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cursor window usage and bind time of the note list, reading the bounded snippet compared
+ * with reading the full content of notes as the snippet did before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SnippetBenchmarkTest {
+    private static final String TAG = "SnippetBenchmark";
+
+    private static final String DB_NAME = "snippet_benchmark.db";
+
+    private static final int NOTE_COUNT = 10000;
+
+    private static final int AVERAGE_CONTENT_LENGTH = 5000;
+
+    private static final String TAG_CHECKED = "√";
+
+    private static final String TAG_UNCHECKED = "□";
+
+    private static final String LIST_SELECTION = NoteColumns.PARENT_ID + "="
+            + Notes.ID_ROOT_FOLDER;
+
+    private static final String LIST_ORDER = NoteColumns.TYPE + " DESC,"
+            + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID + " DESC";
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+
+        Random random = new Random(42);
+        ContentValues values = new ContentValues();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < NOTE_COUNT; i++) {
+                values.clear();
+                values.put(NoteColumns.ID, i + 1);
+                values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+                values.put(NoteColumns.MODIFIED_DATE, i);
+                mDb.insert(TABLE.NOTE, null, values);
+
+                values.clear();
+                values.put(DataColumns.NOTE_ID, i + 1);
+                values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+                values.put(DataColumns.CONTENT, randomContent(random, i % 2 == 0));
+                mDb.insert(TABLE.DATA, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void snippetIsBoundedPreview() {
+        Cursor c = mDb.rawQuery("SELECT MAX(LENGTH(" + NoteColumns.SNIPPET + ")) FROM "
+                + TABLE.NOTE + " WHERE " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE, null);
+        try {
+            assertTrue(c.moveToFirst());
+            assertTrue(c.getInt(0) <= NotesDatabaseHelper.SNIPPET_MAX_LENGTH);
+        } finally {
+            c.close();
+        }
+
+        c = mDb.query(TABLE.NOTE, new String[] { NoteColumns.SNIPPET }, LIST_SELECTION, null,
+                null, null, null);
+        try {
+            while (c.moveToNext()) {
+                String snippet = c.getString(0);
+                assertFalse(snippet.contains("\n"));
+                assertFalse(snippet.contains(TAG_CHECKED));
+                assertFalse(snippet.contains(TAG_UNCHECKED));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    @Test
+    public void snippetWrittenDirectlyIsBounded() {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.SNIPPET, "\n" + TAG_UNCHECKED + " first\nsecond");
+        mDb.update(TABLE.NOTE, values, NoteColumns.ID + "=1", null);
+
+        Cursor c = mDb.query(TABLE.NOTE, new String[] { NoteColumns.SNIPPET },
+                NoteColumns.ID + "=1", null, null, null, null);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals("first", c.getString(0));
+        } finally {
+            c.close();
+        }
+    }
+
+    @Test
+    public void previewSavesCursorWindow() {
+        String fullContent = "(SELECT " + DataColumns.CONTENT + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.NOTE_ID + "=" + TABLE.NOTE_LIST + "." + NoteColumns.ID
+                + " AND " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "')";
+        // warm up the page cache so that both queries read from memory
+        bind(fullContent, true);
+
+        long[] before = bind(fullContent, true);
+        long[] after = bind(NoteColumns.SNIPPET, false);
+
+        Log.i(TAG, "notes=" + NOTE_COUNT
+                + " fullSnippetChars=" + before[0] + " fullWindowFills=" + before[1]
+                + " fullBindMs=" + before[2]
+                + " previewChars=" + after[0] + " previewWindowFills=" + after[1]
+                + " previewBindMs=" + after[2]);
+        assertTrue(after[0] < before[0]);
+        assertTrue(after[1] <= before[1]);
+    }
+
+    /**
+     * Read every row of the note list like {@link net.micode.notes.ui.NoteItemData} does.
+     * Returns the total length of snippets, the times the cursor window is filled and the
+     * time in milliseconds.
+     */
+    private long[] bind(String snippet, boolean removeTags) {
+        long chars = 0;
+        long fills = 0;
+        long start = SystemClock.elapsedRealtime();
+        Cursor c = mDb.query(TABLE.NOTE_LIST, new String[] {
+                NoteColumns.ID, NoteColumns.ALERTED_DATE, NoteColumns.BG_COLOR_ID,
+                NoteColumns.MODIFIED_DATE, NoteColumns.NOTES_COUNT, snippet, NoteColumns.TYPE
+        }, LIST_SELECTION, null, null, null, LIST_ORDER);
+        try {
+            int windowStart = -1;
+            while (c.moveToNext()) {
+                c.getLong(0);
+                c.getLong(1);
+                c.getInt(2);
+                c.getLong(3);
+                c.getInt(4);
+                String text = c.getString(5);
+                if (removeTags) {
+                    text = text.replace(TAG_CHECKED, "").replace(TAG_UNCHECKED, "");
+                }
+                chars += text.length();
+                c.getInt(6);
+
+                int position = ((AbstractWindowedCursor) c).getWindow().getStartPosition();
+                if (position != windowStart) {
+                    windowStart = position;
+                    fills++;
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return new long[] { chars, fills, SystemClock.elapsedRealtime() - start };
+    }
+
+    /**
+     * Content of about {@link #AVERAGE_CONTENT_LENGTH} characters in lines, half of the
+     * notes are check lists
+     */
+    private static String randomContent(Random random, boolean checkList) {
+        int length = AVERAGE_CONTENT_LENGTH / 2 + random.nextInt(AVERAGE_CONTENT_LENGTH);
+        StringBuilder sb = new StringBuilder(length + 64);
+        while (sb.length() < length) {
+            if (checkList) {
+                sb.append(random.nextBoolean() ? TAG_CHECKED : TAG_UNCHECKED).append(' ');
+            }
+            int words = 3 + random.nextInt(12);
+            for (int i = 0; i < words; i++) {
+                int letters = 2 + random.nextInt(8);
+                for (int j = 0; j < letters; j++) {
+                    sb.append((char) ('a' + random.nextInt(26)));
+                }
+                sb.append(' ');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
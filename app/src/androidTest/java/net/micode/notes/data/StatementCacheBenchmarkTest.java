@@ -0,0 +1,171 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput of the single row writes of the sync, through {@link SQLiteDatabase} and through
+ * the compiled statements of {@link StatementCache}
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatementCacheBenchmarkTest {
+    private static final String TAG = "StatementCacheBenchmark";
+
+    private static final String DB_NAME = "statement_cache_benchmark.db";
+
+    private static final int WRITE_COUNT = 5000;
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private SQLiteDatabase mDb;
+
+    private StatementCache mCache;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+        mCache = new StatementCache(mHelper);
+    }
+
+    @After
+    public void tearDown() {
+        mCache.clear();
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void writeThroughput() {
+        long[] plainIds = new long[WRITE_COUNT];
+        long start = SystemClock.elapsedRealtime();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < WRITE_COUNT; i++) {
+                plainIds[i] = mDb.insert(TABLE.NOTE, null, getNoteValues(i));
+                mDb.insert(TABLE.DATA, null, getDataValues(plainIds[i], i));
+            }
+            for (int i = 0; i < WRITE_COUNT; i++) {
+                mDb.update(TABLE.NOTE, getNoteValues(i), NoteColumns.ID + "=" + plainIds[i], null);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        long plainTime = SystemClock.elapsedRealtime() - start;
+
+        long[] cachedIds = new long[WRITE_COUNT];
+        start = SystemClock.elapsedRealtime();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < WRITE_COUNT; i++) {
+                cachedIds[i] = mCache.insert(mDb, TABLE.NOTE, getNoteValues(i));
+                mCache.insert(mDb, TABLE.DATA, getDataValues(cachedIds[i], i));
+            }
+            for (int i = 0; i < WRITE_COUNT; i++) {
+                assertEquals(1, mCache.updateById(mDb, TABLE.NOTE, getNoteValues(i), null,
+                        cachedIds[i]));
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        long cachedTime = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(3, mCache.getMissCount());
+        assertEquals(WRITE_COUNT * 3 - 3, mCache.getHitCount());
+        assertEquals(WRITE_COUNT * 2, DatabaseUtils.queryNumEntries(mDb, TABLE.DATA));
+
+        int writes = WRITE_COUNT * 3;
+        Log.i(TAG, "writes per second: plain=" + writes * 1000L / Math.max(plainTime, 1)
+                + " cached=" + writes * 1000L / Math.max(cachedTime, 1));
+    }
+
+    @Test
+    public void invalidatedOnReopen() {
+        long id = mCache.insert(mDb, TABLE.NOTE, getNoteValues(0));
+        mHelper.close();
+        mDb = mHelper.getWritableDatabase();
+
+        assertEquals(1, mCache.updateById(mDb, TABLE.NOTE, getNoteValues(1), null, id));
+        assertTrue(mCache.insert(mDb, TABLE.NOTE, getNoteValues(2)) > 0);
+        assertEquals(3, mCache.getMissCount());
+    }
+
+    @Test(timeout = 10000)
+    public void writerOutsideBatchDoesNotBlockBatch() throws Exception {
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final long[] singleId = new long[1];
+        Thread single = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    inTransaction.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // waits for the connection held by the batch
+                singleId[0] = mCache.insert(mDb, TABLE.NOTE, getNoteValues(1));
+            }
+        });
+        single.start();
+
+        mDb.beginTransaction();
+        try {
+            mCache.insert(mDb, TABLE.NOTE, getNoteValues(0));
+            inTransaction.countDown();
+            // let the other thread block on the connection before writing again
+            single.join(500);
+            assertTrue(mCache.insert(mDb, TABLE.NOTE, getNoteValues(2)) > 0);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        single.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(single.isAlive());
+        assertTrue(singleId[0] > 0);
+    }
+
+    private static ContentValues getNoteValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        values.put(NoteColumns.MODIFIED_DATE, System.currentTimeMillis());
+        values.put(NoteColumns.LOCAL_MODIFIED, i % 2);
+        values.put(NoteColumns.GTASK_ID, "gtask" + i);
+        return values;
+    }
+
+    private static ContentValues getDataValues(long noteId, int i) {
+        ContentValues values = new ContentValues();
+        values.put(DataColumns.NOTE_ID, noteId);
+        values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+        values.put(DataColumns.CONTENT, "content " + i);
+        return values;
+    }
+}
@@ -0,0 +1,186 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latency of the note list query while a sync is writing notes one by one
+ */
+@RunWith(AndroidJUnit4.class)
+public class WriteAheadLogTest {
+    private static final String TAG = "WriteAheadLogTest";
+
+    private static final String DB_NAME = "wal_test.db";
+
+    private static final int SYNC_NOTE_COUNT = 10000;
+
+    private static final String LIST_QUERY = "SELECT " + NoteColumns.ID + ","
+            + NoteColumns.SNIPPET + "," + NoteColumns.MODIFIED_DATE + " FROM " + TABLE.NOTE
+            + " WHERE " + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM + " AND "
+            + NoteColumns.PARENT_ID + "=?"
+            + " ORDER BY " + NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC";
+
+    private Context mContext;
+
+    private NotesDatabaseHelper mHelper;
+
+    private volatile Throwable mWriterError;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DB_NAME);
+        mHelper = new NotesDatabaseHelper(mContext, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void listQueryDuringSync() throws Exception {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        assertTrue(db.isWriteAheadLoggingEnabled());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    SQLiteDatabase db = mHelper.getWritableDatabase();
+                    for (int i = 0; i < SYNC_NOTE_COUNT; i++) {
+                        commitNote(db, "synced note " + i);
+                    }
+                } catch (Throwable e) {
+                    mWriterError = e;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        writer.start();
+
+        ArrayList<Long> latencies = new ArrayList<Long>();
+        SQLiteDatabase reader = mHelper.getReadableDatabase();
+        while (done.getCount() > 0) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor c = reader.rawQuery(LIST_QUERY,
+                    new String[] { String.valueOf(Notes.ID_ROOT_FOLDER) });
+            try {
+                c.getCount();
+            } finally {
+                c.close();
+            }
+            latencies.add((SystemClock.elapsedRealtimeNanos() - start) / 1000);
+        }
+        writer.join();
+        assertNull(mWriterError);
+
+        Collections.sort(latencies);
+        long median = latencies.get(latencies.size() / 2);
+        long p95 = latencies.get(latencies.size() * 95 / 100);
+        long max = latencies.get(latencies.size() - 1);
+        Log.i(TAG, "list queries=" + latencies.size() + " medianUs=" + median + " p95Us=" + p95
+                + " maxUs=" + max);
+        assertTrue(latencies.size() > 1);
+        assertTrue("p95 of list query " + p95 + "us", p95 < 200000);
+    }
+
+    @Test
+    public void readerDoesNotWaitForWriter() throws Exception {
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                SQLiteDatabase db = mHelper.getWritableDatabase();
+                db.beginTransaction();
+                try {
+                    commitNote(db, "uncommitted");
+                    inTransaction.countDown();
+                    readDone.await(10, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    mWriterError = e;
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        assertTrue(inTransaction.await(10, TimeUnit.SECONDS));
+
+        long start = SystemClock.elapsedRealtime();
+        Cursor c = mHelper.getReadableDatabase().rawQuery(LIST_QUERY,
+                new String[] { String.valueOf(Notes.ID_ROOT_FOLDER) });
+        try {
+            // the reader sees the snapshot before the open transaction
+            assertEquals(0, c.getCount());
+        } finally {
+            c.close();
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        readDone.countDown();
+        writer.join();
+
+        assertNull(mWriterError);
+        assertTrue("reader waited " + elapsed + "ms", elapsed < 1000);
+    }
+
+    @Test
+    public void checkpointTruncatesLog() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        for (int i = 0; i < 1000; i++) {
+            commitNote(db, "note " + i);
+        }
+        File wal = new File(db.getPath() + "-wal");
+        assertTrue(wal.length() > 0);
+
+        mHelper.checkpoint(db);
+        assertEquals(0, wal.length());
+    }
+
+    /**
+     * Write a note the same way as the sync does, the note and its data in separate writes
+     */
+    private static void commitNote(SQLiteDatabase db, String content) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        long noteId = db.insert(TABLE.NOTE, null, values);
+
+        values.clear();
+        values.put(DataColumns.NOTE_ID, noteId);
+        values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+        values.put(DataColumns.CONTENT, content);
+        db.insert(TABLE.DATA, null, values);
+
+        values.clear();
+        values.put(NoteColumns.LOCAL_MODIFIED, 0);
+        db.update(TABLE.NOTE, values, NoteColumns.ID + "=" + noteId, null);
+    }
+}
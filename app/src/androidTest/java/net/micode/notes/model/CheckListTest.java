@@ -0,0 +1,250 @@
+package net.micode.notes.model;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.CheckListItem;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.gtask.data.SqlNote;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class CheckListTest {
+    private static final String TEXT = "√ a\n□ b\n□ c\n";
+
+    private Context mContext;
+
+    private ContentResolver mResolver;
+
+    private long mNoteId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mResolver = mContext.getContentResolver();
+
+        // a check list written as text, as a sync does
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        mNoteId = ContentUris.parseId(mResolver.insert(Notes.CONTENT_NOTE_URI, values));
+        values.clear();
+        values.put(DataColumns.NOTE_ID, mNoteId);
+        values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+        values.put(TextNote.MODE, TextNote.MODE_CHECK_LIST);
+        values.put(DataColumns.CONTENT, TEXT);
+        mResolver.insert(Notes.CONTENT_DATA_URI, values);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNoteId), null,
+                null);
+    }
+
+    @Test
+    public void textGetsItems() {
+        assertEquals(3, getItemCount());
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        assertEquals(3, note.getCheckList().getItems().size());
+        assertTrue(note.getCheckList().getItems().get(0).isChecked());
+        assertEquals(TEXT, getText());
+        assertEquals(TEXT, note.getContent());
+    }
+
+    @Test
+    public void textWriteSyncsItems() {
+        List<CheckList.Item> before = WorkingNote.load(mContext, mNoteId).getCheckList()
+                .getItems();
+
+        // the text is written without the items, as a sync does
+        setText("√ a\n√ b2\n");
+        assertEquals(2, getItemCount());
+        // the change is notified later, do not reopen the note from the cache
+        NoteStateCache.getInstance(mContext).remove(mNoteId);
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        List<CheckList.Item> items = new ArrayList<CheckList.Item>(
+                note.getCheckList().getItems());
+        assertEquals(2, items.size());
+        assertEquals(before.get(0).getKey(), items.get(0).getKey());
+        assertEquals(before.get(1).getKey(), items.get(1).getKey());
+        assertEquals("b2", items.get(1).getContent());
+        assertTrue(items.get(1).isChecked());
+
+        // a toggle rebuilds the text from the synced items, not the old ones
+        items.get(0).setChecked(false);
+        note.setCheckListItems(items);
+        assertTrue(note.saveNote());
+        assertEquals("□ a\n√ b2\n", getText());
+
+        setText("□ a\n√ b2\nc\n");
+        assertEquals(3, getItemCount());
+        assertEquals("□ a\n√ b2\n□ c\n", getText());
+    }
+
+    @Test
+    public void normalTextDropsItems() {
+        ContentValues values = new ContentValues();
+        values.put(TextNote.MODE, 0);
+        assertEquals(1, mResolver.update(Notes.CONTENT_DATA_URI, values,
+                DataColumns.NOTE_ID + "=" + mNoteId + " AND " + DataColumns.MIME_TYPE + "=?",
+                new String[] { DataConstants.NOTE }));
+        assertEquals(0, getItemCount());
+        assertEquals(TEXT, getText());
+    }
+
+    @Test
+    public void syncDataHasNoItems() throws Exception {
+        JSONObject content = new SqlNote(mContext, mNoteId).getContent();
+        JSONArray data = content.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+        assertEquals(1, data.length());
+        assertEquals(DataConstants.NOTE,
+                data.getJSONObject(0).getString(DataColumns.MIME_TYPE));
+    }
+
+    @Test
+    public void toggleWritesOnlyTheItem() {
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        List<CheckList.Item> items = new ArrayList<CheckList.Item>(
+                note.getCheckList().getItems());
+
+        // edit the second item behind the back of the working note
+        ContentValues values = new ContentValues();
+        values.put(DataColumns.CONTENT, "b2");
+        assertEquals(1, mResolver.update(Notes.CONTENT_DATA_URI, values,
+                CheckListItem.ITEM_KEY + "=?", new String[] { items.get(1).getKey() }));
+
+        items.get(0).setChecked(false);
+        note.setCheckListItems(items);
+        assertTrue(note.saveNote());
+
+        // the second item is not written again
+        assertEquals("□ a\n□ b2\n□ c\n", getText());
+    }
+
+    @Test
+    public void insertedItemKeepsOthersInPlace() {
+        CheckList list = CheckList.fromText(TEXT);
+        Note note = new Note();
+        list.flush(note);
+        List<CheckList.Item> items = new ArrayList<CheckList.Item>(list.getItems());
+        long first = getPosition(items.get(0));
+        long second = getPosition(items.get(1));
+
+        CheckList.Item inserted = new CheckList.Item(false, "between");
+        items.add(1, inserted);
+        assertTrue(list.update(items, note));
+        assertEquals(first, getPosition(items.get(0)));
+        assertEquals(second, getPosition(items.get(2)));
+        assertTrue(getPosition(inserted) > first && getPosition(inserted) < second);
+
+        // moving the last item to the front places it before the others
+        items.add(0, items.remove(items.size() - 1));
+        list.update(items, note);
+        long previous = 0;
+        for (CheckList.Item item : list.getItems()) {
+            assertTrue(getPosition(item) > previous);
+            previous = getPosition(item);
+        }
+        assertFalse(list.update(items, note));
+    }
+
+    @Test
+    public void itemWithSameKeyIsUpdated() {
+        mResolver.delete(Notes.CONTENT_DATA_URI, DataColumns.NOTE_ID + "=" + mNoteId + " AND "
+                + DataColumns.MIME_TYPE + "=?", new String[] { DataConstants.CHECK_LIST_ITEM });
+        ContentValues values = new ContentValues();
+        values.put(DataColumns.NOTE_ID, mNoteId);
+        values.put(DataColumns.MIME_TYPE, DataConstants.CHECK_LIST_ITEM);
+        values.put(CheckListItem.ITEM_KEY, "key");
+        values.put(CheckListItem.POSITION, CheckListItem.POSITION_GAP);
+        values.put(CheckListItem.CHECKED, 0);
+        values.put(DataColumns.CONTENT, "first");
+        Uri first = mResolver.insert(Notes.CONTENT_DATA_URI, values);
+        values.put(CheckListItem.CHECKED, 1);
+        Uri second = mResolver.insert(Notes.CONTENT_DATA_URI, values);
+
+        assertEquals(ContentUris.parseId(first), ContentUris.parseId(second));
+        assertEquals(1, getItemCount());
+        assertEquals("√ first\n", getText());
+    }
+
+    @Test
+    public void normalModeDropsItems() {
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        note.setCheckListMode(0);
+        assertTrue(note.saveNote());
+
+        assertEquals(0, getItemCount());
+        assertEquals(TEXT, getText());
+
+        // without checked items the marks are dropped too
+        note.setCheckListMode(TextNote.MODE_CHECK_LIST);
+        for (CheckList.Item item : note.getCheckList().getItems()) {
+            item.setChecked(false);
+        }
+        note.setCheckListItems(new ArrayList<CheckList.Item>(note.getCheckList().getItems()));
+        note.setCheckListMode(0);
+        assertTrue(note.saveNote());
+        assertEquals(0, getItemCount());
+        assertEquals("a\nb\nc\n", getText());
+    }
+
+    private static long getPosition(CheckList.Item item) {
+        return item.toValues().getAsLong(CheckListItem.POSITION);
+    }
+
+    private int getItemCount() {
+        Cursor c = mResolver.query(Notes.CONTENT_DATA_URI, new String[] { DataColumns.ID },
+                DataColumns.NOTE_ID + "=" + mNoteId + " AND " + DataColumns.MIME_TYPE + "=?",
+                new String[] { DataConstants.CHECK_LIST_ITEM }, null);
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    private void setText(String text) {
+        ContentValues values = new ContentValues();
+        values.put(DataColumns.CONTENT, text);
+        assertEquals(1, mResolver.update(Notes.CONTENT_DATA_URI, values,
+                DataColumns.NOTE_ID + "=" + mNoteId + " AND " + DataColumns.MIME_TYPE + "=?",
+                new String[] { DataConstants.NOTE }));
+    }
+
+    private String getText() {
+        Cursor c = mResolver.query(Notes.CONTENT_DATA_URI, new String[] { DataColumns.CONTENT },
+                DataColumns.NOTE_ID + "=" + mNoteId + " AND " + DataColumns.MIME_TYPE + "=?",
+                new String[] { DataConstants.NOTE }, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getString(0);
+        } finally {
+            c.close();
+        }
+    }
+}
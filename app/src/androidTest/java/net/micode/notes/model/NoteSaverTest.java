@@ -0,0 +1,184 @@
+package net.micode.notes.model;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class NoteSaverTest {
+    private static final String TAG = "NoteSaverTest";
+
+    private static final int EDIT_COUNT = 50;
+
+    private static final long FLUSH_TIMEOUT = 5000;
+
+    private Context mContext;
+
+    private ContentResolver mResolver;
+
+    private long mNoteId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mResolver = mContext.getContentResolver();
+
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        mNoteId = ContentUris.parseId(mResolver.insert(Notes.CONTENT_NOTE_URI, values));
+        values.clear();
+        values.put(DataColumns.NOTE_ID, mNoteId);
+        values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+        values.put(DataColumns.CONTENT, "saver");
+        mResolver.insert(Notes.CONTENT_DATA_URI, values);
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNoteId), null,
+                null);
+    }
+
+    @Test
+    public void editsAreMerged() {
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        long version = getVersion();
+
+        for (int i = 0; i < EDIT_COUNT; i++) {
+            note.setWorkingText("edit " + i);
+            assertTrue(note.saveNoteInBackground(500));
+        }
+        assertTrue(note.flushSave(FLUSH_TIMEOUT));
+
+        // all the edits are written by one update of the note
+        assertEquals(version + 1, getVersion());
+        assertEquals("edit " + (EDIT_COUNT - 1), getContent());
+        assertEquals(1, getTextDataCount());
+    }
+
+    @Test
+    public void newDataIsInsertedOnce() {
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        note.setBgColorId(3);
+        note.setCheckListMode(Notes.TextNote.MODE_CHECK_LIST);
+        assertTrue(note.saveNoteInBackground(0));
+        note.setWorkingText("second");
+        assertTrue(note.saveNoteInBackground(0));
+        assertTrue(note.flushSave(FLUSH_TIMEOUT));
+
+        assertEquals("second", getContent());
+        assertEquals(1, getTextDataCount());
+    }
+
+    @Test
+    public void backgroundSaveDoesNotBlock() {
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+
+        long blocking = 0;
+        for (int i = 0; i < EDIT_COUNT; i++) {
+            note.setWorkingText("blocking " + i);
+            long start = SystemClock.elapsedRealtimeNanos();
+            assertTrue(note.saveNote());
+            blocking += SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        long background = 0;
+        for (int i = 0; i < EDIT_COUNT; i++) {
+            note.setWorkingText("background " + i);
+            long start = SystemClock.elapsedRealtimeNanos();
+            assertTrue(note.saveNoteInBackground(0));
+            background += SystemClock.elapsedRealtimeNanos() - start;
+        }
+        assertTrue(note.flushSave(FLUSH_TIMEOUT));
+        assertEquals("background " + (EDIT_COUNT - 1), getContent());
+
+        Log.i(TAG, "edits=" + EDIT_COUNT + " blockingUs=" + blocking / EDIT_COUNT / 1000
+                + " backgroundUs=" + background / EDIT_COUNT / 1000);
+        assertTrue(background < blocking);
+    }
+
+    @Test
+    public void newNoteGetsItsIdRightAway() {
+        WorkingNote note = WorkingNote.createEmptyNote(mContext, Notes.ID_ROOT_FOLDER, 0,
+                Notes.TYPE_WIDGET_INVALIDE, 0);
+        assertEquals(0, note.saveNoteForId());
+
+        note.setWorkingText("new");
+        long noteId = note.saveNoteForId();
+        assertTrue(noteId > 0);
+        try {
+            // a second save writes the same note
+            note.setWorkingText("new note");
+            assertEquals(noteId, note.saveNoteForId());
+            assertTrue(note.flushSave(FLUSH_TIMEOUT));
+
+            Cursor c = mResolver.query(Notes.CONTENT_DATA_URI,
+                    new String[] { DataColumns.CONTENT }, DataColumns.NOTE_ID + "=? AND "
+                    + DataColumns.MIME_TYPE + "=?", new String[] { String.valueOf(noteId),
+                    DataConstants.NOTE }, null);
+            try {
+                assertEquals(1, c.getCount());
+                assertTrue(c.moveToFirst());
+                assertEquals("new note", c.getString(0));
+            } finally {
+                c.close();
+            }
+        } finally {
+            mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null,
+                    null);
+        }
+    }
+
+    private long getVersion() {
+        Cursor c = mResolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNoteId),
+                new String[] { NoteColumns.VERSION }, null, null, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private String getContent() {
+        Cursor c = mResolver.query(Notes.CONTENT_DATA_URI, new String[] { DataColumns.CONTENT },
+                DataColumns.NOTE_ID + "=? AND " + DataColumns.MIME_TYPE + "=?",
+                new String[] { String.valueOf(mNoteId), DataConstants.NOTE }, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getString(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private int getTextDataCount() {
+        Cursor c = mResolver.query(Notes.CONTENT_DATA_URI, new String[] { DataColumns.ID },
+                DataColumns.NOTE_ID + "=? AND " + DataColumns.MIME_TYPE + "=?",
+                new String[] { String.valueOf(mNoteId), DataConstants.NOTE }, null);
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+}
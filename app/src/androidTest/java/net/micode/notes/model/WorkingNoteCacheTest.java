@@ -0,0 +1,127 @@
+package net.micode.notes.model;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class WorkingNoteCacheTest {
+    private static final String TAG = "WorkingNoteCache";
+
+    private static final int REOPEN_COUNT = 50;
+
+    private static final long NOTIFY_TIMEOUT = 5000;
+
+    private Context mContext;
+
+    private ContentResolver mResolver;
+
+    private NoteStateCache mCache;
+
+    private long mNoteId;
+
+    private Uri mDataUri;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mCache = NoteStateCache.getInstance(mContext);
+
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        mNoteId = ContentUris.parseId(mResolver.insert(Notes.CONTENT_NOTE_URI, values));
+        values.clear();
+        values.put(DataColumns.NOTE_ID, mNoteId);
+        values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+        values.put(DataColumns.CONTENT, "cached content");
+        mDataUri = mResolver.insert(Notes.CONTENT_DATA_URI, values);
+        waitForInvalidation();
+        mCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNoteId), null,
+                null);
+    }
+
+    @Test
+    public void reopenSkipsDatabase() {
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        assertEquals("cached content", note.getContent());
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+
+        for (int i = 0; i < REOPEN_COUNT; i++) {
+            note = WorkingNote.load(mContext, mNoteId);
+            assertEquals("cached content", note.getContent());
+            assertEquals(Notes.ID_ROOT_FOLDER, note.getFolderId());
+        }
+        assertEquals(REOPEN_COUNT, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+
+        Log.i(TAG, "hitRate=" + mCache.getHitRate()
+                + " hitUs=" + mCache.getAverageHitNanos() / 1000
+                + " missUs=" + mCache.getAverageMissNanos() / 1000);
+        assertTrue(mCache.getAverageHitNanos() < mCache.getAverageMissNanos());
+    }
+
+    @Test
+    public void changeInvalidates() {
+        WorkingNote.load(mContext, mNoteId);
+        assertNotNull(mCache.get(mNoteId));
+
+        ContentValues values = new ContentValues();
+        values.put(DataColumns.CONTENT, "changed content");
+        mResolver.update(mDataUri, values, null, null);
+        waitForInvalidation();
+
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        assertEquals("changed content", note.getContent());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void saveInvalidates() {
+        WorkingNote note = WorkingNote.load(mContext, mNoteId);
+        note.setWorkingText("saved content");
+        assertTrue(note.saveNote());
+        assertNull(mCache.get(mNoteId));
+
+        note = WorkingNote.load(mContext, mNoteId);
+        assertEquals("saved content", note.getContent());
+    }
+
+    /**
+     * The provider notifies the changes a moment later
+     */
+    private void waitForInvalidation() {
+        long deadline = SystemClock.elapsedRealtime() + NOTIFY_TIMEOUT;
+        int generation = mCache.getGeneration();
+        while (mCache.getGeneration() == generation
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(20);
+        }
+        assertNull(mCache.get(mNoteId));
+    }
+}
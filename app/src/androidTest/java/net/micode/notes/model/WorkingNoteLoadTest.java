@@ -0,0 +1,190 @@
+package net.micode.notes.model;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.CallNote;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * The editor gets the text of a note without waiting for its image and call data, so the
+ * time to open a note does not grow with its attachments.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WorkingNoteLoadTest {
+    private static final String TAG = "WorkingNoteLoad";
+
+    private static final int ATTACHMENT_COUNT = 500;
+
+    private static final int LOAD_COUNT = 20;
+
+    private static final long LOAD_TIMEOUT = 5000;
+
+    private Context mContext;
+
+    private ContentResolver mResolver;
+
+    private long mPlainNoteId;
+
+    private long mHeavyNoteId;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mPlainNoteId = insertNote("plain");
+        mHeavyNoteId = insertNote("heavy");
+
+        ContentValues[] rows = new ContentValues[ATTACHMENT_COUNT];
+        for (int i = 0; i < ATTACHMENT_COUNT; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(DataColumns.NOTE_ID, mHeavyNoteId);
+            rows[i].put(DataColumns.MIME_TYPE, DataConstants.CALL_NOTE);
+            rows[i].put(CallNote.CALL_DATE, i);
+            rows[i].put(CallNote.PHONE_NUMBER, "1380000" + i);
+        }
+        mResolver.bulkInsert(Notes.CONTENT_DATA_URI, rows);
+        insertImage(mHeavyNoteId, "/sdcard/heavy.jpg");
+    }
+
+    @After
+    public void tearDown() {
+        mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mPlainNoteId), null,
+                null);
+        mResolver.delete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mHeavyNoteId), null,
+                null);
+    }
+
+    @Test
+    public void attachmentsLoadInBackground() {
+        NoteStateCache.getInstance(mContext).clear();
+        WorkingNote note = WorkingNote.load(mContext, mHeavyNoteId);
+        assertEquals("heavy", note.getContent());
+        assertTrue(note.waitForAttachments(LOAD_TIMEOUT));
+        assertEquals("/sdcard/heavy.jpg", note.getImagePath());
+
+        note = WorkingNote.load(mContext, mHeavyNoteId);
+        assertTrue(note.waitForAttachments(LOAD_TIMEOUT));
+        assertEquals("/sdcard/heavy.jpg", note.getImagePath());
+    }
+
+    @Test
+    public void loadTimeDoesNotDependOnAttachments() {
+        long plainNanos = measureLoad(mPlainNoteId);
+        long heavyNanos = measureLoad(mHeavyNoteId);
+        Log.i(TAG, "attachments=" + ATTACHMENT_COUNT + " plainUs=" + plainNanos / 1000
+                + " heavyUs=" + heavyNanos / 1000);
+        assertTrue(heavyNanos < plainNanos * 2);
+    }
+
+    @Test
+    public void saveUpdatesLoadedImage() {
+        NoteStateCache.getInstance(mContext).clear();
+        WorkingNote note = WorkingNote.load(mContext, mHeavyNoteId);
+        note.setWorkingImage("/sdcard/changed.jpg");
+        assertTrue(note.saveNote());
+        assertImage(mHeavyNoteId, "/sdcard/changed.jpg");
+    }
+
+    @Test
+    public void saveDoesNotWaitForAttachments() throws Exception {
+        // hold the saver thread so the attachments are still loading when the note is saved
+        final CountDownLatch release = new CountDownLatch(1);
+        NoteSaver.getHandler().post(new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try {
+            NoteStateCache.getInstance(mContext).clear();
+            WorkingNote note = WorkingNote.load(mContext, mHeavyNoteId);
+            note.setWorkingImage("/sdcard/early.jpg");
+            long start = SystemClock.elapsedRealtime();
+            assertTrue(note.saveNoteInBackground(0));
+            assertTrue(SystemClock.elapsedRealtime() - start < 500);
+            release.countDown();
+
+            assertTrue(note.flushSave(LOAD_TIMEOUT));
+            assertTrue(note.waitForAttachments(LOAD_TIMEOUT));
+            assertEquals("/sdcard/early.jpg", note.getImagePath());
+        } finally {
+            release.countDown();
+        }
+        // the image data is updated, not inserted again
+        assertImage(mHeavyNoteId, "/sdcard/early.jpg");
+    }
+
+    private void assertImage(long noteId, String path) {
+        Cursor c = mResolver.query(Notes.CONTENT_DATA_URI, new String[] { DataColumns.CONTENT },
+                DataColumns.NOTE_ID + "=" + noteId + " AND " + DataColumns.MIME_TYPE
+                + "=?", new String[] { DataConstants.IMAGE_NOTE }, null);
+        try {
+            assertEquals(1, c.getCount());
+            assertTrue(c.moveToFirst());
+            assertEquals(path, c.getString(0));
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Average time of loading the note with the cache cleared, without waiting for the
+     * attachments
+     */
+    private long measureLoad(long noteId) {
+        long total = 0;
+        for (int i = 0; i < LOAD_COUNT; i++) {
+            NoteStateCache.getInstance(mContext).clear();
+            long start = SystemClock.elapsedRealtimeNanos();
+            WorkingNote note = WorkingNote.load(mContext, noteId);
+            total += SystemClock.elapsedRealtimeNanos() - start;
+            assertTrue(note.waitForAttachments(LOAD_TIMEOUT));
+        }
+        return total / LOAD_COUNT;
+    }
+
+    private long insertNote(String content) {
+        ContentValues values = new ContentValues();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+        long noteId = ContentUris.parseId(mResolver.insert(Notes.CONTENT_NOTE_URI, values));
+        values.clear();
+        values.put(DataColumns.NOTE_ID, noteId);
+        values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+        values.put(DataColumns.CONTENT, content);
+        mResolver.insert(Notes.CONTENT_DATA_URI, values);
+        return noteId;
+    }
+
+    private void insertImage(long noteId, String path) {
+        ContentValues values = new ContentValues();
+        values.put(DataColumns.NOTE_ID, noteId);
+        values.put(DataColumns.MIME_TYPE, DataConstants.IMAGE_NOTE);
+        values.put(DataColumns.CONTENT, path);
+        mResolver.insert(Notes.CONTENT_DATA_URI, values);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Files attached to notes, kept in the private files directory of the app so they are never
+ * evicted like the cache. A file is named by the SHA-256 of its content, the same image
+ * attached twice is stored once. The path of the file is the reference kept in the
+ * {@link Notes.ImageNote} data of a note, it does not change once the file is stored. The
+ * files no longer referenced are removed by {@link AttachmentSweeper}.
+ */
+public class AttachmentStore {
+    private static final String TAG = "AttachmentStore";
+
+    private static final String DIRECTORY = "images";
+
+    private static final String DEFAULT_EXTENSION = "jpg";
+
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private static Handler sHandler;
+
+    private final Context mContext;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public interface OnAttachmentStoredListener {
+        /**
+         * Called on the main thread, with null if the file could not be stored
+         */
+        void onAttachmentStored(String path);
+    }
+
+    public AttachmentStore(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread("AttachmentStore",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    public File getDirectory() {
+        return getDirectory(mContext);
+    }
+
+    static File getDirectory(Context context) {
+        return new File(context.getFilesDir(), DIRECTORY);
+    }
+
+    /**
+     * Whether the path is a file of the store
+     */
+    public boolean contains(String path) {
+        return path != null && getDirectory().equals(new File(path).getParentFile());
+    }
+
+    /**
+     * Copy the content of the uri into the store in background
+     */
+    public void store(final Uri uri, final OnAttachmentStoredListener listener) {
+        getHandler().post(new Runnable() {
+            public void run() {
+                final String path = store(uri);
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        listener.onAttachmentStored(path);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Copy the content of the uri into the store, the copy is written to a temporary file by
+     * the channels then renamed after its hash, unless a file with the same content is there
+     *
+     * @return the path of the stored file, null if it fails
+     */
+    public String store(Uri uri) {
+        File directory = getDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Cannot create " + directory);
+            return null;
+        }
+
+        File temp = null;
+        try {
+            temp = File.createTempFile("import", ".tmp", directory);
+            ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uri, "r");
+            if (pfd == null) {
+                Log.e(TAG, "Cannot open " + uri);
+                return null;
+            }
+            // a provider may stream the content through a pipe, which has no size to be
+            // transferred from as a file
+            boolean regularFile = pfd.getStatSize() >= 0;
+            FileInputStream input = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                copy(regularFile ? input.getChannel() : Channels.newChannel(input),
+                        output.getChannel());
+                output.getFD().sync();
+            } finally {
+                input.close();
+                output.close();
+            }
+
+            File file = new File(directory, hash(temp) + '.' + getExtension(uri));
+            // the file is registered in the same transaction as it is put in place, so the
+            // sweeper never removes it before the note referencing it is saved
+            SQLiteDatabase db = NotesDatabaseHelper.getInstance(mContext).getWritableDatabase();
+            db.beginTransaction();
+            try {
+                AttachmentSweeper.retain(db, file.getAbsolutePath(), System.currentTimeMillis());
+                if (!file.exists()) {
+                    if (!temp.renameTo(file)) {
+                        Log.e(TAG, "Cannot rename " + temp + " to " + file);
+                        return null;
+                    }
+                    temp = null;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return file.getAbsolutePath();
+        } catch (IOException e) {
+            Log.e(TAG, "Store " + uri + " failed " + e.toString());
+            return null;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Cannot read " + uri + " " + e.toString());
+            return null;
+        } finally {
+            if (temp != null && !temp.delete()) {
+                Log.w(TAG, "Cannot delete " + temp);
+            }
+        }
+    }
+
+    /**
+     * Copy all of the source channel, from its position, to the target channel
+     */
+    private static void copy(ReadableByteChannel source, FileChannel target)
+            throws IOException {
+        long position = 0;
+        while (true) {
+            long count = target.transferFrom(source, position, Long.MAX_VALUE - position);
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+        }
+    }
+
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            input.close();
+        }
+
+        byte[] hash = digest.digest();
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private String getExtension(Uri uri) {
+        String type = mContext.getContentResolver().getType(uri);
+        String extension = type == null ? null
+                : MimeTypeMap.getSingleton().getExtensionFromMimeType(type);
+        if (extension == null) {
+            extension = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
+        }
+        return extension == null || extension.isEmpty() ? DEFAULT_EXTENSION
+                : extension.toLowerCase();
+    }
+}
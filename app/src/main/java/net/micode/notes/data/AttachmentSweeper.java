@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.util.Log;
+
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Removes the files of the {@link AttachmentStore} no longer referenced by any note. The
+ * references are counted in {@link TABLE#ATTACHMENT} by the triggers of the data table. A
+ * file is removed once it has been unreferenced for {@link #RELEASE_DELAY}, so an image
+ * stored for a note which is not saved yet is kept.
+ * <p>
+ * The files are removed in batches, each in a short transaction holding the write lock of
+ * the database while the reference count is checked and the file is removed. A sync writing
+ * notes at the same time waits at most for one batch, and a file is never removed after it
+ * is referenced again.
+ */
+class AttachmentSweeper {
+    private static final String TAG = "AttachmentSweeper";
+
+    static final long RELEASE_DELAY = 60 * 60 * 1000;
+
+    private static final int BATCH_SIZE = 50;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final String RELEASED_SELECTION =
+        NotesDatabaseHelper.ATTACHMENT_REF_COUNT + "<=0 AND "
+        + NotesDatabaseHelper.ATTACHMENT_RELEASED_DATE + "<?";
+
+    /**
+     * What a sweep has found and removed, a dry run only counts
+     */
+    static class Stats {
+        // files in the directory of the store
+        int scanned;
+        // files and registry entries no longer referenced
+        int unreferenced;
+        int deleted;
+        long deletedBytes;
+        int failed;
+
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putInt(Notes.EXTRA_ATTACHMENTS_SCANNED, scanned);
+            bundle.putInt(Notes.EXTRA_ATTACHMENTS_UNREFERENCED, unreferenced);
+            bundle.putInt(Notes.EXTRA_ATTACHMENTS_DELETED, deleted);
+            bundle.putLong(Notes.EXTRA_ATTACHMENTS_DELETED_BYTES, deletedBytes);
+            bundle.putInt(Notes.EXTRA_ATTACHMENTS_FAILED, failed);
+            return bundle;
+        }
+
+        @Override
+        public String toString() {
+            return "scanned:" + scanned + " unreferenced:" + unreferenced + " deleted:"
+                    + deleted + " bytes:" + deletedBytes + " failed:" + failed;
+        }
+    }
+
+    private AttachmentSweeper() {
+    }
+
+    /**
+     * Register a file which is about to be referenced, it is kept for
+     * {@link #RELEASE_DELAY} even if no note references it
+     */
+    static void retain(SQLiteDatabase db, String path, long now) {
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE.ATTACHMENT + "("
+                + NotesDatabaseHelper.ATTACHMENT_PATH + ") VALUES (?)", new Object[] { path });
+        db.execSQL("UPDATE " + TABLE.ATTACHMENT + " SET "
+                + NotesDatabaseHelper.ATTACHMENT_RELEASED_DATE + "=? WHERE "
+                + NotesDatabaseHelper.ATTACHMENT_PATH + "=? AND "
+                + NotesDatabaseHelper.ATTACHMENT_REF_COUNT + "<=0", new Object[] { now, path });
+    }
+
+    /**
+     * Remove the files of the directory released before {@link #RELEASE_DELAY}, and the
+     * files the registry does not know which are as old. Files of the registry outside of the
+     * directory, such as the images of notes created before the store, are never removed,
+     * only their entries are.
+     *
+     * @param dryRun only count what would be removed
+     */
+    static Stats sweep(SQLiteDatabase db, File directory, long now, boolean dryRun) {
+        Stats stats = new Stats();
+        long released = now - RELEASE_DELAY;
+        sweepReleased(db, directory, released, dryRun, stats);
+        sweepUnknown(db, directory, released, dryRun, stats);
+        Log.d(TAG, (dryRun ? "dry run " : "sweep ") + stats);
+        return stats;
+    }
+
+    private static void sweepReleased(SQLiteDatabase db, File directory, long released,
+            boolean dryRun, Stats stats) {
+        String after = "";
+        while (true) {
+            ArrayList<String> paths = new ArrayList<String>();
+            Cursor cursor = db.query(TABLE.ATTACHMENT, new String[] {
+                    NotesDatabaseHelper.ATTACHMENT_PATH }, RELEASED_SELECTION + " AND "
+                    + NotesDatabaseHelper.ATTACHMENT_PATH + ">?", new String[] {
+                    String.valueOf(released), after }, null, null,
+                    NotesDatabaseHelper.ATTACHMENT_PATH, String.valueOf(BATCH_SIZE));
+            try {
+                while (cursor.moveToNext()) {
+                    paths.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            if (paths.isEmpty()) {
+                return;
+            }
+            after = paths.get(paths.size() - 1);
+
+            db.beginTransaction();
+            try {
+                for (String path : paths) {
+                    File file = new File(path);
+                    boolean inStore = directory.equals(file.getParentFile());
+                    if (dryRun) {
+                        stats.unreferenced++;
+                        if (inStore) {
+                            stats.deletedBytes += file.length();
+                        }
+                        continue;
+                    }
+                    // the file may have been referenced again since it was queried
+                    if (db.delete(TABLE.ATTACHMENT, NotesDatabaseHelper.ATTACHMENT_PATH + "=? AND "
+                            + RELEASED_SELECTION, new String[] { path,
+                            String.valueOf(released) }) == 0) {
+                        continue;
+                    }
+                    stats.unreferenced++;
+                    if (inStore) {
+                        deleteFile(file, stats);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    private static void sweepUnknown(SQLiteDatabase db, File directory, long released,
+            boolean dryRun, Stats stats) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        stats.scanned = files.length;
+
+        for (int start = 0; start < files.length; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, files.length);
+            db.beginTransaction();
+            try {
+                for (int i = start; i < end; i++) {
+                    File file = files[i];
+                    // a file being stored is newer, a temporary one left by a crash is older
+                    if (file.lastModified() >= released) {
+                        continue;
+                    }
+                    if (!file.getName().endsWith(TEMP_FILE_SUFFIX)
+                            && DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM "
+                                    + TABLE.ATTACHMENT + " WHERE "
+                                    + NotesDatabaseHelper.ATTACHMENT_PATH + "=?",
+                                    new String[] { file.getAbsolutePath() }) > 0) {
+                        continue;
+                    }
+                    stats.unreferenced++;
+                    if (dryRun) {
+                        stats.deletedBytes += file.length();
+                    } else {
+                        deleteFile(file, stats);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    private static void deleteFile(File file, Stats stats) {
+        long length = file.length();
+        if (!file.exists()) {
+            return;
+        }
+        if (file.delete()) {
+            stats.deleted++;
+            stats.deletedBytes += length;
+        } else {
+            stats.failed++;
+            Log.w(TAG, "Cannot delete " + file);
+        }
+    }
+}
@@ -17,18 +17,45 @@
 package net.micode.notes.data;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Data;
 import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
 import android.util.Log;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Names of the contacts of phone numbers. The names are kept in a bounded cache, numbers
+ * without a contact are cached too so they are not looked up on every bind. Entries expire
+ * after a while and are all dropped when the contacts change.
+ */
 public class Contact {
-    private static HashMap<String, String> sContactCache;
     private static final String TAG = "Contact";
 
+    private static final int MAX_ENTRIES = 256;
+
+    private static final long NAME_TTL_MS = 30 * 60 * 1000;
+
+    /**
+     * Numbers without a contact are looked up again sooner, in case a change of the contacts
+     * has not been notified
+     */
+    private static final long MISS_TTL_MS = 5 * 60 * 1000;
+
+    /**
+     * Numbers looked up by one query of {@link #prefetch}, each one takes an argument
+     */
+    private static final int PREFETCH_BATCH_SIZE = 50;
+
     private static final String CALLER_ID_SELECTION = "PHONE_NUMBERS_EQUAL(" + Phone.NUMBER
     + ",?) AND " + Data.MIMETYPE + "='" + Phone.CONTENT_ITEM_TYPE + "'"
     + " AND " + Data.RAW_CONTACT_ID + " IN "
@@ -36,13 +63,48 @@ public class Contact {
             + " FROM phone_lookup"
             + " WHERE min_match = '+')";
 
-    public static String getContact(Context context, String phoneNumber) {
-        if(sContactCache == null) {
-            sContactCache = new HashMap<String, String>();
+    private static final String CALLER_ID_NUMBER_SELECTION = "(PHONE_NUMBERS_EQUAL("
+            + Phone.NUMBER + ",?) AND " + Data.RAW_CONTACT_ID + " IN "
+            + "(SELECT raw_contact_id "
+            + " FROM phone_lookup"
+            + " WHERE min_match = '+'))";
+
+    private static final LinkedHashMap<String, Entry> sContactCache =
+            new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
         }
+    };
+
+    /**
+     * Increased on every change of the contacts, a name looked up before a change may be
+     * stale and is not cached
+     */
+    private static int sGeneration;
+
+    private static boolean sObserverRegistered;
 
-        if(sContactCache.containsKey(phoneNumber)) {
-            return sContactCache.get(phoneNumber);
+    private static class Entry {
+        // null if the number has no contact
+        final String name;
+        final long expireTime;
+
+        Entry(String name, long expireTime) {
+            this.name = name;
+            this.expireTime = expireTime;
+        }
+    }
+
+    public static String getContact(Context context, String phoneNumber) {
+        int generation;
+        synchronized (sContactCache) {
+            registerObserver(context);
+            Entry entry = getEntry(phoneNumber);
+            if (entry != null) {
+                return entry.name;
+            }
+            generation = sGeneration;
         }
 
         String selection = CALLER_ID_SELECTION.replace("+",
@@ -57,7 +119,7 @@ public class Contact {
         if (cursor != null && cursor.moveToFirst()) {
             try {
                 String name = cursor.getString(0);
-                sContactCache.put(phoneNumber, name);
+                putEntry(phoneNumber, name, generation);
                 return name;
             } catch (IndexOutOfBoundsException e) {
                 Log.e(TAG, " Cursor get string error " + e.toString());
@@ -66,8 +128,132 @@ public class Contact {
                 cursor.close();
             }
         } else {
+            if (cursor != null) {
+                cursor.close();
+            }
             Log.d(TAG, "No contact matched with number:" + phoneNumber);
+            putEntry(phoneNumber, null, generation);
             return null;
         }
     }
+
+    /**
+     * Look up the names of the numbers which are not cached yet, with one query for up to
+     * {@link #PREFETCH_BATCH_SIZE} numbers. Called off the main thread before the rows which
+     * show the numbers are read, so {@link #getContact} then finds them in the cache.
+     */
+    public static void prefetch(Context context, Collection<String> phoneNumbers) {
+        ArrayList<String> missing = new ArrayList<String>();
+        int generation;
+        synchronized (sContactCache) {
+            registerObserver(context);
+            for (String phoneNumber : phoneNumbers) {
+                if (!TextUtils.isEmpty(phoneNumber) && getEntry(phoneNumber) == null
+                        && !missing.contains(phoneNumber)) {
+                    missing.add(phoneNumber);
+                }
+            }
+            generation = sGeneration;
+        }
+
+        for (int start = 0; start < missing.size(); start += PREFETCH_BATCH_SIZE) {
+            prefetchBatch(context, missing.subList(start,
+                    Math.min(start + PREFETCH_BATCH_SIZE, missing.size())), generation);
+        }
+    }
+
+    private static void prefetchBatch(Context context, List<String> phoneNumbers,
+            int generation) {
+        StringBuilder selection = new StringBuilder();
+        selection.append(Data.MIMETYPE).append("='").append(Phone.CONTENT_ITEM_TYPE)
+                .append("' AND (");
+        for (int i = 0; i < phoneNumbers.size(); i++) {
+            if (i > 0) {
+                selection.append(" OR ");
+            }
+            selection.append(CALLER_ID_NUMBER_SELECTION.replace("+",
+                    PhoneNumberUtils.toCallerIDMinMatch(phoneNumbers.get(i))));
+        }
+        selection.append(')');
+
+        String[] names = new String[phoneNumbers.size()];
+        Cursor cursor = context.getContentResolver().query(
+                Data.CONTENT_URI,
+                new String [] { Phone.NUMBER, Phone.DISPLAY_NAME },
+                selection.toString(),
+                phoneNumbers.toArray(new String[phoneNumbers.size()]),
+                null);
+        if (cursor == null) {
+            Log.e(TAG, "Prefetch contacts failed");
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String number = cursor.getString(0);
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i] == null && PhoneNumberUtils.compare(phoneNumbers.get(i), number)) {
+                        names[i] = cursor.getString(1);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            putEntry(phoneNumbers.get(i), names[i], generation);
+        }
+    }
+
+    /**
+     * Get the cached entry of the number, null if it is not cached or has expired
+     */
+    private static Entry getEntry(String phoneNumber) {
+        Entry entry = sContactCache.get(phoneNumber);
+        if (entry != null && entry.expireTime < SystemClock.elapsedRealtime()) {
+            sContactCache.remove(phoneNumber);
+            return null;
+        }
+        return entry;
+    }
+
+    private static void putEntry(String phoneNumber, String name, int generation) {
+        synchronized (sContactCache) {
+            if (generation != sGeneration) {
+                return;
+            }
+            long ttl = name != null ? NAME_TTL_MS : MISS_TTL_MS;
+            sContactCache.put(phoneNumber, new Entry(name,
+                    SystemClock.elapsedRealtime() + ttl));
+        }
+    }
+
+    private static void registerObserver(Context context) {
+        if (sObserverRegistered) {
+            return;
+        }
+        sObserverRegistered = true;
+        try {
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    ContactsContract.Contacts.CONTENT_URI, true, new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            invalidate();
+                        }
+                    });
+        } catch (SecurityException e) {
+            // without the permission the entries only expire
+            Log.w(TAG, "Cannot observe contacts " + e.toString());
+        }
+    }
+
+    /**
+     * Drop all the cached names, called when the contacts change
+     */
+    public static void invalidate() {
+        synchronized (sContactCache) {
+            sGeneration++;
+            sContactCache.clear();
+        }
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+
+import net.micode.notes.data.Notes.DataColumns;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the large content of data. The content longer than
+ * {@link #COMPRESS_THRESHOLD} is stored as DEFLATE compressed utf-8 bytes, which is marked by
+ * {@link NotesDatabaseHelper#CONTENT_CODEC}. The provider decompresses it on read, so callers
+ * of the provider always see the plain text.
+ */
+class ContentCodec {
+    static final int CODEC_NONE = 0;
+
+    static final int CODEC_DEFLATE = 1;
+
+    /**
+     * Content shorter than this in characters is always stored as plain text
+     */
+    static final int COMPRESS_THRESHOLD = 8 * 1024;
+
+    /**
+     * The content is kept as plain text unless it is compressed to less than this ratio
+     */
+    private static final float MIN_COMPRESS_RATIO = 0.9f;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ContentCodec() {
+    }
+
+    /**
+     * Get the values to be written for the values given to the provider. If the values
+     * contain the content, a copy with the content encoded and the codec set is returned,
+     * otherwise the values themselves are returned.
+     */
+    static ContentValues encode(ContentValues values) {
+        if (values == null || !values.containsKey(DataColumns.CONTENT)) {
+            return values;
+        }
+
+        ContentValues encoded = new ContentValues(values);
+        putEncoded(encoded, DataColumns.CONTENT, values.getAsString(DataColumns.CONTENT));
+        return encoded;
+    }
+
+    /**
+     * Put the content encoded into the column, and the codec into
+     * {@link NotesDatabaseHelper#CONTENT_CODEC}
+     */
+    static void putEncoded(ContentValues values, String column, String content) {
+        values.put(column, content);
+        values.put(NotesDatabaseHelper.CONTENT_CODEC, CODEC_NONE);
+        if (content != null && content.length() >= COMPRESS_THRESHOLD) {
+            byte[] plain = content.getBytes(StandardCharsets.UTF_8);
+            byte[] compressed = compress(plain);
+            if (compressed.length < plain.length * MIN_COMPRESS_RATIO) {
+                values.put(column, compressed);
+                values.put(NotesDatabaseHelper.CONTENT_CODEC, CODEC_DEFLATE);
+            }
+        }
+    }
+
+    /**
+     * Whether the content of the encoded values is compressed
+     */
+    static boolean isCompressed(ContentValues encoded) {
+        Integer codec = encoded.getAsInteger(NotesDatabaseHelper.CONTENT_CODEC);
+        return codec != null && codec == CODEC_DEFLATE;
+    }
+
+    static byte[] compress(byte[] plain) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 2);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static String decompress(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated compressed content");
+                }
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted compressed content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
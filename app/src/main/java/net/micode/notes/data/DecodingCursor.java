@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import net.micode.notes.data.Notes.DataColumns;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cursor of data which returns the compressed content as plain text, see
+ * {@link ContentCodec}. The content of a row is decompressed when it is first read, by any of
+ * the getters of a string or a blob.
+ */
+class DecodingCursor extends CursorWrapper {
+    private final int mContentColumn;
+
+    private final int mCodecColumn;
+
+    private int mDecodedPosition = -1;
+
+    private String mDecoded;
+
+    DecodingCursor(Cursor cursor) {
+        super(cursor);
+        mContentColumn = cursor.getColumnIndex(DataColumns.CONTENT);
+        mCodecColumn = cursor.getColumnIndex(NotesDatabaseHelper.CONTENT_CODEC);
+    }
+
+    /**
+     * Get the projection to query for the given projection, the codec is needed to decode
+     * the content
+     */
+    static String[] getProjection(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        boolean hasContent = false;
+        for (String column : projection) {
+            if (NotesDatabaseHelper.CONTENT_CODEC.equals(column)) {
+                return projection;
+            }
+            hasContent |= DataColumns.CONTENT.equals(column);
+        }
+        if (!hasContent) {
+            return projection;
+        }
+        String[] result = new String[projection.length + 1];
+        System.arraycopy(projection, 0, result, 0, projection.length);
+        result[projection.length] = NotesDatabaseHelper.CONTENT_CODEC;
+        return result;
+    }
+
+    private boolean isCompressed(int columnIndex) {
+        return columnIndex == mContentColumn && mCodecColumn >= 0
+                && getWrappedCursor().getInt(mCodecColumn) == ContentCodec.CODEC_DEFLATE;
+    }
+
+    private String getDecoded(int columnIndex) {
+        int position = getPosition();
+        if (position != mDecodedPosition) {
+            mDecoded = ContentCodec.decompress(super.getBlob(columnIndex));
+            mDecodedPosition = position;
+        }
+        return mDecoded;
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return isCompressed(columnIndex) ? getDecoded(columnIndex) : super.getString(columnIndex);
+    }
+
+    /**
+     * The compressed content is read as the UTF-8 bytes of the text, like the plain content
+     */
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        if (!isCompressed(columnIndex)) {
+            return super.getBlob(columnIndex);
+        }
+        String decoded = getDecoded(columnIndex);
+        return decoded == null ? null : decoded.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        if (!isCompressed(columnIndex)) {
+            super.copyStringToBuffer(columnIndex, buffer);
+            return;
+        }
+        String decoded = getDecoded(columnIndex);
+        if (decoded == null) {
+            buffer.sizeCopied = 0;
+            return;
+        }
+        if (buffer.data == null || buffer.data.length < decoded.length()) {
+            buffer.data = decoded.toCharArray();
+        } else {
+            decoded.getChars(0, decoded.length(), buffer.data, 0);
+        }
+        buffer.sizeCopied = decoded.length();
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        return isCompressed(columnIndex) ? FIELD_TYPE_STRING : super.getType(columnIndex);
+    }
+
+    @Override
+    public boolean requery() {
+        mDecodedPosition = -1;
+        mDecoded = null;
+        return super.requery();
+    }
+}
@@ -50,6 +50,7 @@ public class Notes {
         public static final String NOTE = TextNote.CONTENT_ITEM_TYPE;
         public static final String CALL_NOTE = CallNote.CONTENT_ITEM_TYPE;
         public static final String IMAGE_NOTE = ImageNote.CONTENT_ITEM_TYPE;
+        public static final String CHECK_LIST_ITEM = CheckListItem.CONTENT_ITEM_TYPE;
     }
 
     /**
@@ -62,6 +63,81 @@ public class Notes {
      */
     public static final Uri CONTENT_DATA_URI = Uri.parse("content://" + AUTHORITY + "/data");
 
+    /**
+     * Uri to query notes for the list, with the columns of {@link NoteListColumns}. It is
+     * read only and accepts the paging parameters of {@link #CONTENT_NOTE_URI}.
+     */
+    public static final Uri CONTENT_NOTE_LIST_URI = Uri.parse("content://" + AUTHORITY + "/note_list");
+
+    /**
+     * Uri to read the change log of notes, with the columns of {@link ChangeColumns}. It is
+     * read only, the changes after a sequence number are queried with {@link #PARAM_SINCE}.
+     */
+    public static final Uri CONTENT_CHANGE_URI = Uri.parse("content://" + AUTHORITY + "/change");
+
+    /**
+     * Query parameter of {@link #CONTENT_CHANGE_URI}, only the changes with greater
+     * {@link ChangeColumns#SEQ} are returned
+     */
+    public static final String PARAM_SINCE = "since";
+
+    /**
+     * Operations of {@link ChangeColumns#OP}. {@link #CHANGE_RESET} means some changes
+     * before it have been dropped from the log, consumers which have not read up to it
+     * should scan all the notes again.
+     */
+    public static final int CHANGE_RESET  = 0;
+    public static final int CHANGE_INSERT = 1;
+    public static final int CHANGE_UPDATE = 2;
+    public static final int CHANGE_DELETE = 3;
+
+    /**
+     * Uri to read the revisions of the text of notes, with the columns of
+     * {@link RevisionColumns}. It is read only, a revision is recorded whenever the text of a
+     * note is written. {@link RevisionColumns#CONTENT} is only returned by the uri of a single
+     * revision, which rebuilds the text.
+     */
+    public static final Uri CONTENT_REVISION_URI = Uri.parse("content://" + AUTHORITY + "/revision");
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} to checkpoint the write-ahead log
+     * of the database, called after a large amount of writes such as a sync
+     */
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    /**
+     * Method of {@link android.content.ContentResolver#call} to remove the image files no
+     * longer referenced by any note now, which is otherwise done when the database is idle.
+     * It runs on the calling thread. With {@link #EXTRA_DRY_RUN} set in the extras nothing is
+     * removed. The returned bundle has the statistics of the sweep in the
+     * EXTRA_ATTACHMENTS_* values.
+     */
+    public static final String METHOD_SWEEP_ATTACHMENTS = "sweep_attachments";
+    public static final String EXTRA_DRY_RUN = "dry_run";
+    public static final String EXTRA_ATTACHMENTS_SCANNED = "attachments_scanned";
+    public static final String EXTRA_ATTACHMENTS_UNREFERENCED = "attachments_unreferenced";
+    public static final String EXTRA_ATTACHMENTS_DELETED = "attachments_deleted";
+    public static final String EXTRA_ATTACHMENTS_DELETED_BYTES = "attachments_deleted_bytes";
+    public static final String EXTRA_ATTACHMENTS_FAILED = "attachments_failed";
+
+    /**
+     * Query parameters of {@link #CONTENT_NOTE_URI} to read the notes page by page. The page
+     * is sorted by {@link NoteColumns#TYPE}, {@link NoteColumns#MODIFIED_DATE} and
+     * {@link NoteColumns#ID}, all descending. The next page starts after the type, modified
+     * date and id of the last row of the previous page, which should be given all together.
+     */
+    public static final String PARAM_PAGE_SIZE = "page_size";
+    public static final String PARAM_AFTER_TYPE = "after_type";
+    public static final String PARAM_AFTER_MODIFIED_DATE = "after_modified_date";
+    public static final String PARAM_AFTER_ID = "after_id";
+
+    /**
+     * Extra of the cursor of the first page of notes, the number of rows of {@link #TYPE_NOTE}
+     * the selection has in all the pages, which the next pages do not carry
+     * <P> Type: int </P>
+     */
+    public static final String EXTRA_NOTES_TOTAL = "notes_total";
+
     public interface NoteColumns {
         /**
          * The unique ID for a row
@@ -168,6 +244,92 @@ public class Notes {
         public static final String VERSION = "version";
     }
 
+    /**
+     * Columns of a note in the list, including the call data of the notes in the call
+     * record folder
+     */
+    public interface NoteListColumns extends NoteColumns {
+        /**
+         * Phone number of the call note, null for other notes
+         * <P> Type: TEXT </P>
+         */
+        public static final String PHONE_NUMBER = "phone_number";
+
+        /**
+         * Call date of the call note, null for other notes
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String CALL_DATE = "call_date";
+    }
+
+    /**
+     * Columns of the change log, one row for each insert, update or delete of a note. Only
+     * the latest change of each note is kept when the log is compacted, so the operation is
+     * a hint and consumers should read the note itself for its current state.
+     */
+    public interface ChangeColumns {
+        /**
+         * Sequence number of the change, increases monotonically and is never reused
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String SEQ = "seq";
+
+        /**
+         * The id of the changed note, null for {@link Notes#CHANGE_RESET}
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String NOTE_ID = "note_id";
+
+        /**
+         * One of {@link Notes#CHANGE_INSERT}, {@link Notes#CHANGE_UPDATE},
+         * {@link Notes#CHANGE_DELETE} and {@link Notes#CHANGE_RESET}
+         * <P> Type: INTEGER </P>
+         */
+        public static final String OP = "op";
+
+        /**
+         * The version of the note after the change
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String VERSION = "version";
+    }
+
+    /**
+     * Columns of the revisions of the text of notes. Old revisions are pruned, so the
+     * revisions of a note cover its recent history only.
+     */
+    public interface RevisionColumns {
+        /**
+         * The unique ID for a row, increases with the revisions of a note
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String ID = "_id";
+
+        /**
+         * The id of the note
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String NOTE_ID = "note_id";
+
+        /**
+         * Time when the revision was recorded
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String CREATED_DATE = "created_date";
+
+        /**
+         * Length of the text of the revision in characters
+         * <P> Type: INTEGER </P>
+         */
+        public static final String LENGTH = "length";
+
+        /**
+         * The text of the note at the revision
+         * <P> Type: TEXT </P>
+         */
+        public static final String CONTENT = "content";
+    }
+
     public interface DataColumns {
         /**
          * The unique ID for a row
@@ -297,4 +459,46 @@ public class Notes {
         
         public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/image_note");
     }
+
+    /**
+     * An item of a note in check list mode. The text of the note is rebuilt from its items
+     * by the provider once after the items are written, one line for each item with
+     * {@link #TAG_CHECKED} or {@link #TAG_UNCHECKED} in front, so readers of the text do not
+     * need to know the items. Inserting an item whose {@link #ITEM_KEY} already exists in the
+     * note updates that item.
+     */
+    public static final class CheckListItem implements DataColumns {
+        /**
+         * Whether the item is checked
+         * <P> Type: INTEGER 1:checked 0:unchecked </P>
+         */
+        public static final String CHECKED = DATA1;
+
+        /**
+         * Position of the item in the list, the items are sorted by it. Positions are
+         * {@link #POSITION_GAP} apart when assigned, so an item inserted between two others
+         * does not move them.
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String POSITION = DATA2;
+
+        /**
+         * Key of the item, unique in the note and assigned by the writer of the item before
+         * it is inserted
+         * <P> Type: TEXT </P>
+         */
+        public static final String ITEM_KEY = DATA3;
+
+        public static final long POSITION_GAP = 1024;
+
+        public static final String TAG_CHECKED = "\u221A";
+
+        public static final String TAG_UNCHECKED = "\u25A1";
+
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/check_list_item";
+
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/check_list_item";
+
+        public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/check_list_item");
+    }
 }
@@ -18,30 +18,139 @@ package net.micode.notes.data;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
 
+import net.micode.notes.data.Notes.CallNote;
+import net.micode.notes.data.Notes.ChangeColumns;
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteListColumns;
+import net.micode.notes.data.Notes.RevisionColumns;
+import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.tool.CheckListText;
+import net.micode.notes.tool.SearchTokenizer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 
 public class NotesDatabaseHelper extends SQLiteOpenHelper {//
     private static final String DB_NAME = "note.db";
 
-    private static final int DB_VERSION = 4;
+    private static final int DB_VERSION = 16;
 
     public interface TABLE {
         public static final String NOTE = "note";
 
         public static final String DATA = "data";
+
+        public static final String SEARCH = "note_search";
+
+        public static final String SEARCH_PENDING = "search_pending";
+
+        public static final String NOTE_LIST = "note_list";
+
+        public static final String CHANGE = "note_change";
+
+        public static final String REVISION = "note_revision";
+
+        public static final String ATTACHMENT = "attachment";
     }
 
+    /**
+     * The only column of {@link TABLE#SEARCH}, the docid of each row is the note id
+     */
+    static final String SEARCH_CONTENT = "body";
+
+    /**
+     * Column of {@link TABLE#DATA} telling how the content is encoded, one of
+     * {@link ContentCodec#CODEC_NONE} and {@link ContentCodec#CODEC_DEFLATE}
+     */
+    static final String CONTENT_CODEC = "content_codec";
+
+    /**
+     * Column of {@link TABLE#REVISION}, one of {@link RevisionStore#KIND_SNAPSHOT} and
+     * {@link RevisionStore#KIND_DELTA}
+     */
+    static final String REVISION_KIND = "kind";
+
+    /**
+     * Column of {@link TABLE#REVISION}, the full text of a snapshot encoded by
+     * {@link #CONTENT_CODEC}, or the {@link net.micode.notes.tool.TextDelta} from the
+     * previous revision
+     */
+    static final String REVISION_PAYLOAD = "payload";
+
+    /**
+     * Column of {@link TABLE#REVISION}, the {@link RevisionStore#hash} of the text of the
+     * revision, null for the revisions recorded before it was stored
+     */
+    static final String REVISION_HASH = "hash";
+
+    /**
+     * Columns of {@link TABLE#ATTACHMENT}: the path of a file referenced by the image data of
+     * notes, the number of data rows referencing it, and when the last reference was removed
+     */
+    static final String ATTACHMENT_PATH = "path";
+    static final String ATTACHMENT_REF_COUNT = "ref_count";
+    static final String ATTACHMENT_RELEASED_DATE = "released_date";
+
     private static final String TAG = "NotesDatabaseHelper";
 
     private static NotesDatabaseHelper mInstance;
 
+    /**
+     * The change log is compacted and the write-ahead log is checkpointed after no write for
+     * this time
+     */
+    private static final long IDLE_CHECKPOINT_DELAY = 10000;
+
+    private Handler mCheckpointHandler;
+
+    /**
+     * The directory of the {@link AttachmentStore} swept when idle, null for the databases
+     * of benchmarks whose registry does not know the files
+     */
+    private final File mAttachmentDirectory;
+
+    /**
+     * The unreferenced attachments are swept at most once in this time
+     */
+    private static final long ATTACHMENT_SWEEP_INTERVAL = 60 * 60 * 1000;
+
+    private long mLastAttachmentSweep;
+
+    /**
+     * Increased whenever the schema is created or upgraded, the compiled statements of the
+     * schema before are invalid
+     */
+    private volatile int mSchemaGeneration;
+
+    private final Runnable mCheckpointRunnable = new Runnable() {
+        public void run() {
+            SQLiteDatabase db = getWritableDatabase();
+            compactChanges(db);
+            long now = System.currentTimeMillis();
+            RevisionStore.prune(db, now);
+            if (mAttachmentDirectory != null
+                    && now - mLastAttachmentSweep > ATTACHMENT_SWEEP_INTERVAL) {
+                mLastAttachmentSweep = now;
+                AttachmentSweeper.sweep(db, mAttachmentDirectory, now, false);
+            }
+            checkpoint(db);
+        }
+    };
+
     private static final String CREATE_NOTE_TABLE_SQL =
         "CREATE TABLE " + TABLE.NOTE + "(" +
             NoteColumns.ID + " INTEGER PRIMARY KEY," +
@@ -75,13 +184,215 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
             DataColumns.DATA2 + " INTEGER," +
             DataColumns.DATA3 + " TEXT NOT NULL DEFAULT ''," +
             DataColumns.DATA4 + " TEXT NOT NULL DEFAULT ''," +
-            DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''" +
+            DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''," +
+            CONTENT_CODEC + " INTEGER NOT NULL DEFAULT 0" +
         ")";
 
     private static final String CREATE_DATA_NOTE_ID_INDEX_SQL =
         "CREATE INDEX IF NOT EXISTS note_id_index ON " +
         TABLE.DATA + "(" + DataColumns.NOTE_ID + ");";
 
+    /**
+     * For listing the notes of a folder sorted by type and modified date, also used by the
+     * triggers which move or delete the notes of a folder
+     */
+    private static final String CREATE_NOTE_PARENT_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_parent_index ON " + TABLE.NOTE + "(" +
+            NoteColumns.PARENT_ID + "," + NoteColumns.TYPE + "," + NoteColumns.MODIFIED_DATE + ");";
+
+    /**
+     * Covers the query of the alarms to restore after boot, also used by the folder list and
+     * the sync which filter by type and exclude the trash folder
+     */
+    private static final String CREATE_NOTE_ALERT_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_alert_index ON " + TABLE.NOTE + "(" +
+            NoteColumns.TYPE + "," + NoteColumns.ALERTED_DATE + ");";
+
+    private static final String CREATE_NOTE_WIDGET_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_widget_index ON " + TABLE.NOTE + "(" +
+            NoteColumns.WIDGET_ID + ");";
+
+    /**
+     * For looking up the call note by call date and phone number
+     */
+    private static final String CREATE_DATA_MIME_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS data_mime_index ON " + TABLE.DATA + "(" +
+            DataColumns.MIME_TYPE + "," + DataColumns.DATA1 + ");";
+
+    /**
+     * Notes with the phone number and date of the call notes, the call data is only looked up
+     * for the notes in the call record folder
+     */
+    private static final String CREATE_NOTE_LIST_VIEW_SQL =
+        "CREATE VIEW IF NOT EXISTS " + TABLE.NOTE_LIST + " AS SELECT " + TABLE.NOTE + ".*," +
+            "call_data." + CallNote.PHONE_NUMBER + " AS " + NoteListColumns.PHONE_NUMBER + "," +
+            "call_data." + CallNote.CALL_DATE + " AS " + NoteListColumns.CALL_DATE +
+        " FROM " + TABLE.NOTE + " LEFT JOIN " + TABLE.DATA + " AS call_data" +
+        " ON " + TABLE.NOTE + "." + NoteColumns.PARENT_ID + "=" + Notes.ID_CALL_RECORD_FOLDER +
+        " AND call_data." + DataColumns.NOTE_ID + "=" + TABLE.NOTE + "." + NoteColumns.ID +
+        " AND call_data." + DataColumns.MIME_TYPE + "='" + CallNote.CONTENT_ITEM_TYPE + "'";
+
+    /**
+     * Append only log of the changes of notes. The sequence number is AUTOINCREMENT so that it
+     * is never reused after the log is compacted.
+     */
+    private static final String CREATE_CHANGE_TABLE_SQL =
+        "CREATE TABLE IF NOT EXISTS " + TABLE.CHANGE + "(" +
+            ChangeColumns.SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            ChangeColumns.NOTE_ID + " INTEGER," +
+            ChangeColumns.OP + " INTEGER NOT NULL," +
+            ChangeColumns.VERSION + " INTEGER NOT NULL DEFAULT 0" +
+        ")";
+
+    /**
+     * For the compaction which keeps the latest change of each note
+     */
+    private static final String CREATE_CHANGE_NOTE_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS change_note_index ON " + TABLE.CHANGE + "(" +
+            ChangeColumns.NOTE_ID + "," + ChangeColumns.SEQ + ");";
+
+    /**
+     * The number of deleted notes kept in the change log, the older ones are replaced by a
+     * single {@link Notes#CHANGE_RESET}
+     */
+    static final int MAX_DELETED_CHANGES = 1000;
+
+    private static final String NOTE_LOG_CHANGE_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER log_change_on_insert " +
+        " AFTER INSERT ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  INSERT INTO " + TABLE.CHANGE + "(" + ChangeColumns.NOTE_ID + "," +
+            ChangeColumns.OP + "," + ChangeColumns.VERSION + ")" +
+        "   VALUES(new." + NoteColumns.ID + "," + Notes.CHANGE_INSERT + ",new." +
+            NoteColumns.VERSION + ");" +
+        " END";
+
+    private static final String NOTE_LOG_CHANGE_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER log_change_on_update " +
+        " AFTER UPDATE ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  INSERT INTO " + TABLE.CHANGE + "(" + ChangeColumns.NOTE_ID + "," +
+            ChangeColumns.OP + "," + ChangeColumns.VERSION + ")" +
+        "   VALUES(new." + NoteColumns.ID + "," + Notes.CHANGE_UPDATE + ",new." +
+            NoteColumns.VERSION + ");" +
+        " END";
+
+    private static final String NOTE_LOG_CHANGE_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER log_change_on_delete " +
+        " AFTER DELETE ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  INSERT INTO " + TABLE.CHANGE + "(" + ChangeColumns.NOTE_ID + "," +
+            ChangeColumns.OP + "," + ChangeColumns.VERSION + ")" +
+        "   VALUES(old." + NoteColumns.ID + "," + Notes.CHANGE_DELETE + ",old." +
+            NoteColumns.VERSION + ");" +
+        " END";
+
+    /**
+     * Revisions of the text of notes, see {@link RevisionStore}. The id is AUTOINCREMENT so
+     * that the revisions of a note are ordered by id even after the newest ones are pruned.
+     */
+    private static final String CREATE_REVISION_TABLE_SQL =
+        "CREATE TABLE IF NOT EXISTS " + TABLE.REVISION + "(" +
+            RevisionColumns.ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            RevisionColumns.NOTE_ID + " INTEGER NOT NULL," +
+            RevisionColumns.CREATED_DATE + " INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000)," +
+            RevisionColumns.LENGTH + " INTEGER NOT NULL DEFAULT 0," +
+            REVISION_KIND + " INTEGER NOT NULL," +
+            REVISION_PAYLOAD + " TEXT NOT NULL DEFAULT ''," +
+            CONTENT_CODEC + " INTEGER NOT NULL DEFAULT 0," +
+            REVISION_HASH + " INTEGER" +
+        ")";
+
+    /**
+     * For looking up the latest snapshot of a note and the deltas after it
+     */
+    private static final String CREATE_REVISION_NOTE_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS revision_note_index ON " + TABLE.REVISION + "(" +
+            RevisionColumns.NOTE_ID + "," + RevisionColumns.ID + ");";
+
+    private static final String CREATE_ATTACHMENT_TABLE_SQL =
+        "CREATE TABLE IF NOT EXISTS " + TABLE.ATTACHMENT + "(" +
+            ATTACHMENT_PATH + " TEXT PRIMARY KEY," +
+            ATTACHMENT_REF_COUNT + " INTEGER NOT NULL DEFAULT 0," +
+            ATTACHMENT_RELEASED_DATE + " INTEGER NOT NULL DEFAULT 0" +
+        ")";
+
+    /**
+     * For the sweep of the attachments no longer referenced
+     */
+    private static final String CREATE_ATTACHMENT_RELEASED_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS attachment_released_index ON " + TABLE.ATTACHMENT + "(" +
+            ATTACHMENT_REF_COUNT + "," + ATTACHMENT_RELEASED_DATE + ");";
+
+    /**
+     * Count a reference to the file of image data which has been inserted
+     */
+    private static final String DATA_REFERENCE_ATTACHMENT_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER reference_attachment_on_insert " +
+        " AFTER INSERT ON " + TABLE.DATA +
+        " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.IMAGE_NOTE + "'" +
+        " AND new." + DataColumns.CONTENT + "<>''" +
+        " BEGIN" +
+        "  INSERT OR IGNORE INTO " + TABLE.ATTACHMENT + "(" + ATTACHMENT_PATH + ")" +
+        "   VALUES (new." + DataColumns.CONTENT + ");" +
+        "  UPDATE " + TABLE.ATTACHMENT +
+        "   SET " + ATTACHMENT_REF_COUNT + "=" + ATTACHMENT_REF_COUNT + "+1" +
+        "  WHERE " + ATTACHMENT_PATH + "=new." + DataColumns.CONTENT + ";" +
+        " END";
+
+    /**
+     * Move the reference from the old file to the new one when image data has changed
+     */
+    private static final String DATA_REFERENCE_ATTACHMENT_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER reference_attachment_on_update " +
+        " AFTER UPDATE ON " + TABLE.DATA +
+        " WHEN (old." + DataColumns.MIME_TYPE + "='" + DataConstants.IMAGE_NOTE + "'" +
+        " OR new." + DataColumns.MIME_TYPE + "='" + DataConstants.IMAGE_NOTE + "')" +
+        " AND (old." + DataColumns.CONTENT + " IS NOT new." + DataColumns.CONTENT +
+        " OR old." + DataColumns.MIME_TYPE + " IS NOT new." + DataColumns.MIME_TYPE + ")" +
+        " BEGIN" +
+        "  UPDATE " + TABLE.ATTACHMENT +
+        "   SET " + ATTACHMENT_REF_COUNT + "=" + ATTACHMENT_REF_COUNT + "-1," +
+        "   " + ATTACHMENT_RELEASED_DATE + "=(strftime('%s','now') * 1000)" +
+        "  WHERE " + ATTACHMENT_PATH + "=old." + DataColumns.CONTENT +
+        "   AND old." + DataColumns.MIME_TYPE + "='" + DataConstants.IMAGE_NOTE + "';" +
+        "  INSERT OR IGNORE INTO " + TABLE.ATTACHMENT + "(" + ATTACHMENT_PATH + ")" +
+        "   SELECT new." + DataColumns.CONTENT +
+        "   WHERE new." + DataColumns.MIME_TYPE + "='" + DataConstants.IMAGE_NOTE + "'" +
+        "   AND new." + DataColumns.CONTENT + "<>'';" +
+        "  UPDATE " + TABLE.ATTACHMENT +
+        "   SET " + ATTACHMENT_REF_COUNT + "=" + ATTACHMENT_REF_COUNT + "+1" +
+        "  WHERE " + ATTACHMENT_PATH + "=new." + DataColumns.CONTENT +
+        "   AND new." + DataColumns.MIME_TYPE + "='" + DataConstants.IMAGE_NOTE + "';" +
+        " END";
+
+    /**
+     * Release the file of image data which has been deleted, including the data deleted by
+     * {@link #NOTE_DELETE_DATA_ON_DELETE_TRIGGER}. The file is removed by
+     * {@link AttachmentSweeper} later.
+     */
+    private static final String DATA_RELEASE_ATTACHMENT_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER release_attachment_on_delete " +
+        " AFTER DELETE ON " + TABLE.DATA +
+        " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.IMAGE_NOTE + "'" +
+        " BEGIN" +
+        "  UPDATE " + TABLE.ATTACHMENT +
+        "   SET " + ATTACHMENT_REF_COUNT + "=" + ATTACHMENT_REF_COUNT + "-1," +
+        "   " + ATTACHMENT_RELEASED_DATE + "=(strftime('%s','now') * 1000)" +
+        "  WHERE " + ATTACHMENT_PATH + "=old." + DataColumns.CONTENT + ";" +
+        " END";
+
+    /**
+     * Delete the revisions of note which has been deleted
+     */
+    private static final String NOTE_DELETE_REVISIONS_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER delete_revisions_on_delete " +
+        " AFTER DELETE ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.REVISION +
+        "   WHERE " + RevisionColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
+        " END";
+
     /**
      * Increase folder's note count when move note to the folder
      */
@@ -133,15 +444,42 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
         " END";
 
     /**
-     * Update note's content when insert data with type {@link DataConstants#NOTE}
+     * Max length of the snippet of a note, the snippet is only used for preview
+     */
+    static final int SNIPPET_MAX_LENGTH = 128;
+
+    /**
+     * The content beyond this length is never needed to find the first line of the snippet
+     */
+    private static final int SNIPPET_SCAN_LENGTH = 1024;
+
+    /**
+     * Get the sql expression of the snippet for the content of a note: the first non-blank
+     * line with the check list markers removed, no longer than {@link #SNIPPET_MAX_LENGTH}.
+     * The full content is only kept in {@link TABLE#DATA}, so the list queries do not need
+     * to carry it through the cursor window.
+     */
+    static String getSnippetExpression(String content) {
+        String text = "LTRIM(REPLACE(REPLACE(SUBSTR(IFNULL(" + content + ",''),1,"
+                + SNIPPET_SCAN_LENGTH + "),'" + CheckListItem.TAG_CHECKED + "',''),'"
+                + CheckListItem.TAG_UNCHECKED
+                + "',''),char(32,9,10,13))";
+        return "SUBSTR(TRIM(SUBSTR(" + text + ",1,INSTR(" + text + "||char(10),char(10))-1),"
+                + "char(32,9,13)),1," + SNIPPET_MAX_LENGTH + ")";
+    }
+
+    /**
+     * Update note's content when insert data with type {@link DataConstants#NOTE}. The
+     * snippet of compressed content is written by {@link NotesProvider} which has the text.
      */
     private static final String DATA_UPDATE_NOTE_CONTENT_ON_INSERT_TRIGGER =
         "CREATE TRIGGER update_note_content_on_insert " +
         " AFTER INSERT ON " + TABLE.DATA +
         " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " AND new." + CONTENT_CODEC + "=" + ContentCodec.CODEC_NONE +
         " BEGIN" +
         "  UPDATE " + TABLE.NOTE +
-        "   SET " + NoteColumns.SNIPPET + "=new." + DataColumns.CONTENT +
+        "   SET " + NoteColumns.SNIPPET + "=" + getSnippetExpression("new." + DataColumns.CONTENT) +
         "  WHERE " + NoteColumns.ID + "=new." + DataColumns.NOTE_ID + ";" +
         " END";
 
@@ -152,9 +490,10 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
         "CREATE TRIGGER update_note_content_on_update " +
         " AFTER UPDATE ON " + TABLE.DATA +
         " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " AND new." + CONTENT_CODEC + "=" + ContentCodec.CODEC_NONE +
         " BEGIN" +
         "  UPDATE " + TABLE.NOTE +
-        "   SET " + NoteColumns.SNIPPET + "=new." + DataColumns.CONTENT +
+        "   SET " + NoteColumns.SNIPPET + "=" + getSnippetExpression("new." + DataColumns.CONTENT) +
         "  WHERE " + NoteColumns.ID + "=new." + DataColumns.NOTE_ID + ";" +
         " END";
 
@@ -171,6 +510,101 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
         "  WHERE " + NoteColumns.ID + "=old." + DataColumns.NOTE_ID + ";" +
         " END";
 
+    /**
+     * The key of a check list item is unique in its note, see {@link CheckListItem#ITEM_KEY}
+     */
+    private static final String CREATE_CHECK_LIST_ITEM_KEY_INDEX_SQL =
+        "CREATE UNIQUE INDEX IF NOT EXISTS check_list_item_key_index ON " + TABLE.DATA + "(" +
+            DataColumns.NOTE_ID + "," + CheckListItem.ITEM_KEY + ")" +
+        " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'";
+
+    /**
+     * Full text index for the content of notes, one row for each note
+     */
+    private static final String CREATE_SEARCH_TABLE_SQL =
+        "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE.SEARCH +
+        " USING fts4(" + SEARCH_CONTENT + ")";
+
+    /**
+     * Notes whose content has changed but not yet been written into {@link TABLE#SEARCH}.
+     * The content is tokenized by {@link SearchTokenizer} in java, which could not be done
+     * in trigger, see {@link #updateSearchIndex}
+     */
+    private static final String CREATE_SEARCH_PENDING_TABLE_SQL =
+        "CREATE TABLE IF NOT EXISTS " + TABLE.SEARCH_PENDING + "(" +
+            DataColumns.NOTE_ID + " INTEGER PRIMARY KEY" +
+        ")";
+
+    /**
+     * Mark note to be re-indexed when insert data with type {@link DataConstants#NOTE}
+     */
+    private static final String DATA_UPDATE_SEARCH_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER update_search_on_insert " +
+        " AFTER INSERT ON " + TABLE.DATA +
+        " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  INSERT OR REPLACE INTO " + TABLE.SEARCH_PENDING + "(" + DataColumns.NOTE_ID + ")" +
+        "   VALUES (new." + DataColumns.NOTE_ID + ");" +
+        " END";
+
+    /**
+     * Mark note to be re-indexed when data with {@link DataConstants#NOTE} type has changed
+     */
+    private static final String DATA_UPDATE_SEARCH_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER update_search_on_update " +
+        " AFTER UPDATE ON " + TABLE.DATA +
+        " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  INSERT OR REPLACE INTO " + TABLE.SEARCH_PENDING + "(" + DataColumns.NOTE_ID + ")" +
+        "   VALUES (new." + DataColumns.NOTE_ID + ");" +
+        " END";
+
+    /**
+     * Remove note's content from index when data with {@link DataConstants#NOTE} type has deleted
+     */
+    private static final String DATA_UPDATE_SEARCH_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER update_search_on_delete " +
+        " AFTER DELETE ON " + TABLE.DATA +
+        " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.SEARCH + " WHERE docid=old." + DataColumns.NOTE_ID + ";" +
+        "  DELETE FROM " + TABLE.SEARCH_PENDING +
+        "   WHERE " + DataColumns.NOTE_ID + "=old." + DataColumns.NOTE_ID + ";" +
+        " END";
+
+    private static final String SEARCH_PENDING_CONTENT_QUERY =
+        "SELECT " + TABLE.SEARCH_PENDING + "." + DataColumns.NOTE_ID + "," +
+            TABLE.DATA + "." + DataColumns.CONTENT + "," + TABLE.DATA + "." + CONTENT_CODEC +
+        " FROM " + TABLE.SEARCH_PENDING + " LEFT JOIN " + TABLE.DATA +
+        " ON " + TABLE.DATA + "." + DataColumns.NOTE_ID + "=" +
+            TABLE.SEARCH_PENDING + "." + DataColumns.NOTE_ID +
+        " AND " + TABLE.DATA + "." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'";
+
+    /**
+     * Keep the snippet of a note bounded when it is written directly, e.g. by the sync
+     */
+    private static final String NOTE_BOUND_SNIPPET_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER bound_snippet_on_insert " +
+        " AFTER INSERT ON " + TABLE.NOTE +
+        " WHEN new." + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE +
+        " AND new." + NoteColumns.SNIPPET + "<>" + getSnippetExpression("new." + NoteColumns.SNIPPET) +
+        " BEGIN" +
+        "  UPDATE " + TABLE.NOTE +
+        "   SET " + NoteColumns.SNIPPET + "=" + getSnippetExpression("new." + NoteColumns.SNIPPET) +
+        "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+        " END";
+
+    private static final String NOTE_BOUND_SNIPPET_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER bound_snippet_on_update " +
+        " AFTER UPDATE OF " + NoteColumns.SNIPPET + " ON " + TABLE.NOTE +
+        " WHEN new." + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE +
+        " AND new." + NoteColumns.SNIPPET + "<>" + getSnippetExpression("new." + NoteColumns.SNIPPET) +
+        " BEGIN" +
+        "  UPDATE " + TABLE.NOTE +
+        "   SET " + NoteColumns.SNIPPET + "=" + getSnippetExpression("new." + NoteColumns.SNIPPET) +
+        "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+        " END";
+
     /**
      * Delete datas belong to note which has been deleted
      */
@@ -208,15 +642,35 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
 
     public NotesDatabaseHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
+        mAttachmentDirectory = AttachmentStore.getDirectory(context);
+        // the list queries read from their own connection while the sync is writing
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Open the database with given name, used by benchmarks which should not touch the
+     * notes of user
+     */
+    NotesDatabaseHelper(Context context, String name) {
+        super(context, name, null, DB_VERSION);
+        mAttachmentDirectory = null;
+        setWriteAheadLoggingEnabled(true);
     }
 
     public void createNoteTable(SQLiteDatabase db) {
         db.execSQL(CREATE_NOTE_TABLE_SQL);
         reCreateNoteTableTriggers(db);
         createSystemFolder(db);
+        createNoteTableIndexes(db);
         Log.d(TAG, "note table has been created");
     }
 
+    private void createNoteTableIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_NOTE_PARENT_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_ALERT_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_WIDGET_INDEX_SQL);
+    }
+
     private void reCreateNoteTableTriggers(SQLiteDatabase db) {
         db.execSQL("DROP TRIGGER IF EXISTS increase_folder_count_on_update");
         db.execSQL("DROP TRIGGER IF EXISTS decrease_folder_count_on_update");
@@ -225,6 +679,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
         db.execSQL("DROP TRIGGER IF EXISTS increase_folder_count_on_insert");
         db.execSQL("DROP TRIGGER IF EXISTS folder_delete_notes_on_delete");
         db.execSQL("DROP TRIGGER IF EXISTS folder_move_notes_on_trash");
+        db.execSQL("DROP TRIGGER IF EXISTS bound_snippet_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS bound_snippet_on_update");
 
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
         db.execSQL(NOTE_DECREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
@@ -233,6 +689,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_INSERT_TRIGGER);
         db.execSQL(FOLDER_DELETE_NOTES_ON_DELETE_TRIGGER);
         db.execSQL(FOLDER_MOVE_NOTES_ON_TRASH_TRIGGER);
+        db.execSQL(NOTE_BOUND_SNIPPET_ON_INSERT_TRIGGER);
+        db.execSQL(NOTE_BOUND_SNIPPET_ON_UPDATE_TRIGGER);
     }
 
     private void createSystemFolder(SQLiteDatabase db) {
@@ -274,6 +732,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
         db.execSQL(CREATE_DATA_TABLE_SQL);
         reCreateDataTableTriggers(db);
         db.execSQL(CREATE_DATA_NOTE_ID_INDEX_SQL);
+        db.execSQL(CREATE_DATA_MIME_INDEX_SQL);
+        db.execSQL(CREATE_CHECK_LIST_ITEM_KEY_INDEX_SQL);
         Log.d(TAG, "data table has been created");
     }
 
@@ -287,6 +747,178 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_DELETE_TRIGGER);
     }
 
+    public void createSearchTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_SEARCH_TABLE_SQL);
+        db.execSQL(CREATE_SEARCH_PENDING_TABLE_SQL);
+        reCreateSearchTableTriggers(db);
+        Log.d(TAG, "search table has been created");
+    }
+
+    private void reCreateSearchTableTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS update_search_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_search_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS update_search_on_delete");
+
+        db.execSQL(DATA_UPDATE_SEARCH_ON_INSERT_TRIGGER);
+        db.execSQL(DATA_UPDATE_SEARCH_ON_UPDATE_TRIGGER);
+        db.execSQL(DATA_UPDATE_SEARCH_ON_DELETE_TRIGGER);
+    }
+
+    public void createChangeTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_CHANGE_TABLE_SQL);
+        db.execSQL(CREATE_CHANGE_NOTE_INDEX_SQL);
+        reCreateChangeTableTriggers(db);
+        Log.d(TAG, "change table has been created");
+    }
+
+    private void reCreateChangeTableTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS log_change_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS log_change_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS log_change_on_delete");
+
+        db.execSQL(NOTE_LOG_CHANGE_ON_INSERT_TRIGGER);
+        db.execSQL(NOTE_LOG_CHANGE_ON_UPDATE_TRIGGER);
+        db.execSQL(NOTE_LOG_CHANGE_ON_DELETE_TRIGGER);
+    }
+
+    public void createRevisionTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_REVISION_TABLE_SQL);
+        db.execSQL(CREATE_REVISION_NOTE_INDEX_SQL);
+        db.execSQL("DROP TRIGGER IF EXISTS delete_revisions_on_delete");
+        db.execSQL(NOTE_DELETE_REVISIONS_ON_DELETE_TRIGGER);
+        Log.d(TAG, "revision table has been created");
+    }
+
+    public void createAttachmentTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_ATTACHMENT_TABLE_SQL);
+        db.execSQL(CREATE_ATTACHMENT_RELEASED_INDEX_SQL);
+        db.execSQL("DROP TRIGGER IF EXISTS reference_attachment_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS reference_attachment_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS release_attachment_on_delete");
+        db.execSQL(DATA_REFERENCE_ATTACHMENT_ON_INSERT_TRIGGER);
+        db.execSQL(DATA_REFERENCE_ATTACHMENT_ON_UPDATE_TRIGGER);
+        db.execSQL(DATA_RELEASE_ATTACHMENT_ON_DELETE_TRIGGER);
+        Log.d(TAG, "attachment table has been created");
+    }
+
+    /**
+     * Compact the change log without losing any change a consumer needs: only the latest
+     * change of each note is kept, which still has a greater sequence number than anything
+     * the consumers have read. Deleted notes beyond {@link #MAX_DELETED_CHANGES} are dropped,
+     * the newest dropped one becomes a {@link Notes#CHANGE_RESET} to tell the consumers which
+     * have not read up to it to scan all the notes again.
+     */
+    void compactChanges(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM " + TABLE.CHANGE + " WHERE " + ChangeColumns.SEQ
+                    + " NOT IN (SELECT MAX(" + ChangeColumns.SEQ + ") FROM " + TABLE.CHANGE
+                    + " GROUP BY " + ChangeColumns.NOTE_ID + ")");
+
+            Cursor cursor = db.rawQuery("SELECT " + ChangeColumns.SEQ + " FROM " + TABLE.CHANGE
+                    + " WHERE " + ChangeColumns.OP + "=" + Notes.CHANGE_DELETE
+                    + " ORDER BY " + ChangeColumns.SEQ + " DESC LIMIT 1 OFFSET "
+                    + MAX_DELETED_CHANGES, null);
+            long resetSeq = -1;
+            try {
+                if (cursor.moveToFirst()) {
+                    resetSeq = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (resetSeq > 0) {
+                db.execSQL("DELETE FROM " + TABLE.CHANGE + " WHERE " + ChangeColumns.SEQ + "<"
+                        + resetSeq + " AND " + ChangeColumns.OP + " IN (" + Notes.CHANGE_DELETE
+                        + "," + Notes.CHANGE_RESET + ")");
+                db.execSQL("UPDATE " + TABLE.CHANGE + " SET " + ChangeColumns.OP + "="
+                        + Notes.CHANGE_RESET + "," + ChangeColumns.NOTE_ID + "=NULL,"
+                        + ChangeColumns.VERSION + "=0 WHERE " + ChangeColumns.SEQ + "="
+                        + resetSeq);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Write the content of notes marked in {@link TABLE#SEARCH_PENDING} into the full text
+     * index, the content is tokenized by {@link SearchTokenizer}
+     */
+    void updateSearchIndex(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(SEARCH_PENDING_CONTENT_QUERY, null);
+        if (cursor == null) {
+            return;
+        }
+
+        try {
+            if (cursor.getCount() == 0) {
+                return;
+            }
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                while (cursor.moveToNext()) {
+                    String noteId = cursor.getString(0);
+                    db.delete(TABLE.SEARCH, "docid=?", new String[] { noteId });
+                    if (!cursor.isNull(1)) {
+                        String content = cursor.getInt(2) == ContentCodec.CODEC_DEFLATE
+                                ? ContentCodec.decompress(cursor.getBlob(1))
+                                : cursor.getString(1);
+                        values.clear();
+                        values.put("docid", noteId);
+                        values.put(SEARCH_CONTENT, SearchTokenizer.getIndexText(content));
+                        db.insert(TABLE.SEARCH, null, values);
+                    }
+                    db.delete(TABLE.SEARCH_PENDING, DataColumns.NOTE_ID + "=?",
+                            new String[] { noteId });
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Copy the write-ahead log back into the database and truncate it. Sqlite checkpoints
+     * passively when the log grows over 1000 pages, but a sync could leave a large log which
+     * slows down every read until the next checkpoint.
+     */
+    void checkpoint(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+        try {
+            if (cursor.moveToFirst()) {
+                Log.d(TAG, "checkpoint busy:" + cursor.getInt(0) + " log:" + cursor.getInt(1)
+                        + " checkpointed:" + cursor.getInt(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Schedule a checkpoint when there is no more write for a while, every write postpones it
+     */
+    synchronized void scheduleIdleCheckpoint() {
+        if (mCheckpointHandler == null) {
+            HandlerThread thread = new HandlerThread("NotesCheckpoint",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mCheckpointHandler = new Handler(thread.getLooper());
+        }
+        mCheckpointHandler.removeCallbacks(mCheckpointRunnable);
+        mCheckpointHandler.postDelayed(mCheckpointRunnable, IDLE_CHECKPOINT_DELAY);
+    }
+
+    int getSchemaGeneration() {
+        return mSchemaGeneration;
+    }
+
     static synchronized NotesDatabaseHelper getInstance(Context context) {
         if (mInstance == null) {
             mInstance = new NotesDatabaseHelper(context);
@@ -296,12 +928,19 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        mSchemaGeneration++;
         createNoteTable(db);
         createDataTable(db);
+        createSearchTable(db);
+        db.execSQL(CREATE_NOTE_LIST_VIEW_SQL);
+        createChangeTable(db);
+        createRevisionTable(db);
+        createAttachmentTable(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        mSchemaGeneration++;
         boolean reCreateTriggers = false;
         boolean skipV2 = false;
 
@@ -322,11 +961,80 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
             oldVersion++;
         }
 
+        if (oldVersion == 4) {
+            upgradeToV5(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 5) {
+            upgradeToV6(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 6) {
+            upgradeToV7(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 7) {
+            upgradeToV8(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 8) {
+            upgradeToV9(db);
+            reCreateTriggers = true;
+            oldVersion++;
+        }
+
+        if (oldVersion == 9) {
+            upgradeToV10(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 10) {
+            upgradeToV11(db);
+            reCreateTriggers = true;
+            oldVersion++;
+        }
+
+        if (oldVersion == 11) {
+            upgradeToV12(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 12) {
+            upgradeToV13(db);
+            reCreateTriggers = true;
+            oldVersion++;
+        }
+
+        if (oldVersion == 13) {
+            upgradeToV14(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 14) {
+            upgradeToV15(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 15) {
+            upgradeToV16(db);
+            oldVersion++;
+        }
+
+        // the triggers refer to the tables and columns of the last version, they are only
+        // created once every step is done
         if (reCreateTriggers) {
             reCreateNoteTableTriggers(db);
             reCreateDataTableTriggers(db);
+            reCreateSearchTableTriggers(db);
         }
 
+        // the notes queued by the steps are indexed from the content of the last version
+        updateSearchIndex(db);
+
         if (oldVersion != newVersion) {
             throw new IllegalStateException("Upgrade notes database to version " + newVersion
                     + "fails");
@@ -359,4 +1067,139 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {//
         db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.VERSION
                 + " INTEGER NOT NULL DEFAULT 0");
     }
+
+    private void upgradeToV5(SQLiteDatabase db) {
+        createSearchTable(db);
+        // index the content of existing notes
+        db.execSQL("INSERT INTO " + TABLE.SEARCH + "(docid," + SEARCH_CONTENT + ")"
+                + " SELECT " + DataColumns.NOTE_ID + "," + DataColumns.CONTENT
+                + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'"
+                + " GROUP BY " + DataColumns.NOTE_ID);
+    }
+
+    private void upgradeToV6(SQLiteDatabase db) {
+        // re-index all notes with the bigram tokenizer
+        createSearchTable(db);
+        db.execSQL("DELETE FROM " + TABLE.SEARCH);
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE.SEARCH_PENDING + "(" + DataColumns.NOTE_ID + ")"
+                + " SELECT " + DataColumns.NOTE_ID
+                + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'");
+    }
+
+    private void upgradeToV7(SQLiteDatabase db) {
+        createNoteTableIndexes(db);
+        db.execSQL(CREATE_DATA_MIME_INDEX_SQL);
+    }
+
+    private void upgradeToV8(SQLiteDatabase db) {
+        db.execSQL(CREATE_NOTE_LIST_VIEW_SQL);
+    }
+
+    private void upgradeToV9(SQLiteDatabase db) {
+        // the snippet of notes is the full content before, cut it into the preview
+        db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.SNIPPET + "="
+                + getSnippetExpression(NoteColumns.SNIPPET) + " WHERE " + NoteColumns.TYPE
+                + "=" + Notes.TYPE_NOTE);
+    }
+
+    private void upgradeToV10(SQLiteDatabase db) {
+        createChangeTable(db);
+    }
+
+    private void upgradeToV11(SQLiteDatabase db) {
+        // the data table recreated by the upgrade from v1 already has the column
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE.DATA + " LIMIT 0", null);
+        boolean hasCodec;
+        try {
+            hasCodec = cursor.getColumnIndex(CONTENT_CODEC) >= 0;
+        } finally {
+            cursor.close();
+        }
+        // the existing content is compressed when it is written next time
+        if (!hasCodec) {
+            db.execSQL("ALTER TABLE " + TABLE.DATA + " ADD COLUMN " + CONTENT_CODEC
+                    + " INTEGER NOT NULL DEFAULT 0");
+        }
+    }
+
+    private void upgradeToV12(SQLiteDatabase db) {
+        // an existing note gets its first revisions when its text is written next time
+        createRevisionTable(db);
+    }
+
+    private void upgradeToV13(SQLiteDatabase db) {
+        db.execSQL(CREATE_CHECK_LIST_ITEM_KEY_INDEX_SQL);
+        migrateCheckLists(db);
+    }
+
+    private void upgradeToV14(SQLiteDatabase db) {
+        createAttachmentTable(db);
+        // count the references of the existing image data
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE.ATTACHMENT + "(" + ATTACHMENT_PATH + ","
+                + ATTACHMENT_REF_COUNT + ") SELECT " + DataColumns.CONTENT + ",COUNT(*) FROM "
+                + TABLE.DATA + " WHERE " + DataColumns.MIME_TYPE + "='"
+                + DataConstants.IMAGE_NOTE + "' AND " + DataColumns.CONTENT + "<>'' GROUP BY "
+                + DataColumns.CONTENT);
+    }
+
+    private void upgradeToV15(SQLiteDatabase db) {
+        // the revision table created by the upgrade to v12 already has the column
+        Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE.REVISION + " LIMIT 0", null);
+        boolean hasHash;
+        try {
+            hasHash = cursor.getColumnIndex(REVISION_HASH) >= 0;
+        } finally {
+            cursor.close();
+        }
+        if (!hasHash) {
+            db.execSQL("ALTER TABLE " + TABLE.REVISION + " ADD COLUMN " + REVISION_HASH
+                    + " INTEGER");
+        }
+    }
+
+    private void upgradeToV16(SQLiteDatabase db) {
+        // the text of check lists is rebuilt from the items by the provider
+        db.execSQL("DROP TRIGGER IF EXISTS rebuild_check_list_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS rebuild_check_list_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS rebuild_check_list_on_delete");
+    }
+
+    /**
+     * Split the text of the notes in check list mode into items, the text is kept as it is
+     */
+    private void migrateCheckLists(SQLiteDatabase db) {
+        // read all the notes first, the query would not see the same rows after the inserts
+        ArrayList<Long> noteIds = new ArrayList<Long>();
+        ArrayList<String> contents = new ArrayList<String>();
+        Cursor cursor = db.query(TABLE.DATA, new String[] { DataColumns.NOTE_ID,
+                DataColumns.CONTENT, CONTENT_CODEC }, DataColumns.MIME_TYPE + "='"
+                + DataConstants.NOTE + "' AND " + TextNote.MODE + "=" + TextNote.MODE_CHECK_LIST,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                noteIds.add(cursor.getLong(0));
+                contents.add(cursor.getInt(2) == ContentCodec.CODEC_DEFLATE
+                        ? ContentCodec.decompress(cursor.getBlob(1)) : cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < noteIds.size(); i++) {
+            List<CheckListText.Line> lines = CheckListText.parse(contents.get(i));
+            for (int j = 0; j < lines.size(); j++) {
+                values.clear();
+                values.put(DataColumns.NOTE_ID, noteIds.get(i));
+                values.put(DataColumns.MIME_TYPE, DataConstants.CHECK_LIST_ITEM);
+                values.put(DataColumns.CONTENT, lines.get(j).content);
+                values.put(CheckListItem.CHECKED, lines.get(j).checked ? 1 : 0);
+                values.put(CheckListItem.POSITION, (j + 1) * CheckListItem.POSITION_GAP);
+                values.put(CheckListItem.ITEM_KEY, UUID.randomUUID().toString());
+                db.insert(TABLE.DATA, null, values);
+            }
+        }
+    }
 }
@@ -19,20 +19,46 @@ package net.micode.notes.data;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.R;
+import net.micode.notes.data.Notes.ChangeColumns;
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.RevisionColumns;
+import net.micode.notes.data.Notes.TextNote;
 import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.tool.CheckListText;
+import net.micode.notes.tool.SearchTokenizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 
 public class NotesProvider extends ContentProvider {
@@ -40,6 +66,30 @@ public class NotesProvider extends ContentProvider {
 
     private NotesDatabaseHelper mHelper;
 
+    private NotificationCoalescer mNotifier;
+
+    private StatementCache mStatements;
+
+    /**
+     * Whether the calling thread is inside {@link #applyBatch} or {@link #bulkInsert}, the work
+     * which is needed once per write is deferred to the end of the batch
+     */
+    private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<Boolean>();
+
+    /**
+     * The text of the check list notes before their items are written, by note id. The text
+     * is rebuilt from the items and its revision recorded once after the write, or after the
+     * batch.
+     */
+    private final ThreadLocal<HashMap<Long, String>> mCheckListTexts =
+            new ThreadLocal<HashMap<Long, String>>();
+
+    /**
+     * The notes whose text row has been written directly rather than rebuilt from the items,
+     * their items are synced with the text after the write, or after the batch
+     */
+    private final ThreadLocal<HashSet<Long>> mTextWrites = new ThreadLocal<HashSet<Long>>();
+
     private static final String TAG = "NotesProvider";
 
     private static final int URI_NOTE            = 1;
@@ -50,12 +100,23 @@ public class NotesProvider extends ContentProvider {
     private static final int URI_SEARCH          = 5;
     private static final int URI_SEARCH_SUGGEST  = 6;
 
+    private static final int URI_NOTE_LIST       = 7;
+
+    private static final int URI_CHANGE          = 8;
+
+    private static final int URI_REVISION        = 9;
+    private static final int URI_REVISION_ITEM   = 10;
+
     static {
         mMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         mMatcher.addURI(Notes.AUTHORITY, "note", URI_NOTE);
         mMatcher.addURI(Notes.AUTHORITY, "note/#", URI_NOTE_ITEM);
         mMatcher.addURI(Notes.AUTHORITY, "data", URI_DATA);
         mMatcher.addURI(Notes.AUTHORITY, "data/#", URI_DATA_ITEM);
+        mMatcher.addURI(Notes.AUTHORITY, "note_list", URI_NOTE_LIST);
+        mMatcher.addURI(Notes.AUTHORITY, "change", URI_CHANGE);
+        mMatcher.addURI(Notes.AUTHORITY, "revision", URI_REVISION);
+        mMatcher.addURI(Notes.AUTHORITY, "revision/#", URI_REVISION_ITEM);
         mMatcher.addURI(Notes.AUTHORITY, "search", URI_SEARCH);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, URI_SEARCH_SUGGEST);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY + "/*", URI_SEARCH_SUGGEST);
@@ -73,15 +134,66 @@ public class NotesProvider extends ContentProvider {
         + "'" + Intent.ACTION_VIEW + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_ACTION + ","
         + "'" + Notes.TextNote.CONTENT_TYPE + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA;
 
-    private static String NOTES_SNIPPET_SEARCH_QUERY = "SELECT " + NOTES_SEARCH_PROJECTION
-        + " FROM " + TABLE.NOTE
-        + " WHERE " + NoteColumns.SNIPPET + " LIKE ?"
+    private static final int SEARCH_RESULT_MAX_COUNT = 50;
+
+    /**
+     * Matches scored for a search, the most recently modified ones are kept if there are more
+     */
+    private static final int SEARCH_CANDIDATE_MAX_COUNT = 500;
+
+    /**
+     * The matchinfo() of each candidate carries the phrase count, column count, row count and
+     * the hits of every phrase, which are scored by {@link #getMatchScore}
+     */
+    private static final String NOTES_SEARCH_CANDIDATE_QUERY = "SELECT " + TABLE.SEARCH + ".docid,"
+        + "matchinfo(" + TABLE.SEARCH + ",'pcnx')"
+        + " FROM " + TABLE.SEARCH + " JOIN " + TABLE.NOTE
+        + " ON " + TABLE.NOTE + "." + NoteColumns.ID + "=" + TABLE.SEARCH + ".docid"
+        + " WHERE " + TABLE.SEARCH + " MATCH ?"
         + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
-        + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
+        + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+        + " ORDER BY " + NoteColumns.MODIFIED_DATE + " DESC"
+        + " LIMIT " + SEARCH_CANDIDATE_MAX_COUNT;
+
+    private static final String NOTE_PAGE_ORDER = NoteColumns.TYPE + " DESC,"
+        + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID + " DESC";
+
+    /**
+     * Rows after the key in {@link #NOTE_PAGE_ORDER}. The redundant bound on type lets the
+     * query seek in the index of parent id, type and modified date, rows of the same type are
+     * skipped by the index only.
+     */
+    private static final String NOTE_PAGE_KEY_SELECTION = NoteColumns.TYPE + "<=? AND ("
+        + NoteColumns.TYPE + "<? OR (" + NoteColumns.TYPE + "=? AND ("
+        + NoteColumns.MODIFIED_DATE + "<? OR (" + NoteColumns.MODIFIED_DATE + "=? AND "
+        + NoteColumns.ID + "<?))))";
+
+    private static final String[] REVISION_PROJECTION = new String[] {
+        RevisionColumns.ID,
+        RevisionColumns.NOTE_ID,
+        RevisionColumns.CREATED_DATE,
+        RevisionColumns.LENGTH
+    };
+
+    /**
+     * Columns of a single revision, the text is rebuilt by {@link RevisionStore}
+     */
+    private static final String[] REVISION_ITEM_PROJECTION = new String[] {
+        RevisionColumns.ID,
+        RevisionColumns.NOTE_ID,
+        RevisionColumns.CREATED_DATE,
+        RevisionColumns.LENGTH,
+        RevisionColumns.CONTENT
+    };
+
+    private static final String NOTE_VERSION_INCREASE =
+        NoteColumns.VERSION + "=" + NoteColumns.VERSION + "+1";
 
     @Override
     public boolean onCreate() {
         mHelper = NotesDatabaseHelper.getInstance(getContext());
+        mNotifier = new NotificationCoalescer(getContext().getContentResolver());
+        mStatements = new StatementCache(mHelper);
         return true;
     }
 
@@ -93,8 +205,14 @@ public class NotesProvider extends ContentProvider {
         String id = null;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
-                c = db.query(TABLE.NOTE, projection, selection, selectionArgs, null, null,
-                        sortOrder);
+            case URI_NOTE_LIST:
+                String table = mMatcher.match(uri) == URI_NOTE ? TABLE.NOTE : TABLE.NOTE_LIST;
+                if (uri.getQueryParameter(Notes.PARAM_PAGE_SIZE) != null) {
+                    c = queryNotePage(db, table, uri, projection, selection, selectionArgs);
+                } else {
+                    c = db.query(table, projection, selection, selectionArgs, null, null,
+                            sortOrder);
+                }
                 break;
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
@@ -102,13 +220,39 @@ public class NotesProvider extends ContentProvider {
                         + parseSelection(selection), selectionArgs, null, null, sortOrder);
                 break;
             case URI_DATA:
-                c = db.query(TABLE.DATA, projection, selection, selectionArgs, null, null,
-                        sortOrder);
+                c = new DecodingCursor(db.query(TABLE.DATA,
+                        DecodingCursor.getProjection(projection), selection, selectionArgs,
+                        null, null, sortOrder));
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                c = db.query(TABLE.DATA, projection, DataColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs, null, null, sortOrder);
+                c = new DecodingCursor(db.query(TABLE.DATA,
+                        DecodingCursor.getProjection(projection), DataColumns.ID + "=" + id
+                        + parseSelection(selection), selectionArgs, null, null, sortOrder));
+                break;
+            case URI_CHANGE:
+                String since = uri.getQueryParameter(Notes.PARAM_SINCE);
+                if (since != null) {
+                    long seq;
+                    try {
+                        seq = Long.parseLong(since);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Wrong since " + since);
+                    }
+                    selection = ChangeColumns.SEQ + ">" + seq + parseSelection(selection);
+                }
+                c = db.query(TABLE.CHANGE, projection, selection, selectionArgs, null, null,
+                        sortOrder == null ? ChangeColumns.SEQ : sortOrder);
+                break;
+            case URI_REVISION:
+                c = db.query(TABLE.REVISION,
+                        projection == null ? REVISION_PROJECTION : projection, selection,
+                        selectionArgs, null, null,
+                        sortOrder == null ? RevisionColumns.ID : sortOrder);
+                break;
+            case URI_REVISION_ITEM:
+                c = queryRevision(db, Long.parseLong(uri.getPathSegments().get(1)),
+                        projection);
                 break;
             case URI_SEARCH:
             case URI_SEARCH_SUGGEST:
@@ -130,10 +274,14 @@ public class NotesProvider extends ContentProvider {
                     return null;
                 }
 
+                String matchString = SearchTokenizer.buildMatchQuery(searchString);
+                if (TextUtils.isEmpty(matchString)) {
+                    return null;
+                }
+
                 try {
-                    searchString = String.format("%%%s%%", searchString);
-                    c = db.rawQuery(NOTES_SNIPPET_SEARCH_QUERY,
-                            new String[] { searchString });
+                    mHelper.updateSearchIndex(mHelper.getWritableDatabase());
+                    c = querySearchResult(db, matchString);
                 } catch (IllegalStateException ex) {
                     Log.e(TAG, "got exception: " + ex.toString());
                 }
@@ -142,7 +290,12 @@ public class NotesProvider extends ContentProvider {
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
         if (c != null) {
-            c.setNotificationUri(getContext().getContentResolver(), uri);
+            // the list, the change log and the revisions change with the notes and their
+            // data, which all notify the note uri
+            int match = mMatcher.match(uri);
+            c.setNotificationUri(getContext().getContentResolver(),
+                    match == URI_NOTE_LIST || match == URI_CHANGE || match == URI_REVISION
+                    ? Notes.CONTENT_NOTE_URI : uri);
         }
         return c;
     }
@@ -153,7 +306,7 @@ public class NotesProvider extends ContentProvider {
         long dataId = 0, noteId = 0, insertedId = 0;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
-                insertedId = noteId = db.insert(TABLE.NOTE, null, values);
+                insertedId = noteId = mStatements.insert(db, TABLE.NOTE, values);
                 break;
             case URI_DATA:
                 if (values.containsKey(DataColumns.NOTE_ID)) {
@@ -161,21 +314,51 @@ public class NotesProvider extends ContentProvider {
                 } else {
                     Log.d(TAG, "Wrong data format without note id:" + values.toString());
                 }
-                insertedId = dataId = db.insert(TABLE.DATA, null, values);
+                if (DataConstants.CHECK_LIST_ITEM.equals(
+                        values.getAsString(DataColumns.MIME_TYPE))) {
+                    insertedId = dataId = upsertCheckListItem(db, noteId, values);
+                } else {
+                    ContentValues encoded = ContentCodec.encode(values);
+                    insertedId = dataId = mStatements.insert(db, TABLE.DATA, encoded);
+                    if (dataId > 0 && ContentCodec.isCompressed(encoded)) {
+                        updateCompressedSnippet(db, values.getAsString(DataColumns.CONTENT),
+                                DataColumns.ID + "=" + dataId, null);
+                    }
+                    if (dataId > 0 && noteId > 0 && DataConstants.NOTE.equals(
+                            values.getAsString(DataColumns.MIME_TYPE))) {
+                        if (values.containsKey(DataColumns.CONTENT)) {
+                            RevisionStore.record(db, noteId, null,
+                                    values.getAsString(DataColumns.CONTENT),
+                                    System.currentTimeMillis());
+                        }
+                        if (isTextWrite(values)) {
+                            addTextWrite(noteId);
+                        }
+                    }
+                }
+                if (!isInBatch()) {
+                    syncCheckListItems(db);
+                    recordCheckListRevisions(db);
+                    mHelper.updateSearchIndex(db);
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
+        // a failed insert fails the batch, which is then rolled back
+        if (insertedId <= 0 && isInBatch()) {
+            return null;
+        }
+
         // Notify the note uri
         if (noteId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null);
+            mNotifier.notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId));
+            mHelper.scheduleIdleCheckpoint();
         }
 
         // Notify the data uri
         if (dataId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId), null);
+            mNotifier.notifyChange(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId));
         }
 
         return ContentUris.withAppendedId(uri, insertedId);
@@ -206,23 +389,31 @@ public class NotesProvider extends ContentProvider {
                         NoteColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
                 break;
             case URI_DATA:
+                beforeCheckListWrite(db, selection, selectionArgs);
                 count = db.delete(TABLE.DATA, selection, selectionArgs);
                 deleteData = true;
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                count = db.delete(TABLE.DATA,
-                        DataColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
+                selection = DataColumns.ID + "=" + id + parseSelection(selection);
+                beforeCheckListWrite(db, selection, selectionArgs);
+                count = db.delete(TABLE.DATA, selection, selectionArgs);
                 deleteData = true;
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
+        if (deleteData && !isInBatch()) {
+            syncCheckListItems(db);
+            recordCheckListRevisions(db);
+            mHelper.updateSearchIndex(db);
+        }
         if (count > 0) {
             if (deleteData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+                mNotifier.notifyChange(Notes.CONTENT_NOTE_URI);
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+            mNotifier.notifyChange(uri);
+            mHelper.scheduleIdleCheckpoint();
         }
         return count;
     }
@@ -233,67 +424,750 @@ public class NotesProvider extends ContentProvider {
         String id = null;
         SQLiteDatabase db = mHelper.getWritableDatabase();
         boolean updateData = false;
+        ContentValues encoded = null;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
-                increaseNoteVersion(-1, selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, selection, selectionArgs);
+                count = updateNote(db, values, selection, selectionArgs);
                 break;
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
-                increaseNoteVersion(Long.valueOf(id), selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, NoteColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs);
+                if (TextUtils.isEmpty(selection)) {
+                    count = mStatements.updateById(db, TABLE.NOTE, values,
+                            values.containsKey(NoteColumns.VERSION) ? null : NOTE_VERSION_INCREASE,
+                            Long.valueOf(id));
+                } else {
+                    count = updateNote(db, values, NoteColumns.ID + "=" + id
+                            + parseSelection(selection), selectionArgs);
+                }
                 break;
             case URI_DATA:
-                count = db.update(TABLE.DATA, values, selection, selectionArgs);
+                beforeCheckListWrite(db, selection, selectionArgs);
+                beforeTextWrite(db, values, selection, selectionArgs);
+                encoded = ContentCodec.encode(values);
+                count = updateData(db, values, encoded, null, selection, selectionArgs);
                 updateData = true;
                 break;
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                count = db.update(TABLE.DATA, values, DataColumns.ID + "=" + id
+                beforeCheckListWrite(db, DataColumns.ID + "=" + id + parseSelection(selection),
+                        selectionArgs);
+                beforeTextWrite(db, values, DataColumns.ID + "=" + id
                         + parseSelection(selection), selectionArgs);
+                encoded = ContentCodec.encode(values);
+                count = updateData(db, values, encoded, Long.valueOf(id), selection,
+                        selectionArgs);
+                selection = DataColumns.ID + "=" + id + parseSelection(selection);
                 updateData = true;
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
+        if (count > 0 && updateData && ContentCodec.isCompressed(encoded)) {
+            updateCompressedSnippet(db, values.getAsString(DataColumns.CONTENT), selection,
+                    selectionArgs);
+        }
+        if (updateData && !isInBatch()) {
+            syncCheckListItems(db);
+            recordCheckListRevisions(db);
+            if (count > 0) {
+                mHelper.updateSearchIndex(db);
+            }
+        }
         if (count > 0) {
             if (updateData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+                mNotifier.notifyChange(Notes.CONTENT_NOTE_URI);
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+            mNotifier.notifyChange(uri);
+            mHelper.scheduleIdleCheckpoint();
         }
         return count;
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (Notes.METHOD_CHECKPOINT.equals(method)) {
+            mHelper.checkpoint(mHelper.getWritableDatabase());
+            return null;
+        }
+        if (Notes.METHOD_SWEEP_ATTACHMENTS.equals(method)) {
+            boolean dryRun = extras != null && extras.getBoolean(Notes.EXTRA_DRY_RUN);
+            return AttachmentSweeper.sweep(mHelper.getWritableDatabase(),
+                    AttachmentStore.getDirectory(getContext()), System.currentTimeMillis(),
+                    dryRun).toBundle();
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Apply all the operations in one transaction, so the batch is written with a single
+     * journal commit and is all or nothing: if any operation fails, none of them is applied.
+     * Operations built with {@link ContentProviderOperation.Builder#withYieldAllowed} are
+     * yield points where the transaction may be committed to let other threads access the
+     * database, callers of very large batches which do not need atomicity could use them.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        mInBatch.set(Boolean.TRUE);
+        mNotifier.beginBatch();
+        db.beginTransaction();
+        try {
+            final int count = operations.size();
+            ContentProviderResult[] results = new ContentProviderResult[count];
+            for (int i = 0; i < count; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    db.yieldIfContendedSafely();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            syncCheckListItems(db);
+            recordCheckListRevisions(db);
+            mHelper.updateSearchIndex(db);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+            mInBatch.remove();
+            mCheckListTexts.remove();
+            mTextWrites.remove();
+            mNotifier.endBatch();
+        }
+    }
+
+    /**
+     * Insert all the rows in one transaction like {@link #applyBatch}, if any insert fails none
+     * of the rows is inserted and 0 is returned.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        mInBatch.set(Boolean.TRUE);
+        mNotifier.beginBatch();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insert(uri, value) == null) {
+                    Log.e(TAG, "Failed to insert " + value + ", the rows are not inserted");
+                    return 0;
+                }
+            }
+            syncCheckListItems(db);
+            recordCheckListRevisions(db);
+            mHelper.updateSearchIndex(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mInBatch.remove();
+            mCheckListTexts.remove();
+            mTextWrites.remove();
+            mNotifier.endBatch();
+        }
+        return values.length;
+    }
+
+    /**
+     * For tests to check the notifications sent by the provider
+     */
+    NotificationCoalescer getNotificationCoalescer() {
+        return mNotifier;
+    }
+
+    StatementCache getStatementCache() {
+        return mStatements;
+    }
+
+    private boolean isInBatch() {
+        return mInBatch.get() != null;
+    }
+
+    /**
+     * Insert the check list item, or update the item of the note with the same
+     * {@link CheckListItem#ITEM_KEY}. The content of items is never compressed, the text of
+     * the note is rebuilt from it after the write, see {@link #syncCheckListItems}.
+     */
+    private long upsertCheckListItem(SQLiteDatabase db, long noteId, ContentValues values) {
+        String key = values.getAsString(CheckListItem.ITEM_KEY);
+        if (TextUtils.isEmpty(key)) {
+            throw new IllegalArgumentException("Check list item without key:" + values);
+        }
+
+        beforeCheckListWrite(db, noteId);
+        long id = DatabaseUtils.longForQuery(db, "SELECT IFNULL((SELECT " + DataColumns.ID
+                + " FROM " + TABLE.DATA + " WHERE " + DataColumns.NOTE_ID + "=" + noteId
+                + " AND " + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM
+                + "' AND " + CheckListItem.ITEM_KEY + "=?),0)", new String[] { key });
+        if (id > 0) {
+            mStatements.updateById(db, TABLE.DATA, values, null, id);
+        } else {
+            id = mStatements.insert(db, TABLE.DATA, values);
+        }
+        return id;
+    }
+
+    /**
+     * Keep the text of the check list notes whose items are about to be written, their text
+     * is rebuilt after the write
+     */
+    private void beforeCheckListWrite(SQLiteDatabase db, String selection,
+            String[] selectionArgs) {
+        Cursor cursor = db.query(true, TABLE.DATA, new String[] { DataColumns.NOTE_ID },
+                DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'"
+                + parseSelection(selection), selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                beforeCheckListWrite(db, cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void beforeCheckListWrite(SQLiteDatabase db, long noteId) {
+        HashMap<Long, String> texts = mCheckListTexts.get();
+        if (texts == null) {
+            texts = new HashMap<Long, String>();
+            mCheckListTexts.set(texts);
+        }
+        if (!texts.containsKey(noteId)) {
+            texts.put(noteId, getNoteText(db, noteId));
+        }
+    }
+
+    /**
+     * Record the text rebuilt from the items as a revision of each check list note written
+     */
+    private void recordCheckListRevisions(SQLiteDatabase db) {
+        HashMap<Long, String> texts = mCheckListTexts.get();
+        if (texts == null) {
+            return;
+        }
+        mCheckListTexts.remove();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, String> entry : texts.entrySet()) {
+            RevisionStore.record(db, entry.getKey(), entry.getValue(),
+                    getNoteText(db, entry.getKey()), now);
+        }
+    }
+
+    private static boolean isTextWrite(ContentValues values) {
+        return values.containsKey(DataColumns.CONTENT) || values.containsKey(TextNote.MODE);
+    }
+
+    /**
+     * Keep the notes whose text row is about to be written with a new content or mode
+     */
+    private void beforeTextWrite(SQLiteDatabase db, ContentValues values, String selection,
+            String[] selectionArgs) {
+        if (!isTextWrite(values)) {
+            return;
+        }
+        Cursor cursor = db.query(true, TABLE.DATA, new String[] { DataColumns.NOTE_ID },
+                DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'"
+                + parseSelection(selection), selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                addTextWrite(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void addTextWrite(long noteId) {
+        HashSet<Long> noteIds = mTextWrites.get();
+        if (noteIds == null) {
+            noteIds = new HashSet<Long>();
+            mTextWrites.set(noteIds);
+        }
+        noteIds.add(noteId);
+    }
+
+    /**
+     * Bring the items of the notes whose text row has been written directly, e.g. by a sync,
+     * in line with the text. The items of a note in check list mode are updated in order from
+     * the lines of the text, keeping their keys and positions, unless the text is already the
+     * one rebuilt from them as after a write of the editor. The items of a note which has
+     * left check list mode are dropped.
+     * <p>
+     * Then the text of the notes whose items have been written is rebuilt from the items,
+     * once for all the items written by the write or the batch.
+     */
+    private void syncCheckListItems(SQLiteDatabase db) {
+        HashSet<Long> noteIds = mTextWrites.get();
+        HashMap<Long, String> texts = mCheckListTexts.get();
+        if (noteIds == null && texts == null) {
+            return;
+        }
+        mTextWrites.remove();
+        db.beginTransaction();
+        try {
+            if (noteIds != null) {
+                for (long noteId : noteIds) {
+                    syncCheckListItems(db, noteId);
+                }
+            }
+            // the notes whose items have just been synced are in there too
+            texts = mCheckListTexts.get();
+            if (texts != null) {
+                for (long noteId : texts.keySet()) {
+                    rebuildCheckListText(db, noteId);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void syncCheckListItems(SQLiteDatabase db, long noteId) {
+        String itemWhere = DataColumns.NOTE_ID + "=" + noteId + " AND "
+                + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'";
+        Cursor cursor = new DecodingCursor(db.query(TABLE.DATA, DecodingCursor.getProjection(
+                new String[] { DataColumns.CONTENT, TextNote.MODE }), DataColumns.NOTE_ID + "="
+                + noteId + " AND " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'",
+                null, null, null, null));
+        String text;
+        boolean checkList;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            text = cursor.isNull(0) ? "" : cursor.getString(0);
+            checkList = cursor.getInt(1) == TextNote.MODE_CHECK_LIST;
+        } finally {
+            cursor.close();
+        }
+        if (!checkList) {
+            db.delete(TABLE.DATA, itemWhere, null);
+            return;
+        }
+
+        ArrayList<Long> ids = new ArrayList<Long>();
+        ArrayList<CheckListText.Line> items = new ArrayList<CheckListText.Line>();
+        long position = 0;
+        StringBuilder rebuilt = new StringBuilder();
+        cursor = db.query(TABLE.DATA, new String[] { DataColumns.ID, CheckListItem.CHECKED,
+                DataColumns.CONTENT, CheckListItem.POSITION }, itemWhere, null, null, null,
+                CheckListItem.POSITION + "," + DataColumns.ID);
+        try {
+            while (cursor.moveToNext()) {
+                CheckListText.Line item = new CheckListText.Line(cursor.getInt(1) == 1,
+                        cursor.isNull(2) ? "" : cursor.getString(2));
+                ids.add(cursor.getLong(0));
+                items.add(item);
+                position = cursor.getLong(3);
+                CheckListText.appendLine(rebuilt, item.checked, item.content);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (text.equals(rebuilt.toString())) {
+            return;
+        }
+
+        beforeCheckListWrite(db, noteId);
+        List<CheckListText.Line> lines = CheckListText.parse(text);
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < lines.size(); i++) {
+            CheckListText.Line line = lines.get(i);
+            values.clear();
+            if (i < items.size()) {
+                CheckListText.Line item = items.get(i);
+                if (item.checked != line.checked || !item.content.equals(line.content)) {
+                    values.put(CheckListItem.CHECKED, line.checked ? 1 : 0);
+                    values.put(DataColumns.CONTENT, line.content);
+                    db.update(TABLE.DATA, values, DataColumns.ID + "=" + ids.get(i), null);
+                }
+            } else {
+                position += CheckListItem.POSITION_GAP;
+                values.put(DataColumns.NOTE_ID, noteId);
+                values.put(DataColumns.MIME_TYPE, DataConstants.CHECK_LIST_ITEM);
+                values.put(DataColumns.CONTENT, line.content);
+                values.put(CheckListItem.CHECKED, line.checked ? 1 : 0);
+                values.put(CheckListItem.POSITION, position);
+                values.put(CheckListItem.ITEM_KEY, UUID.randomUUID().toString());
+                db.insert(TABLE.DATA, null, values);
+            }
+        }
+        for (int i = lines.size(); i < items.size(); i++) {
+            db.delete(TABLE.DATA, DataColumns.ID + "=" + ids.get(i), null);
+        }
+    }
+
+    /**
+     * Write the text of the check list note from its items, the text of a note not in check
+     * list mode is left as it is
+     */
+    private void rebuildCheckListText(SQLiteDatabase db, long noteId) {
+        String textWhere = DataColumns.NOTE_ID + "=" + noteId + " AND "
+                + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "' AND "
+                + TextNote.MODE + "=" + TextNote.MODE_CHECK_LIST;
+        Cursor cursor = new DecodingCursor(db.query(TABLE.DATA, DecodingCursor.getProjection(
+                new String[] { DataColumns.CONTENT }), textWhere, null, null, null, null));
+        String text;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            text = cursor.isNull(0) ? "" : cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+
+        StringBuilder rebuilt = new StringBuilder();
+        cursor = db.query(TABLE.DATA, new String[] { CheckListItem.CHECKED,
+                DataColumns.CONTENT }, DataColumns.NOTE_ID + "=" + noteId + " AND "
+                + DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'", null,
+                null, null, CheckListItem.POSITION + "," + DataColumns.ID);
+        try {
+            while (cursor.moveToNext()) {
+                CheckListText.appendLine(rebuilt, cursor.getInt(0) == 1,
+                        cursor.isNull(1) ? "" : cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        String content = rebuilt.toString();
+        if (text.equals(content)) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        ContentCodec.putEncoded(values, DataColumns.CONTENT, content);
+        db.update(TABLE.DATA, values, textWhere, null);
+        if (ContentCodec.isCompressed(values)) {
+            updateCompressedSnippet(db, content, textWhere, null);
+        }
+    }
+
+    private static String getNoteText(SQLiteDatabase db, long noteId) {
+        Cursor cursor = new DecodingCursor(db.query(TABLE.DATA, DecodingCursor.getProjection(
+                new String[] { DataColumns.CONTENT }), DataColumns.NOTE_ID + "=" + noteId
+                + " AND " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'", null,
+                null, null, null));
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Update the data, by id if the id is not null. When the text of notes is written, the
+     * text before the write is read for recording the new text in {@link RevisionStore}.
+     */
+    private int updateData(SQLiteDatabase db, ContentValues values, ContentValues encoded,
+            Long id, String selection, String[] selectionArgs) {
+        String where = id == null ? selection : DataColumns.ID + "=" + id
+                + parseSelection(selection);
+        if (!encoded.containsKey(DataColumns.CONTENT)) {
+            return updateDataRows(db, encoded, id, selection, where, selectionArgs);
+        }
+
+        db.beginTransaction();
+        try {
+            ArrayList<Long> noteIds = new ArrayList<Long>();
+            ArrayList<String> oldContents = new ArrayList<String>();
+            Cursor cursor = new DecodingCursor(db.query(TABLE.DATA,
+                    DecodingCursor.getProjection(new String[] {
+                            DataColumns.NOTE_ID, DataColumns.CONTENT }),
+                    DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'"
+                    + parseSelection(where), selectionArgs, null, null, null));
+            try {
+                while (cursor.moveToNext()) {
+                    noteIds.add(cursor.getLong(0));
+                    oldContents.add(cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            int count = updateContentRows(db, values, encoded, id, selection, where,
+                    selectionArgs);
+            if (count > 0 && !noteIds.isEmpty()) {
+                String content = values.getAsString(DataColumns.CONTENT);
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < noteIds.size(); i++) {
+                    RevisionStore.record(db, noteIds.get(i), oldContents.get(i), content, now);
+                }
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Update the rows with the new content. The content of check list items is kept plain
+     * even if it is long, the text of their note is rebuilt from it after the write.
+     */
+    private int updateContentRows(SQLiteDatabase db, ContentValues values,
+            ContentValues encoded, Long id, String selection, String where,
+            String[] selectionArgs) {
+        if (!ContentCodec.isCompressed(encoded)) {
+            return updateDataRows(db, encoded, id, selection, where, selectionArgs);
+        }
+        String itemWhere = DataColumns.MIME_TYPE + "='" + DataConstants.CHECK_LIST_ITEM + "'";
+        ContentValues plain = new ContentValues(values);
+        plain.put(NotesDatabaseHelper.CONTENT_CODEC, ContentCodec.CODEC_NONE);
+        return db.update(TABLE.DATA, plain, itemWhere + parseSelection(where), selectionArgs)
+                + db.update(TABLE.DATA, encoded, "NOT " + itemWhere + parseSelection(where),
+                        selectionArgs);
+    }
+
+    private int updateDataRows(SQLiteDatabase db, ContentValues encoded, Long id,
+            String selection, String where, String[] selectionArgs) {
+        if (id != null && TextUtils.isEmpty(selection)) {
+            return mStatements.updateById(db, TABLE.DATA, encoded, null, id);
+        }
+        return db.update(TABLE.DATA, encoded, where, selectionArgs);
+    }
+
+    /**
+     * Rebuild the revision, the columns are those of {@link #REVISION_ITEM_PROJECTION}
+     */
+    private static Cursor queryRevision(SQLiteDatabase db, long revisionId,
+            String[] projection) {
+        if (projection == null) {
+            projection = REVISION_ITEM_PROJECTION;
+        }
+        List<String> columns = Arrays.asList(REVISION_ITEM_PROJECTION);
+        for (String column : projection) {
+            if (!columns.contains(column)) {
+                throw new IllegalArgumentException("Unknown revision column " + column);
+            }
+        }
+
+        MatrixCursor result = new MatrixCursor(projection, 1);
+        Object[] row = new Object[REVISION_ITEM_PROJECTION.length];
+        Cursor cursor = db.query(TABLE.REVISION, REVISION_PROJECTION,
+                RevisionColumns.ID + "=" + revisionId, null, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return result;
+            }
+            for (int i = 0; i < REVISION_PROJECTION.length; i++) {
+                row[i] = cursor.getLong(i);
+            }
+        } finally {
+            cursor.close();
+        }
+        row[REVISION_PROJECTION.length] = RevisionStore.getContent(db, revisionId);
+
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            values[i] = row[columns.indexOf(projection[i])];
+        }
+        result.addRow(values);
+        return result;
+    }
+
+    /**
+     * Score the candidates of the search and query the best {@link #SEARCH_RESULT_MAX_COUNT}
+     * of them, ordered by the score
+     */
+    private static Cursor querySearchResult(SQLiteDatabase db, String matchString) {
+        ArrayList<Long> ids = new ArrayList<Long>();
+        final ArrayList<Double> scores = new ArrayList<Double>();
+        Cursor cursor = db.rawQuery(NOTES_SEARCH_CANDIDATE_QUERY, new String[] { matchString });
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+                scores.add(getMatchScore(cursor.getBlob(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // the candidates are sorted by modified date, the stable sort keeps it for the same
+        // score
+        ArrayList<Integer> ranks = new ArrayList<Integer>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            ranks.add(i);
+        }
+        Collections.sort(ranks, new Comparator<Integer>() {
+            public int compare(Integer lhs, Integer rhs) {
+                return Double.compare(scores.get(rhs), scores.get(lhs));
+            }
+        });
+
+        StringBuilder selection = new StringBuilder(NoteColumns.ID + " IN (");
+        StringBuilder order = new StringBuilder(" ORDER BY CASE " + NoteColumns.ID);
+        for (int i = 0; i < ranks.size() && i < SEARCH_RESULT_MAX_COUNT; i++) {
+            long id = ids.get(ranks.get(i));
+            selection.append(i > 0 ? "," : "").append(id);
+            order.append(" WHEN ").append(id).append(" THEN ").append(i);
+        }
+        selection.append(')');
+        order.append(" END");
+        return db.rawQuery("SELECT " + NOTES_SEARCH_PROJECTION + " FROM " + TABLE.NOTE
+                + " WHERE " + selection + (ranks.isEmpty() ? "" : order), null);
+    }
+
+    /**
+     * The matchinfo blob with 'pcnx' format is an array of unsigned integers in native byte
+     * order: phrase count, column count, row count, followed by three integers for each
+     * phrase and column: hits in this row, hits in all rows, rows with at least one hit.
+     * The score is the sum of the hits of each phrase, saturated and weighted by how rare the
+     * phrase is. It is not normalized by the length of the note.
+     */
+    private static double getMatchScore(byte[] matchInfo) {
+        if (matchInfo == null || matchInfo.length < 12) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phraseCount = buffer.getInt(0);
+        int columnCount = buffer.getInt(4);
+        int rowCount = buffer.getInt(8);
+        double score = 0;
+        for (int i = 0; i < phraseCount * columnCount; i++) {
+            int offset = 12 + i * 12;
+            if (offset + 12 > matchInfo.length) {
+                break;
+            }
+            int hits = buffer.getInt(offset);
+            int rowsWithHits = buffer.getInt(offset + 8);
+            if (hits > 0) {
+                double idf = Math.log(1 + (rowCount - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+                score += idf * hits * 2.2 / (hits + 1.2);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * The triggers could not read the compressed content, so the snippet of the notes whose
+     * content is compressed is written here with the plain text
+     */
+    private void updateCompressedSnippet(SQLiteDatabase db, String content,
+            String dataSelection, String[] selectionArgs) {
+        String sql = "UPDATE " + TABLE.NOTE + " SET " + NoteColumns.SNIPPET + "="
+                + NotesDatabaseHelper.getSnippetExpression("?1") + " WHERE " + NoteColumns.ID
+                + " IN (SELECT " + DataColumns.NOTE_ID + " FROM " + TABLE.DATA + " WHERE "
+                + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'"
+                + parseSelection(dataSelection) + ")";
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        Object[] args = new Object[argCount + 1];
+        // only the beginning of the content is needed for the snippet
+        args[0] = content.substring(0, Math.min(content.length(),
+                ContentCodec.COMPRESS_THRESHOLD));
+        for (int i = 0; i < argCount; i++) {
+            args[i + 1] = selectionArgs[i];
+        }
+        db.execSQL(sql, args);
+    }
+
     private String parseSelection(String selection) {
         return (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : "");
     }
 
-    private void increaseNoteVersion(long id, String selection, String[] selectionArgs) {
+    /**
+     * Query a page of notes, see {@link Notes#PARAM_PAGE_SIZE}. The number of notes in all
+     * the pages is put in the extras of the first one, see {@link Notes#EXTRA_NOTES_TOTAL}.
+     */
+    private Cursor queryNotePage(SQLiteDatabase db, String table, Uri uri, String[] projection,
+            String selection, String[] selectionArgs) {
+        String pageSize = uri.getQueryParameter(Notes.PARAM_PAGE_SIZE);
+        String type = uri.getQueryParameter(Notes.PARAM_AFTER_TYPE);
+        String modifiedDate = uri.getQueryParameter(Notes.PARAM_AFTER_MODIFIED_DATE);
+        String id = uri.getQueryParameter(Notes.PARAM_AFTER_ID);
+        try {
+            Integer.parseInt(pageSize);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Wrong page size " + pageSize);
+        }
+
+        String where = selection;
+        String[] args = selectionArgs;
+        boolean firstPage = type == null && modifiedDate == null && id == null;
+        if (!firstPage) {
+            if (type == null || modifiedDate == null || id == null) {
+                throw new IllegalArgumentException("Incomplete page key " + uri);
+            }
+
+            String[] keyArgs = new String[] { type, type, type, modifiedDate, modifiedDate, id };
+            int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+            args = new String[argCount + keyArgs.length];
+            if (argCount > 0) {
+                System.arraycopy(selectionArgs, 0, args, 0, argCount);
+            }
+            System.arraycopy(keyArgs, 0, args, argCount, keyArgs.length);
+            where = TextUtils.isEmpty(selection) ? NOTE_PAGE_KEY_SELECTION
+                    : "(" + selection + ") AND " + NOTE_PAGE_KEY_SELECTION;
+        }
+
+        Cursor c = db.query(table, projection, where, args, null, null, NOTE_PAGE_ORDER,
+                pageSize);
+        if (firstPage) {
+            Bundle extras = new Bundle();
+            extras.putInt(Notes.EXTRA_NOTES_TOTAL, countNotes(db, table, selection,
+                    selectionArgs));
+            c.setExtras(extras);
+        }
+        return c;
+    }
+
+    /**
+     * Count the notes of the selection in all the pages, the aggregate has no order so it is
+     * read from the index of parent id and type
+     */
+    private static int countNotes(SQLiteDatabase db, String table, String selection,
+            String[] selectionArgs) {
+        String where = NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
+        if (!TextUtils.isEmpty(selection)) {
+            where = "(" + selection + ") AND " + where;
+        }
+        return (int) DatabaseUtils.queryNumEntries(db, table, where, selectionArgs);
+    }
+
+    /**
+     * Update the notes and increase their version in one statement. The values and the
+     * selection arguments are bound to the statement, if the values carry the version it is
+     * written as is.
+     */
+    static int updateNote(SQLiteDatabase db, ContentValues values, String selection,
+            String[] selectionArgs) {
+        if (values == null || values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        Object[] bindArgs = new Object[values.size() + argCount];
         StringBuilder sql = new StringBuilder(120);
         sql.append("UPDATE ");
         sql.append(TABLE.NOTE);
         sql.append(" SET ");
-        sql.append(NoteColumns.VERSION);
-        sql.append("=" + NoteColumns.VERSION + "+1 ");
-
-        if (id > 0 || !TextUtils.isEmpty(selection)) {
-            sql.append(" WHERE ");
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(i > 0 ? "," : "");
+            sql.append(column);
+            sql.append("=?");
+            bindArgs[i++] = values.get(column);
         }
-        if (id > 0) {
-            sql.append(NoteColumns.ID + "=" + String.valueOf(id));
+        if (!values.containsKey(NoteColumns.VERSION)) {
+            sql.append("," + NOTE_VERSION_INCREASE);
         }
         if (!TextUtils.isEmpty(selection)) {
-            String selectString = id > 0 ? parseSelection(selection) : selection;
-            for (String args : selectionArgs) {
-                selectString = selectString.replaceFirst("\\?", args);
-            }
-            sql.append(selectString);
+            sql.append(" WHERE ");
+            sql.append(selection);
+        }
+        for (int j = 0; j < argCount; j++) {
+            bindArgs[i++] = selectionArgs[j];
         }
 
-        mHelper.getWritableDatabase().execSQL(sql.toString());
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            for (int j = 0; j < bindArgs.length; j++) {
+                DatabaseUtils.bindObjectToProgram(statement, j + 1, bindArgs[j]);
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
     }
 
     @Override
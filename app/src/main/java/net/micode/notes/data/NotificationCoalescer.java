@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collect the uris changed by the provider and notify each of them once. Changes made outside
+ * of a batch are notified when a short window closes, changes made inside a batch are notified
+ * when the batch ends. Batches are tracked by thread, so a batch holds back only the uris
+ * changed by its own thread.
+ *
+ * Notifying a uri also notifies the observers of all its descendants, so a uri is dropped if
+ * its ancestor is notified as well, and the uris of many items under the same parent, such as
+ * the notes moved in a batch, are collapsed into the parent uri.
+ */
+class NotificationCoalescer {
+    static final long DEFAULT_WINDOW = 100;
+
+    /**
+     * More items than this under the same parent are notified by the parent uri
+     */
+    private static final int MAX_SIBLING_COUNT = 8;
+
+    private final ContentResolver mResolver;
+
+    private final Handler mHandler;
+
+    private final long mWindow;
+
+    private final LinkedHashSet<Uri> mPendingUris = new LinkedHashSet<Uri>();
+
+    private final AtomicInteger mNotificationCount = new AtomicInteger();
+
+    /**
+     * The depth of the batches running on the thread and the uris they have changed
+     */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    NotificationCoalescer(ContentResolver resolver) {
+        this(resolver, Looper.getMainLooper(), DEFAULT_WINDOW);
+    }
+
+    NotificationCoalescer(ContentResolver resolver, Looper looper, long window) {
+        mResolver = resolver;
+        mHandler = new Handler(looper);
+        mWindow = window;
+    }
+
+    void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.uris.add(uri);
+            return;
+        }
+
+        synchronized (this) {
+            mPendingUris.add(uri);
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlushRunnable, mWindow);
+            }
+        }
+    }
+
+    void beginBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            batch = new Batch();
+            mBatch.set(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * End the batch of the thread, the uris changed by the outermost batch are notified now
+     */
+    void endBatch() {
+        Batch batch = mBatch.get();
+        if (batch == null) {
+            return;
+        }
+        batch.depth--;
+        if (batch.depth > 0) {
+            return;
+        }
+        mBatch.remove();
+        sendNotifications(collapse(batch.uris));
+    }
+
+    /**
+     * Send the notifications of all the pending uris right now
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = false;
+            if (mPendingUris.isEmpty()) {
+                return;
+            }
+            uris = collapse(mPendingUris);
+            mPendingUris.clear();
+        }
+        sendNotifications(uris);
+    }
+
+    private void sendNotifications(List<Uri> uris) {
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+            mNotificationCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the count of notifications sent, for checking how many notifications an operation
+     * causes
+     */
+    int getNotificationCount() {
+        return mNotificationCount.get();
+    }
+
+    static List<Uri> collapse(LinkedHashSet<Uri> uris) {
+        LinkedHashSet<Uri> result = new LinkedHashSet<Uri>();
+        HashMap<Uri, Integer> siblingCount = new HashMap<Uri, Integer>();
+        for (Uri uri : uris) {
+            Uri parent = getParent(uri);
+            if (parent != null) {
+                Integer count = siblingCount.get(parent);
+                siblingCount.put(parent, count == null ? 1 : count + 1);
+            }
+        }
+
+        for (Uri uri : uris) {
+            Uri parent = getParent(uri);
+            if (parent != null && siblingCount.get(parent) > MAX_SIBLING_COUNT) {
+                result.add(parent);
+            } else {
+                result.add(uri);
+            }
+        }
+
+        ArrayList<Uri> list = new ArrayList<Uri>(result.size());
+        for (Uri uri : result) {
+            if (!hasAncestor(uri, result)) {
+                list.add(uri);
+            }
+        }
+        return list;
+    }
+
+    private static boolean hasAncestor(Uri uri, LinkedHashSet<Uri> uris) {
+        for (Uri parent = getParent(uri); parent != null; parent = getParent(parent)) {
+            if (uris.contains(parent)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Uri getParent(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return null;
+        }
+        Uri.Builder builder = uri.buildUpon().path(null).clearQuery().fragment(null);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+
+    private static class Batch {
+        int depth;
+
+        final LinkedHashSet<Uri> uris = new LinkedHashSet<Uri>();
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import net.micode.notes.data.Notes.RevisionColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.tool.TextDelta;
+
+import java.util.ArrayList;
+
+/**
+ * Revision history of the text of notes in {@link TABLE#REVISION}. Most revisions store the
+ * {@link TextDelta} from the previous revision of the note, a full snapshot is stored every
+ * {@link #SNAPSHOT_INTERVAL} revisions, so rebuilding a revision applies a bounded number of
+ * deltas to the latest snapshot before it. A delta is only stored from the text before the
+ * write when it has the {@link #hash} of the latest revision.
+ */
+class RevisionStore {
+    private static final String TAG = "RevisionStore";
+
+    static final int KIND_SNAPSHOT = 0;
+
+    static final int KIND_DELTA = 1;
+
+    /**
+     * The number of revisions from a snapshot to the next one
+     */
+    static final int SNAPSHOT_INTERVAL = 32;
+
+    /**
+     * A snapshot is stored instead of a delta longer than this ratio of the text
+     */
+    private static final float MAX_DELTA_RATIO = 0.5f;
+
+    /**
+     * The number of revisions kept for each note, the older ones are pruned
+     */
+    static final int MAX_REVISIONS = 1000;
+
+    /**
+     * Revisions older than this are pruned, except the latest revision of a note
+     */
+    static final long MAX_REVISION_AGE = 90L * 24 * 60 * 60 * 1000;
+
+    private static final String LATEST_REVISION_QUERY =
+        "SELECT " + RevisionColumns.ID + "," + RevisionColumns.LENGTH + "," +
+            NotesDatabaseHelper.REVISION_HASH + "," +
+            "(SELECT COUNT(*) FROM " + TABLE.REVISION + " AS later" +
+            " WHERE later." + RevisionColumns.NOTE_ID + "=latest." + RevisionColumns.NOTE_ID +
+            " AND later." + RevisionColumns.ID + ">(SELECT MAX(" + RevisionColumns.ID + ") FROM " +
+                TABLE.REVISION + " WHERE " + RevisionColumns.NOTE_ID + "=latest." +
+                RevisionColumns.NOTE_ID + " AND " + NotesDatabaseHelper.REVISION_KIND + "=" +
+                KIND_SNAPSHOT + "))" +
+        " FROM " + TABLE.REVISION + " AS latest" +
+        " WHERE " + RevisionColumns.NOTE_ID + "=?" +
+        " ORDER BY " + RevisionColumns.ID + " DESC LIMIT 1";
+
+    private static final String SNAPSHOT_QUERY =
+        "SELECT " + RevisionColumns.NOTE_ID + "," +
+            "(SELECT MAX(" + RevisionColumns.ID + ") FROM " + TABLE.REVISION + " AS snapshot" +
+            " WHERE snapshot." + RevisionColumns.NOTE_ID + "=target." + RevisionColumns.NOTE_ID +
+            " AND snapshot." + RevisionColumns.ID + "<=target." + RevisionColumns.ID +
+            " AND snapshot." + NotesDatabaseHelper.REVISION_KIND + "=" + KIND_SNAPSHOT + ")" +
+        " FROM " + TABLE.REVISION + " AS target" +
+        " WHERE " + RevisionColumns.ID + "=?";
+
+    private RevisionStore() {
+    }
+
+    /**
+     * Record the new text of the note as its latest revision
+     *
+     * @param oldContent the text of the note before the write, which is the latest revision
+     *                   unless the history has not started or missed a write
+     * @return the id of the revision, or 0 if the text has not changed
+     */
+    static long record(SQLiteDatabase db, long noteId, String oldContent, String newContent,
+            long now) {
+        if (oldContent == null) {
+            oldContent = "";
+        }
+        if (newContent == null) {
+            newContent = "";
+        }
+        if (oldContent.equals(newContent)) {
+            return 0;
+        }
+
+        long unhashedId = 0;
+        int latestDeltaCount = 0;
+        int deltaCount = -1;
+        Cursor cursor = db.rawQuery(LATEST_REVISION_QUERY,
+                new String[] { String.valueOf(noteId) });
+        try {
+            if (cursor.moveToFirst() && cursor.getInt(1) == oldContent.length()) {
+                latestDeltaCount = cursor.getInt(3);
+                if (cursor.isNull(2)) {
+                    unhashedId = cursor.getLong(0);
+                } else if (cursor.getLong(2) == hash(oldContent)) {
+                    deltaCount = latestDeltaCount;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // the latest revision recorded without a hash is rebuilt to be compared
+        if (unhashedId > 0 && oldContent.equals(getContent(db, unhashedId))) {
+            deltaCount = latestDeltaCount;
+        }
+
+        // start the history from the text before the write, the latest revision is not it
+        // if the history missed a write
+        if (deltaCount < 0) {
+            if (oldContent.length() > 0) {
+                insertSnapshot(db, noteId, oldContent, now);
+            }
+            deltaCount = 0;
+        }
+
+        if (deltaCount + 1 < SNAPSHOT_INTERVAL) {
+            String delta = TextDelta.create(oldContent, newContent);
+            if (delta.length() <= newContent.length() * MAX_DELTA_RATIO) {
+                ContentValues values = new ContentValues();
+                values.put(RevisionColumns.NOTE_ID, noteId);
+                values.put(RevisionColumns.CREATED_DATE, now);
+                values.put(RevisionColumns.LENGTH, newContent.length());
+                values.put(NotesDatabaseHelper.REVISION_KIND, KIND_DELTA);
+                values.put(NotesDatabaseHelper.REVISION_PAYLOAD, delta);
+                values.put(NotesDatabaseHelper.REVISION_HASH, hash(newContent));
+                return db.insert(TABLE.REVISION, null, values);
+            }
+        }
+        return insertSnapshot(db, noteId, newContent, now);
+    }
+
+    /**
+     * Rebuild the text of the revision
+     *
+     * @return the text, or null if there is no such revision
+     */
+    static String getContent(SQLiteDatabase db, long revisionId) {
+        long noteId;
+        long snapshotId;
+        Cursor cursor = db.rawQuery(SNAPSHOT_QUERY, new String[] { String.valueOf(revisionId) });
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(1)) {
+                return null;
+            }
+            noteId = cursor.getLong(0);
+            snapshotId = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+
+        cursor = db.query(TABLE.REVISION, new String[] { NotesDatabaseHelper.REVISION_KIND,
+                NotesDatabaseHelper.REVISION_PAYLOAD, NotesDatabaseHelper.CONTENT_CODEC },
+                RevisionColumns.NOTE_ID + "=" + noteId + " AND " + RevisionColumns.ID
+                + " BETWEEN " + snapshotId + " AND " + revisionId, null, null, null,
+                RevisionColumns.ID);
+        try {
+            String content = null;
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(0) == KIND_SNAPSHOT) {
+                    content = cursor.getInt(2) == ContentCodec.CODEC_DEFLATE
+                            ? ContentCodec.decompress(cursor.getBlob(1))
+                            : cursor.getString(1);
+                } else {
+                    content = TextDelta.apply(content, cursor.getString(1));
+                }
+            }
+            return content;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drop the revisions beyond {@link #MAX_REVISIONS} or older than
+     * {@link #MAX_REVISION_AGE}. If the oldest revision kept is a delta, it is rewritten as a
+     * snapshot so that it could still be rebuilt.
+     */
+    static void prune(SQLiteDatabase db, long now) {
+        long expired = now - MAX_REVISION_AGE;
+        ArrayList<Long> noteIds = new ArrayList<Long>();
+        Cursor cursor = db.rawQuery("SELECT " + RevisionColumns.NOTE_ID + " FROM "
+                + TABLE.REVISION + " GROUP BY " + RevisionColumns.NOTE_ID + " HAVING COUNT(*)>"
+                + MAX_REVISIONS + " OR MIN(" + RevisionColumns.CREATED_DATE + ")<" + expired,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                noteIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (long noteId : noteIds) {
+            db.beginTransaction();
+            try {
+                pruneNote(db, noteId, expired);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    private static void pruneNote(SQLiteDatabase db, long noteId, long expired) {
+        String where = RevisionColumns.NOTE_ID + "=" + noteId;
+        long keepFrom = 0;
+        Cursor cursor = db.query(TABLE.REVISION, new String[] { RevisionColumns.ID }, where,
+                null, null, null, RevisionColumns.ID + " DESC", (MAX_REVISIONS - 1) + ",1");
+        try {
+            if (cursor.moveToFirst()) {
+                keepFrom = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // the latest revision is kept however old it is
+        cursor = db.rawQuery("SELECT IFNULL((SELECT MIN(" + RevisionColumns.ID + ") FROM "
+                + TABLE.REVISION + " WHERE " + where + " AND " + RevisionColumns.CREATED_DATE
+                + ">=" + expired + "),(SELECT MAX(" + RevisionColumns.ID + ") FROM "
+                + TABLE.REVISION + " WHERE " + where + "))", null);
+        try {
+            if (cursor.moveToFirst()) {
+                keepFrom = Math.max(keepFrom, cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Cursor oldest = db.query(TABLE.REVISION, new String[] {
+                NotesDatabaseHelper.REVISION_KIND }, RevisionColumns.ID + "=" + keepFrom, null,
+                null, null, null);
+        try {
+            if (oldest.moveToFirst() && oldest.getInt(0) == KIND_DELTA) {
+                String content = getContent(db, keepFrom);
+                if (content == null) {
+                    Log.e(TAG, "Could not rebuild revision " + keepFrom + " of note " + noteId);
+                    return;
+                }
+                ContentValues values = new ContentValues();
+                values.put(NotesDatabaseHelper.REVISION_KIND, KIND_SNAPSHOT);
+                ContentCodec.putEncoded(values, NotesDatabaseHelper.REVISION_PAYLOAD, content);
+                db.update(TABLE.REVISION, values, RevisionColumns.ID + "=" + keepFrom, null);
+            }
+        } finally {
+            oldest.close();
+        }
+        db.delete(TABLE.REVISION, where + " AND " + RevisionColumns.ID + "<" + keepFrom, null);
+    }
+
+    private static long insertSnapshot(SQLiteDatabase db, long noteId, String content,
+            long now) {
+        ContentValues values = new ContentValues();
+        values.put(RevisionColumns.NOTE_ID, noteId);
+        values.put(RevisionColumns.CREATED_DATE, now);
+        values.put(RevisionColumns.LENGTH, content.length());
+        values.put(NotesDatabaseHelper.REVISION_KIND, KIND_SNAPSHOT);
+        ContentCodec.putEncoded(values, NotesDatabaseHelper.REVISION_PAYLOAD, content);
+        values.put(NotesDatabaseHelper.REVISION_HASH, hash(content));
+        return db.insert(TABLE.REVISION, null, values);
+    }
+
+    /**
+     * The 64-bit FNV-1a hash of the chars of the text. It tells whether the text before a
+     * write is the latest revision, a text of the same length is not enough.
+     */
+    static long hash(String content) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length(); i++) {
+            hash ^= content.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiled statements of the single row inserts and the updates by id, which are run
+ * thousands of times by the sync and the auto save. The statements are keyed by the table and
+ * the columns written, and dropped when the database is reopened or its schema changes.
+ *
+ * A statement could not be bound and executed by two threads at the same time, so each thread
+ * compiles its own statements. No lock is held while a statement runs: a thread in a batch
+ * holds the connection of the database and must never wait for a thread which waits for it.
+ */
+class StatementCache {
+    private static final String TAG = "StatementCache";
+
+    private static final int MAX_SIZE = 16;
+
+    private final NotesDatabaseHelper mHelper;
+
+    private final ThreadLocal<Statements> mStatements = new ThreadLocal<Statements>() {
+        @Override
+        protected Statements initialValue() {
+            return new Statements();
+        }
+    };
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    /**
+     * The statements compiled by one thread, for the database they were compiled on
+     */
+    private static class Statements extends LinkedHashMap<String, SQLiteStatement> {
+        SQLiteDatabase database;
+
+        int schemaGeneration;
+
+        Statements() {
+            super(MAX_SIZE, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+            if (size() > MAX_SIZE) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+
+        void closeAll() {
+            for (SQLiteStatement statement : values()) {
+                statement.close();
+            }
+            clear();
+            database = null;
+        }
+    }
+
+    StatementCache(NotesDatabaseHelper helper) {
+        mHelper = helper;
+    }
+
+    /**
+     * Insert a row like {@link SQLiteDatabase#insert}, returns the row id, or -1 if an error
+     * occurred
+     */
+    long insert(SQLiteDatabase db, String table, ContentValues values) {
+        String[] columns = getColumns(values);
+        String key = "I" + table + Arrays.toString(columns);
+        SQLiteStatement statement = get(db, key);
+        if (statement == null) {
+            statement = put(db, key, buildInsert(table, columns));
+        }
+
+        try {
+            bindValues(statement, columns, values);
+            return statement.executeInsert();
+        } catch (SQLException e) {
+            Log.e(TAG, "Error inserting " + values + ": " + e.toString());
+            return -1;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Update the row with given id, the extra assignment such as "version=version+1" is
+     * appended after the columns of values. Returns the count of rows updated.
+     */
+    int updateById(SQLiteDatabase db, String table, ContentValues values,
+            String extraAssignment, long id) {
+        if (values == null || values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+
+        String[] columns = getColumns(values);
+        String key = "U" + table + Arrays.toString(columns) + extraAssignment;
+        SQLiteStatement statement = get(db, key);
+        if (statement == null) {
+            statement = put(db, key, buildUpdate(table, columns, extraAssignment));
+        }
+
+        try {
+            bindValues(statement, columns, values);
+            statement.bindLong(columns.length + 1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Close the statements of the calling thread, they will be compiled again on next use. The
+     * statements of the other threads are dropped by them once the database is reopened.
+     */
+    void clear() {
+        mStatements.get().closeAll();
+    }
+
+    int getHitCount() {
+        return mHitCount.get();
+    }
+
+    int getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Get the statement of the calling thread, null if it has not been compiled for this
+     * database and schema
+     */
+    private SQLiteStatement get(SQLiteDatabase db, String key) {
+        Statements statements = mStatements.get();
+        if (statements.database != db
+                || statements.schemaGeneration != mHelper.getSchemaGeneration()) {
+            statements.closeAll();
+            statements.database = db;
+            statements.schemaGeneration = mHelper.getSchemaGeneration();
+            return null;
+        }
+        SQLiteStatement statement = statements.get(key);
+        if (statement != null) {
+            mHitCount.incrementAndGet();
+        }
+        return statement;
+    }
+
+    private SQLiteStatement put(SQLiteDatabase db, String key, String sql) {
+        mMissCount.incrementAndGet();
+        SQLiteStatement statement = db.compileStatement(sql);
+        mStatements.get().put(key, statement);
+        return statement;
+    }
+
+    private static String[] getColumns(ContentValues values) {
+        String[] columns = values == null ? new String[0]
+                : values.keySet().toArray(new String[values.size()]);
+        // the order of keys in content values is not defined
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    private static void bindValues(SQLiteStatement statement, String[] columns,
+            ContentValues values) {
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+        }
+    }
+
+    private static String buildInsert(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("INSERT INTO ");
+        sql.append(table);
+        if (columns.length == 0) {
+            sql.append(" DEFAULT VALUES");
+            return sql.toString();
+        }
+        sql.append("(");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "");
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES(");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(")");
+        return sql.toString();
+    }
+
+    private static String buildUpdate(String table, String[] columns, String extraAssignment) {
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE ");
+        sql.append(table);
+        sql.append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "");
+            sql.append(columns[i]);
+            sql.append("=?");
+        }
+        if (extraAssignment != null) {
+            sql.append(",");
+            sql.append(extraAssignment);
+        }
+        sql.append(" WHERE _id=?");
+        return sql.toString();
+    }
+}
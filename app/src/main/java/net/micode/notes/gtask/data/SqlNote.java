@@ -26,6 +26,7 @@ import android.util.Log;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.tool.GTaskStringUtils;
@@ -204,9 +205,11 @@ public class SqlNote {
         Cursor c = null;
         mDataList.clear();
         try {
+            // the check list items are rebuilt from the text by the provider, only the text
+            // is synced
             c = mContentResolver.query(Notes.CONTENT_DATA_URI, SqlData.PROJECTION_DATA,
-                    "(note_id=?)", new String[] {
-                        String.valueOf(mId)
+                    "(note_id=? AND " + DataColumns.MIME_TYPE + "<>?)", new String[] {
+                        String.valueOf(mId), DataConstants.CHECK_LIST_ITEM
                     }, null);
             if (c != null) {
                 if (c.getCount() == 0) {
@@ -333,6 +336,11 @@ public class SqlNote {
 
                 for (int i = 0; i < dataArray.length(); i++) {
                     JSONObject data = dataArray.getJSONObject(i);
+                    // items uploaded by an older version, the text carries them
+                    if (DataConstants.CHECK_LIST_ITEM.equals(
+                            data.optString(DataColumns.MIME_TYPE))) {
+                        continue;
+                    }
                     SqlData sqlData = null;
                     if (data.has(DataColumns.ID)) {
                         long dataId = data.getLong(DataColumns.ID);
@@ -163,6 +163,14 @@ public class GTaskManager {
             mGidToNid.clear();
             mNidToGid.clear();
             mSyncing = false;
+            // the sync may have written a lot, do not leave it in the write-ahead log. A
+            // failed checkpoint is retried by the next one and must not change the result.
+            try {
+                mContentResolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_CHECKPOINT, null,
+                        null);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Checkpoint failed " + e.toString());
+            }
         }
 
         return mCancelled ? STATE_SYNC_CANCELLED : STATE_SUCCESS;
@@ -759,9 +767,11 @@ public class GTaskManager {
 
         Cursor c = null;
         try {
+            // "type IN" instead of "type<>" so the query could be answered by the type index
             c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
-                    "(type<>? AND parent_id<>?)", new String[] {
-                            String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
+                    "(type IN (?,?) AND parent_id<>?)", new String[] {
+                            String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.TYPE_FOLDER),
+                            String.valueOf(Notes.ID_TRASH_FOLER)
                     }, NoteColumns.TYPE + " DESC");
             if (c != null) {
                 while (c.moveToNext()) {
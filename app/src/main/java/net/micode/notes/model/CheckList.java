@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.model;
+
+import android.content.ContentValues;
+import android.text.TextUtils;
+
+import net.micode.notes.data.Notes.CheckListItem;
+import net.micode.notes.tool.CheckListText;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The items of a note in check list mode, in the order of their
+ * {@link CheckListItem#POSITION}. The items are edited in place, and {@link #update} takes the
+ * new order of the items and hands only the changed ones to the {@link Note}.
+ */
+public class CheckList {
+    private final ArrayList<Item> mItems = new ArrayList<Item>();
+
+    public static class Item {
+        private final String mKey;
+
+        private long mPosition;
+
+        private boolean mChecked;
+
+        private String mContent;
+
+        private boolean mModified;
+
+        /**
+         * A new item, which has no position until it is put into the list
+         */
+        public Item(boolean checked, String content) {
+            this(UUID.randomUUID().toString(), 0, checked, content);
+            mModified = true;
+        }
+
+        Item(String key, long position, boolean checked, String content) {
+            mKey = key;
+            mPosition = position;
+            mChecked = checked;
+            mContent = content == null ? "" : content;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public boolean isChecked() {
+            return mChecked;
+        }
+
+        public String getContent() {
+            return mContent;
+        }
+
+        public void setChecked(boolean checked) {
+            if (mChecked != checked) {
+                mChecked = checked;
+                mModified = true;
+            }
+        }
+
+        public void setContent(String content) {
+            if (!TextUtils.equals(mContent, content)) {
+                mContent = content;
+                mModified = true;
+            }
+        }
+
+        ContentValues toValues() {
+            ContentValues values = new ContentValues();
+            values.put(CheckListItem.ITEM_KEY, mKey);
+            values.put(CheckListItem.POSITION, mPosition);
+            values.put(CheckListItem.CHECKED, mChecked ? 1 : 0);
+            values.put(CheckListItem.CONTENT, mContent);
+            return values;
+        }
+    }
+
+    /**
+     * Items parsed from the text of a note, all of them are new
+     */
+    static CheckList fromText(String text) {
+        CheckList list = new CheckList();
+        long position = 0;
+        for (CheckListText.Line line : CheckListText.parse(text)) {
+            Item item = new Item(line.checked, line.content);
+            position += CheckListItem.POSITION_GAP;
+            item.mPosition = position;
+            list.mItems.add(item);
+        }
+        return list;
+    }
+
+    /**
+     * Add an item loaded from the database after the others
+     */
+    void load(String key, long position, boolean checked, String content) {
+        mItems.add(new Item(key, position, checked, content));
+    }
+
+    CheckList copy() {
+        CheckList copy = new CheckList();
+        for (Item item : mItems) {
+            copy.mItems.add(new Item(item.mKey, item.mPosition, item.mChecked, item.mContent));
+        }
+        return copy;
+    }
+
+    public List<Item> getItems() {
+        return Collections.unmodifiableList(mItems);
+    }
+
+    public boolean isEmpty() {
+        return mItems.isEmpty();
+    }
+
+    boolean hasChecked() {
+        for (Item item : mItems) {
+            if (item.mChecked) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replace the items with the given ones in their order. Positions are assigned to the
+     * new and moved items only, an item keeps its position while it is still after the
+     * previous one. The changed items are set into the note and the removed ones deleted.
+     *
+     * @return true if any item has changed
+     */
+    boolean update(List<Item> items, Note note) {
+        boolean changed = false;
+        HashSet<String> keys = new HashSet<String>();
+        for (Item item : items) {
+            keys.add(item.mKey);
+        }
+        for (Item item : mItems) {
+            if (!keys.contains(item.mKey)) {
+                note.deleteCheckListItem(item.mKey);
+                changed = true;
+            }
+        }
+
+        long previous = 0;
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (item.mPosition <= previous) {
+                placeItems(items, i, previous);
+            }
+            previous = item.mPosition;
+        }
+
+        for (Item item : items) {
+            if (item.mModified) {
+                note.setCheckListItem(item.mKey, item.toValues());
+                item.mModified = false;
+                changed = true;
+            }
+        }
+        mItems.clear();
+        mItems.addAll(items);
+        return changed;
+    }
+
+    /**
+     * Hand all the items to the note again, e.g. the items just parsed from the text
+     */
+    void flush(Note note) {
+        for (Item item : mItems) {
+            note.setCheckListItem(item.mKey, item.toValues());
+            item.mModified = false;
+        }
+    }
+
+    /**
+     * Delete all the items from the note and clear the list
+     */
+    void clear(Note note) {
+        for (Item item : mItems) {
+            note.deleteCheckListItem(item.mKey);
+        }
+        mItems.clear();
+    }
+
+    /**
+     * Place the items from the index up to the next one which is still after the previous
+     * position, evenly between them if there is room, otherwise {@link CheckListItem#POSITION_GAP}
+     * apart which may push the items after them out of place too
+     */
+    private static void placeItems(List<Item> items, int from, long previous) {
+        int to = from;
+        while (to < items.size() && items.get(to).mPosition <= previous) {
+            to++;
+        }
+        int count = to - from;
+        long next = to < items.size() ? items.get(to).mPosition : Long.MAX_VALUE;
+        long step = next == Long.MAX_VALUE ? CheckListItem.POSITION_GAP
+                : (next - previous) / (count + 1);
+        if (step == 0) {
+            step = CheckListItem.POSITION_GAP;
+        }
+        for (int i = from; i < to; i++) {
+            Item item = items.get(i);
+            previous += step;
+            item.mPosition = previous;
+            item.mModified = true;
+        }
+    }
+
+    /**
+     * The text as the database rebuilds it from the items
+     */
+    String toText() {
+        StringBuilder sb = new StringBuilder();
+        for (Item item : mItems) {
+            CheckListText.appendLine(sb, item.mChecked, item.mContent);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The content of the items one line each, without the check marks
+     */
+    String toPlainText() {
+        StringBuilder sb = new StringBuilder();
+        for (Item item : mItems) {
+            sb.append(item.mContent).append('\n');
+        }
+        return sb.toString();
+    }
+}
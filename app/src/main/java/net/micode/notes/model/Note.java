@@ -21,17 +21,23 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.RemoteException;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.CallNote;
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.Notes.TextNote;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 
 public class Note {
@@ -92,6 +98,10 @@ public class Note {
         mNoteData.setCallDataId(id);
     }
 
+    public long getCallDataId() {
+        return mNoteData.mCallDataId;
+    }
+
     public void setCallData(String key, String value) {
         mNoteData.setCallData(key, value);
     }
@@ -108,10 +118,126 @@ public class Note {
         mNoteData.setImageData(key, value);
     }
 
+    /**
+     * Write the item of the check list, the note is not marked modified by it so that
+     * migrating the items of a note does not look like an edit
+     */
+    void setCheckListItem(String key, ContentValues values) {
+        mNoteData.mDeletedItemKeys.remove(key);
+        mNoteData.mItemValues.put(key, values);
+    }
+
+    void deleteCheckListItem(String key) {
+        mNoteData.mItemValues.remove(key);
+        mNoteData.mDeletedItemKeys.add(key);
+    }
+
     public boolean isLocalModified() {
         return mNoteDiffValues.size() > 0 || mNoteData.isLocalModified();
     }
 
+    /**
+     * Move the changes not yet synced into a new note with the same data ids, so that they
+     * could be written on another thread while this note takes new changes
+     */
+    Note takeLocalChanges() {
+        Note changes = new Note();
+        changes.mergeLocalChanges(this, true);
+        changes.adoptDataIds(this);
+        mNoteDiffValues.clear();
+        mNoteData.mTextDataValues.clear();
+        mNoteData.mCallDataValues.clear();
+        mNoteData.mImageDataValues.clear();
+        mNoteData.mItemValues.clear();
+        mNoteData.mDeletedItemKeys.clear();
+        return changes;
+    }
+
+    /**
+     * Merge the changes of the other note into this one. If replace, the values of the other
+     * note win, otherwise only the values this note does not have are taken.
+     */
+    void mergeLocalChanges(Note other, boolean replace) {
+        merge(mNoteDiffValues, other.mNoteDiffValues, replace);
+        merge(mNoteData.mTextDataValues, other.mNoteData.mTextDataValues, replace);
+        merge(mNoteData.mCallDataValues, other.mNoteData.mCallDataValues, replace);
+        merge(mNoteData.mImageDataValues, other.mNoteData.mImageDataValues, replace);
+        for (Map.Entry<String, ContentValues> entry : other.mNoteData.mItemValues.entrySet()) {
+            String key = entry.getKey();
+            if (replace || (!mNoteData.mItemValues.containsKey(key)
+                    && !mNoteData.mDeletedItemKeys.contains(key))) {
+                setCheckListItem(key, new ContentValues(entry.getValue()));
+            }
+        }
+        for (String key : other.mNoteData.mDeletedItemKeys) {
+            if (replace || !mNoteData.mItemValues.containsKey(key)) {
+                deleteCheckListItem(key);
+            }
+        }
+    }
+
+    /**
+     * Take the data ids the other note knows but this one does not, e.g. the ids of the data
+     * inserted when the other note was synced
+     */
+    void adoptDataIds(Note other) {
+        if (mNoteData.mTextDataId == 0 && other.mNoteData.mTextDataId > 0) {
+            mNoteData.setTextDataId(other.mNoteData.mTextDataId);
+        }
+        if (mNoteData.mCallDataId == 0 && other.mNoteData.mCallDataId > 0) {
+            mNoteData.setCallDataId(other.mNoteData.mCallDataId);
+        }
+        if (mNoteData.mImageDataId == 0 && other.mNoteData.mImageDataId > 0) {
+            mNoteData.setImageDataId(other.mNoteData.mImageDataId);
+        }
+    }
+
+    /**
+     * Look up the ids of the image and call data which are changed but not known yet, e.g.
+     * because they were still being loaded when the note was saved, so that their changes
+     * update the data of the note instead of inserting another one
+     */
+    void resolveDataIds(Context context, long noteId) {
+        boolean image = mNoteData.mImageDataId == 0 && mNoteData.mImageDataValues.size() > 0;
+        boolean call = mNoteData.mCallDataId == 0 && mNoteData.mCallDataValues.size() > 0;
+        if (!image && !call) {
+            return;
+        }
+        Cursor cursor = context.getContentResolver().query(Notes.CONTENT_DATA_URI,
+                new String[] { DataColumns.ID, DataColumns.MIME_TYPE },
+                DataColumns.NOTE_ID + "=? AND " + DataColumns.MIME_TYPE + " IN (?,?)",
+                new String[] { String.valueOf(noteId), DataConstants.IMAGE_NOTE,
+                        DataConstants.CALL_NOTE }, null);
+        if (cursor == null) {
+            Log.e(TAG, "Cannot query the data of note " + noteId);
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(1);
+                if (image && DataConstants.IMAGE_NOTE.equals(type)) {
+                    mNoteData.setImageDataId(cursor.getLong(0));
+                    image = false;
+                } else if (call && DataConstants.CALL_NOTE.equals(type)) {
+                    mNoteData.setCallDataId(cursor.getLong(0));
+                    call = false;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void merge(ContentValues target, ContentValues source, boolean replace) {
+        if (replace) {
+            target.putAll(source);
+        } else {
+            ContentValues merged = new ContentValues(source);
+            merged.putAll(target);
+            target.putAll(merged);
+        }
+    }
+
     public boolean syncNote(Context context, long noteId) {
         if (noteId <= 0) {
             throw new IllegalArgumentException("Wrong note id:" + noteId);
@@ -126,7 +252,7 @@ public class Note {
          * {@link NoteColumns#MODIFIED_DATE}. For data safety, though update note fails, we also update the
          * note data info
          */
-        if (context.getContentResolver().update(
+        if (mNoteDiffValues.size() > 0 && context.getContentResolver().update(
                 ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), mNoteDiffValues, null,
                 null) == 0) {
             Log.e(TAG, "Update note error, should not happen");
@@ -155,19 +281,29 @@ public class Note {
         
         private ContentValues mImageDataValues;
 
+        /**
+         * The changed items of the check list by key, in the order they changed
+         */
+        private LinkedHashMap<String, ContentValues> mItemValues;
+
+        private LinkedHashSet<String> mDeletedItemKeys;
+
         private static final String TAG = "NoteData";
 
         public NoteData() {
             mTextDataValues = new ContentValues();
             mCallDataValues = new ContentValues();
             mImageDataValues = new ContentValues();
+            mItemValues = new LinkedHashMap<String, ContentValues>();
+            mDeletedItemKeys = new LinkedHashSet<String>();
             mTextDataId = 0;
             mCallDataId = 0;
             mImageDataId = 0;
         }
 
         boolean isLocalModified() {
-            return mTextDataValues.size() > 0 || mCallDataValues.size() > 0 || mImageDataValues.size() > 0;
+            return mTextDataValues.size() > 0 || mCallDataValues.size() > 0 || mImageDataValues.size() > 0
+                    || mItemValues.size() > 0 || mDeletedItemKeys.size() > 0;
         }
 
         void setTextDataId(long id) {
@@ -218,83 +354,38 @@ public class Note {
             }
 
             ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
-            ContentProviderOperation.Builder builder = null;
-
-            if(mTextDataValues.size() > 0) {
-                mTextDataValues.put(DataColumns.NOTE_ID, noteId);
-                if (mTextDataId == 0) {
-                    mTextDataValues.put(DataColumns.MIME_TYPE, TextNote.CONTENT_ITEM_TYPE);
-                    Uri uri = context.getContentResolver().insert(Notes.CONTENT_DATA_URI,
-                            mTextDataValues);
-                    try {
-                        setTextDataId(Long.valueOf(uri.getPathSegments().get(1)));
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "Get note text data id error :" + e.toString());
-                        return null;
-                    }
-                } else {
-                    if (context.getContentResolver().update(
-                            ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, mTextDataId),
-                            mTextDataValues, null, null) == 0) {
-                        Log.e(TAG, "Update text data error, should not happen");
-                        return null;
-                    }
-                }
-                mTextDataValues.clear();
-            }
+            int textIndex = addDataOperation(operationList, noteId, mTextDataId, mTextDataValues,
+                    TextNote.CONTENT_ITEM_TYPE);
+            int callIndex = addDataOperation(operationList, noteId, mCallDataId, mCallDataValues,
+                    CallNote.CONTENT_ITEM_TYPE);
+            int imageIndex = addDataOperation(operationList, noteId, mImageDataId, mImageDataValues,
+                    Notes.DataConstants.IMAGE_NOTE);
+            // after the text, whose mode decides whether the items rebuild it
+            addCheckListOperations(operationList, noteId);
 
-            if(mCallDataValues.size() > 0) {
-                mCallDataValues.put(DataColumns.NOTE_ID, noteId);
-                if (mCallDataId == 0) {
-                    mCallDataValues.put(DataColumns.MIME_TYPE, CallNote.CONTENT_ITEM_TYPE);
-                    Uri uri = context.getContentResolver().insert(Notes.CONTENT_DATA_URI,
-                            mCallDataValues);
-                    try {
-                        setCallDataId(Long.valueOf(uri.getPathSegments().get(1)));
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "Get note call data id error :" + e.toString());
+            if (operationList.size() > 0) {
+                /**
+                 * All the data of the note is written in one transaction of the provider, an
+                 * update which matches no row fails the whole batch
+                 */
+                try {
+                    ContentProviderResult[] results = context.getContentResolver().applyBatch(
+                            Notes.AUTHORITY, operationList);
+                    if (results == null || results.length == 0 || results[0] == null) {
                         return null;
                     }
-                } else {
-                    if (context.getContentResolver().update(
-                            ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, mCallDataId),
-                            mCallDataValues, null, null) == 0) {
-                        Log.e(TAG, "Update call data error, should not happen");
-                        return null;
+                    if (textIndex >= 0) {
+                        setTextDataId(ContentUris.parseId(results[textIndex].uri));
                     }
-                }
-                mCallDataValues.clear();
-            }
-            
-            if(mImageDataValues.size() > 0) {
-                mImageDataValues.put(DataColumns.NOTE_ID, noteId);
-                if (mImageDataId == 0) {
-                    mImageDataValues.put(DataColumns.MIME_TYPE, Notes.DataConstants.IMAGE_NOTE);
-                    Uri uri = context.getContentResolver().insert(Notes.CONTENT_DATA_URI,
-                            mImageDataValues);
-                    try {
-                        setImageDataId(Long.valueOf(uri.getPathSegments().get(1)));
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "Get note image data id error :" + e.toString());
-                        return null;
+                    if (callIndex >= 0) {
+                        setCallDataId(ContentUris.parseId(results[callIndex].uri));
                     }
-                } else {
-                    if (context.getContentResolver().update(
-                            ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, mImageDataId),
-                            mImageDataValues, null, null) == 0) {
-                        Log.e(TAG, "Update image data error, should not happen");
-                        return null;
+                    if (imageIndex >= 0) {
+                        setImageDataId(ContentUris.parseId(results[imageIndex].uri));
                     }
-                }
-                mImageDataValues.clear();
-            }
-
-            if (operationList.size() > 0) {
-                try {
-                    ContentProviderResult[] results = context.getContentResolver().applyBatch(
-                            Notes.AUTHORITY, operationList);
-                    return (results == null || results.length == 0 || results[0] == null) ? null
-                            : ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId);
+                } catch (NumberFormatException e) {
+                    Log.e(TAG, "Get note data id error :" + e.toString());
+                    return null;
                 } catch (RemoteException e) {
                     Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
                     return null;
@@ -302,8 +393,57 @@ public class Note {
                     Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
                     return null;
                 }
+                mTextDataValues.clear();
+                mCallDataValues.clear();
+                mImageDataValues.clear();
+                mItemValues.clear();
+                mDeletedItemKeys.clear();
             }
             return ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId);
         }
+
+        /**
+         * Add an insert for each changed item, which the provider turns into an update of the
+         * item with the same key, and a delete for each removed item
+         */
+        private void addCheckListOperations(ArrayList<ContentProviderOperation> operationList,
+                long noteId) {
+            for (String key : mDeletedItemKeys) {
+                operationList.add(ContentProviderOperation.newDelete(Notes.CONTENT_DATA_URI)
+                        .withSelection(DataColumns.NOTE_ID + "=" + noteId + " AND "
+                                + DataColumns.MIME_TYPE + "=? AND " + CheckListItem.ITEM_KEY
+                                + "=?", new String[] { DataConstants.CHECK_LIST_ITEM, key })
+                        .build());
+            }
+            for (ContentValues values : mItemValues.values()) {
+                values.put(DataColumns.NOTE_ID, noteId);
+                values.put(DataColumns.MIME_TYPE, DataConstants.CHECK_LIST_ITEM);
+                operationList.add(ContentProviderOperation.newInsert(Notes.CONTENT_DATA_URI)
+                        .withValues(values).build());
+            }
+        }
+
+        /**
+         * Add the insert or update operation of the modified data, returns the index of the
+         * operation if it inserts a new data, otherwise returns -1
+         */
+        private int addDataOperation(ArrayList<ContentProviderOperation> operationList,
+                long noteId, long dataId, ContentValues values, String mimeType) {
+            if (values.size() == 0) {
+                return -1;
+            }
+
+            values.put(DataColumns.NOTE_ID, noteId);
+            if (dataId == 0) {
+                values.put(DataColumns.MIME_TYPE, mimeType);
+                operationList.add(ContentProviderOperation.newInsert(Notes.CONTENT_DATA_URI)
+                        .withValues(values).build());
+                return operationList.size() - 1;
+            }
+            operationList.add(ContentProviderOperation
+                    .newUpdate(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId))
+                    .withValues(values).withExpectedCount(1).build());
+            return -1;
+        }
     }
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.model;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Writes the changes of a note in the background. The changes submitted before a write starts
+ * are merged, so only the latest value of each column is written. All the notes are written
+ * by one thread, so the writes of a note never run concurrently and keep their order. The
+ * thread lives as long as the process, a write goes on after the editor has stopped, and a
+ * failed write is retried.
+ */
+class NoteSaver {
+    private static final String TAG = "NoteSaver";
+
+    private static Handler sHandler;
+
+    private static final long RETRY_DELAY = 1000;
+
+    private static final int MAX_RETRIES = 5;
+
+    /**
+     * Savers of the notes which have changes not yet written, one for each note so that the
+     * data ids learned by a write are used by the next one
+     */
+    private static final HashMap<Long, NoteSaver> sSavers = new HashMap<Long, NoteSaver>();
+
+    private final Context mContext;
+
+    /**
+     * 0 until the first write creates the note
+     */
+    private volatile long mNoteId;
+
+    private final long mFolderId;
+
+    /**
+     * The merged changes waiting to be written, with the data ids of the note
+     */
+    private final Note mPending = new Note();
+
+    private int mSubmitted;
+
+    private int mWritten;
+
+    private int mFailed;
+
+    private Runnable mWrittenCallback;
+
+    /**
+     * Held while the note is created, by a write or by a caller which needs the id right away
+     */
+    private final Object mCreateLock = new Object();
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        public void run() {
+            write();
+        }
+    };
+
+    private NoteSaver(Context context, long noteId, long folderId) {
+        mContext = context;
+        mNoteId = noteId;
+        mFolderId = folderId;
+    }
+
+    /**
+     * Get the saver of the note, the data ids of the given note are used unless the saver
+     * already knows them
+     */
+    static NoteSaver getInstance(Context context, long noteId, Note note) {
+        synchronized (sSavers) {
+            NoteSaver saver = sSavers.get(noteId);
+            if (saver == null) {
+                saver = new NoteSaver(context.getApplicationContext(), noteId, 0);
+                sSavers.put(noteId, saver);
+            }
+            synchronized (saver) {
+                saver.mPending.adoptDataIds(note);
+            }
+            return saver;
+        }
+    }
+
+    /**
+     * Get a saver for a note not in database yet, the note is created in the folder by the
+     * first write so the caller does not wait for its id
+     */
+    static NoteSaver newInstance(Context context, long folderId) {
+        return new NoteSaver(context.getApplicationContext(), 0, folderId);
+    }
+
+    /**
+     * The id of the note, 0 if the note has not been created yet
+     */
+    long getNoteId() {
+        return mNoteId;
+    }
+
+    /**
+     * The handler of the thread all the notes are written on, also used to read the parts of
+     * a note which are loaded in background so that they are read in order with the writes
+     */
+    static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            HandlerThread thread = new HandlerThread("NoteSaver",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sHandler = new Handler(thread.getLooper());
+        }
+        return sHandler;
+    }
+
+    /**
+     * Merge the changes into the pending ones and write them after the delay, a submit before
+     * the write postpones it
+     *
+     * @param writtenCallback run on the main thread after the changes are written
+     */
+    synchronized void submit(Note changes, long delay, Runnable writtenCallback) {
+        mPending.mergeLocalChanges(changes, true);
+        mPending.adoptDataIds(changes);
+        mSubmitted++;
+        if (writtenCallback != null) {
+            mWrittenCallback = writtenCallback;
+        }
+        Handler handler = getHandler();
+        handler.removeCallbacks(mWriteRunnable);
+        handler.postDelayed(mWriteRunnable, delay);
+    }
+
+    /**
+     * Write the pending changes now and wait for them at most the timeout
+     *
+     * @return true if all the submitted changes have been written successfully
+     */
+    boolean flush(long timeout) {
+        Handler handler = getHandler();
+        if (Looper.myLooper() == handler.getLooper()) {
+            write();
+            synchronized (this) {
+                return mFailed == 0;
+            }
+        }
+
+        synchronized (this) {
+            if (mWritten == mSubmitted) {
+                return mFailed == 0;
+            }
+            handler.removeCallbacks(mWriteRunnable);
+            handler.postAtFrontOfQueue(mWriteRunnable);
+
+            long deadline = SystemClock.uptimeMillis() + timeout;
+            long remaining = timeout;
+            while (mWritten != mSubmitted && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - SystemClock.uptimeMillis();
+            }
+            return mWritten == mSubmitted && mFailed == 0;
+        }
+    }
+
+    synchronized boolean hasPendingChanges() {
+        return mWritten != mSubmitted;
+    }
+
+    private void write() {
+        Note changes;
+        int submitted;
+        Runnable callback;
+        synchronized (this) {
+            if (mWritten == mSubmitted) {
+                return;
+            }
+            changes = mPending.takeLocalChanges();
+            submitted = mSubmitted;
+            callback = mWrittenCallback;
+            mWrittenCallback = null;
+        }
+
+        boolean success = createNote();
+        if (success) {
+            changes.resolveDataIds(mContext, mNoteId);
+            success = changes.syncNote(mContext, mNoteId);
+        }
+        if (mNoteId > 0) {
+            NoteStateCache.getInstance(mContext).remove(mNoteId);
+        }
+
+        synchronized (this) {
+            mPending.adoptDataIds(changes);
+            if (success) {
+                mFailed = 0;
+            } else {
+                // keep the failed changes for the next write, under any newer ones
+                Log.e(TAG, "Write note " + mNoteId + " failed");
+                mPending.mergeLocalChanges(changes, false);
+                if (mWrittenCallback == null) {
+                    mWrittenCallback = callback;
+                }
+                callback = null;
+                mFailed++;
+            }
+            mWritten = submitted;
+            // a submit during the write has already posted the next one
+            if (!success && mWritten == mSubmitted && mFailed <= MAX_RETRIES) {
+                mSubmitted++;
+                getHandler().postDelayed(mWriteRunnable, RETRY_DELAY << (mFailed - 1));
+            }
+            notifyAll();
+        }
+
+        synchronized (sSavers) {
+            synchronized (this) {
+                if (mWritten == mSubmitted && !mPending.isLocalModified()) {
+                    sSavers.remove(mNoteId);
+                }
+            }
+        }
+
+        if (callback != null) {
+            new Handler(Looper.getMainLooper()).post(callback);
+        }
+    }
+
+    /**
+     * Create the note if it is not in database yet. Only the row of the note is inserted, the
+     * pending changes are written by the next write.
+     *
+     * @return false if the note could not be created
+     */
+    boolean createNote() {
+        synchronized (mCreateLock) {
+            if (mNoteId > 0) {
+                return true;
+            }
+            long noteId = Note.getNewNoteId(mContext, mFolderId);
+            if (noteId <= 0) {
+                Log.e(TAG, "Create new note fail with id:" + noteId);
+                return false;
+            }
+            synchronized (sSavers) {
+                mNoteId = noteId;
+                sSavers.put(noteId, this);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.model;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import net.micode.notes.data.Notes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the recently loaded notes, so that reopening a note which has not changed does not
+ * query the database. Entries are dropped when the provider notifies a change of the note,
+ * and an entry is only replaced by a state of the same or a newer
+ * {@link Notes.NoteColumns#VERSION}.
+ */
+class NoteStateCache {
+    private static final int MAX_ENTRIES = 16;
+
+    /**
+     * Notes with longer content are not cached, they would hold too much memory
+     */
+    private static final int MAX_CONTENT_LENGTH = 256 * 1024;
+
+    private static NoteStateCache sInstance;
+
+    private final LinkedHashMap<Long, State> mStates =
+            new LinkedHashMap<Long, State>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, State> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Increased on every invalidation, a state loaded before an invalidation may be stale
+     * and is not cached
+     */
+    private int mGeneration;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    private long mHitNanos;
+
+    private long mMissNanos;
+
+    /**
+     * The state of a note as loaded by {@link WorkingNote}
+     */
+    static class State {
+        long version;
+        long folderId;
+        int bgColorId;
+        int widgetId;
+        int widgetType;
+        long alertDate;
+        long modifiedDate;
+        String content;
+        int mode;
+        String imagePath;
+        CheckList checkList;
+        long textDataId;
+        long callDataId;
+        long imageDataId;
+        // false if the image and call data are still being loaded
+        boolean attachmentsLoaded;
+    }
+
+    private NoteStateCache(Context context) {
+        context.getContentResolver().registerContentObserver(Notes.CONTENT_NOTE_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        invalidate(uri);
+                    }
+                });
+    }
+
+    static synchronized NoteStateCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NoteStateCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    synchronized State get(long noteId) {
+        return mStates.get(noteId);
+    }
+
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the state loaded from the database, unless it has been invalidated since the
+     * given generation
+     */
+    synchronized void put(long noteId, State state, int generation) {
+        if (generation != mGeneration
+                || (state.content != null && state.content.length() > MAX_CONTENT_LENGTH)) {
+            return;
+        }
+        State cached = mStates.get(noteId);
+        if (cached == null || cached.version <= state.version) {
+            mStates.put(noteId, state);
+        }
+    }
+
+    synchronized void remove(long noteId) {
+        mGeneration++;
+        mStates.remove(noteId);
+    }
+
+    /**
+     * Drop the notes changed at the uri, any uri other than a single note drops all
+     */
+    synchronized void invalidate(Uri uri) {
+        mGeneration++;
+        if (uri != null && uri.getPathSegments().size() == 2
+                && Notes.CONTENT_NOTE_URI.getPathSegments().get(0).equals(
+                        uri.getPathSegments().get(0))) {
+            mStates.remove(ContentUris.parseId(uri));
+        } else {
+            mStates.clear();
+        }
+    }
+
+    synchronized void recordLoad(boolean hit, long nanos) {
+        if (hit) {
+            mHitCount++;
+            mHitNanos += nanos;
+        } else {
+            mMissCount++;
+            mMissNanos += nanos;
+        }
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized float getHitRate() {
+        int total = mHitCount + mMissCount;
+        return total == 0 ? 0 : (float) mHitCount / total;
+    }
+
+    synchronized long getAverageHitNanos() {
+        return mHitCount == 0 ? 0 : mHitNanos / mHitCount;
+    }
+
+    synchronized long getAverageMissNanos() {
+        return mMissCount == 0 ? 0 : mMissNanos / mMissCount;
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mStates.clear();
+        mHitCount = 0;
+        mMissCount = 0;
+        mHitNanos = 0;
+        mMissNanos = 0;
+    }
+}
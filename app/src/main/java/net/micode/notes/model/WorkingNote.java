@@ -20,17 +20,23 @@ import android.appwidget.AppWidgetManager;
 import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.CallNote;
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.Notes.TextNote;
 import net.micode.notes.tool.ResourceParser.NoteBgResources;
 
+import java.util.List;
+
 
 public class WorkingNote {
     // Note for the working note
@@ -43,11 +49,21 @@ public class WorkingNote {
     private int mMode;
     // Note image path
     private String mImagePath;
+    // Items of the note in check list mode
+    private CheckList mCheckList;
+    // Ids of the image and call data, known once the attachments are loaded
+    private long mImageDataId;
+
+    private long mCallDataId;
+
+    private boolean mAttachmentsLoaded;
 
     private long mAlertDate;
 
     private long mModifiedDate;
 
+    private long mVersion;
+
     private int mBgColorId;
 
     private int mWidgetId;
@@ -64,6 +80,16 @@ public class WorkingNote {
 
     private NoteSettingChangedListener mNoteSettingStatusListener;
 
+    /**
+     * Set by the first save, which creates the note in background if it is new
+     */
+    private volatile NoteSaver mSaver;
+
+    /**
+     * The longest time to wait for a save in background to finish
+     */
+    private static final long SAVE_TIMEOUT = 3000;
+
     public static final String[] DATA_PROJECTION = new String[] {
             DataColumns.ID,
             DataColumns.CONTENT,
@@ -80,7 +106,8 @@ public class WorkingNote {
             NoteColumns.BG_COLOR_ID,
             NoteColumns.WIDGET_ID,
             NoteColumns.WIDGET_TYPE,
-            NoteColumns.MODIFIED_DATE
+            NoteColumns.MODIFIED_DATE,
+            NoteColumns.VERSION
     };
 
     private static final int DATA_ID_COLUMN = 0;
@@ -91,6 +118,12 @@ public class WorkingNote {
 
     private static final int DATA_MODE_COLUMN = 3;
 
+    private static final int DATA_CHECKED_COLUMN = 3;
+
+    private static final int DATA_POSITION_COLUMN = 4;
+
+    private static final int DATA_ITEM_KEY_COLUMN = 5;
+
     private static final int NOTE_PARENT_ID_COLUMN = 0;
 
     private static final int NOTE_ALERTED_DATE_COLUMN = 1;
@@ -103,6 +136,20 @@ public class WorkingNote {
 
     private static final int NOTE_MODIFIED_DATE_COLUMN = 5;
 
+    private static final int NOTE_VERSION_COLUMN = 6;
+
+    /**
+     * The data needed to draw the editor, loaded before the note is returned. The other
+     * data, the image and call data, is loaded in background.
+     */
+    private static final String TEXT_DATA_SELECTION = DataColumns.NOTE_ID + "=? AND "
+            + DataColumns.MIME_TYPE + " IN ('" + DataConstants.NOTE + "','"
+            + DataConstants.CHECK_LIST_ITEM + "')";
+
+    private static final String ATTACHMENT_DATA_SELECTION = DataColumns.NOTE_ID + "=? AND "
+            + DataColumns.MIME_TYPE + " NOT IN ('" + DataConstants.NOTE + "','"
+            + DataConstants.CHECK_LIST_ITEM + "')";
+
     // New note construct
     private WorkingNote(Context context, long folderId) {
         mContext = context;
@@ -113,6 +160,8 @@ public class WorkingNote {
         mNoteId = 0;
         mIsDeleted = false;
         mMode = 0;
+        mCheckList = new CheckList();
+        mAttachmentsLoaded = true;
         mWidgetType = Notes.TYPE_WIDGET_INVALIDE;
     }
 
@@ -123,7 +172,73 @@ public class WorkingNote {
         mFolderId = folderId;
         mIsDeleted = false;
         mNote = new Note();
-        loadNote();
+        mCheckList = new CheckList();
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        NoteStateCache cache = NoteStateCache.getInstance(context);
+        NoteStateCache.State state = cache.get(noteId);
+        int generation = cache.getGeneration();
+        if (state != null) {
+            restoreState(state);
+        } else {
+            loadNote();
+            cache.put(noteId, saveState(), generation);
+        }
+        cache.recordLoad(state != null, SystemClock.elapsedRealtimeNanos() - start);
+        if (!mAttachmentsLoaded) {
+            loadAttachmentsInBackground(saveState(), generation);
+        }
+
+        // the provider syncs the items whenever the text is written, only a check list
+        // written before that without items gets its items now
+        if (mMode == TextNote.MODE_CHECK_LIST && mCheckList.isEmpty()
+                && !TextUtils.isEmpty(mContent)) {
+            mCheckList = CheckList.fromText(mContent);
+            mCheckList.flush(mNote);
+            mContent = mCheckList.toText();
+        }
+    }
+
+    private void restoreState(NoteStateCache.State state) {
+        mVersion = state.version;
+        mFolderId = state.folderId;
+        mBgColorId = state.bgColorId;
+        mWidgetId = state.widgetId;
+        mWidgetType = state.widgetType;
+        mAlertDate = state.alertDate;
+        mModifiedDate = state.modifiedDate;
+        mContent = state.content;
+        mMode = state.mode;
+        mCheckList = state.checkList.copy();
+        if (state.textDataId > 0) {
+            mNote.setTextDataId(state.textDataId);
+        }
+        mImagePath = state.imagePath;
+        mImageDataId = state.imageDataId;
+        mCallDataId = state.callDataId;
+        mAttachmentsLoaded = state.attachmentsLoaded;
+    }
+
+    private NoteStateCache.State saveState() {
+        NoteStateCache.State state = new NoteStateCache.State();
+        state.version = mVersion;
+        state.folderId = mFolderId;
+        state.bgColorId = mBgColorId;
+        state.widgetId = mWidgetId;
+        state.widgetType = mWidgetType;
+        state.alertDate = mAlertDate;
+        state.modifiedDate = mModifiedDate;
+        state.content = mContent;
+        state.mode = mMode;
+        state.checkList = mCheckList.copy();
+        state.textDataId = mNote.getTextDataId();
+        synchronized (this) {
+            state.imagePath = mImagePath;
+            state.imageDataId = mImageDataId;
+            state.callDataId = mCallDataId;
+            state.attachmentsLoaded = mAttachmentsLoaded;
+        }
+        return state;
     }
 
     private void loadNote() {
@@ -139,6 +254,7 @@ public class WorkingNote {
                 mWidgetType = cursor.getInt(NOTE_WIDGET_TYPE_COLUMN);
                 mAlertDate = cursor.getLong(NOTE_ALERTED_DATE_COLUMN);
                 mModifiedDate = cursor.getLong(NOTE_MODIFIED_DATE_COLUMN);
+                mVersion = cursor.getLong(NOTE_VERSION_COLUMN);
             }
             cursor.close();
         } else {
@@ -150,9 +266,9 @@ public class WorkingNote {
 
     private void loadNoteData() {
         Cursor cursor = mContext.getContentResolver().query(Notes.CONTENT_DATA_URI, DATA_PROJECTION,
-                DataColumns.NOTE_ID + "=?", new String[] {
+                TEXT_DATA_SELECTION, new String[] {
                     String.valueOf(mNoteId)
-                }, null);
+                }, CheckListItem.POSITION + "," + DataColumns.ID);
 
         if (cursor != null) {
             if (cursor.moveToFirst()) {
@@ -162,11 +278,11 @@ public class WorkingNote {
                         mContent = cursor.getString(DATA_CONTENT_COLUMN);
                         mMode = cursor.getInt(DATA_MODE_COLUMN);
                         mNote.setTextDataId(cursor.getLong(DATA_ID_COLUMN));
-                    } else if (DataConstants.CALL_NOTE.equals(type)) {
-                        mNote.setCallDataId(cursor.getLong(DATA_ID_COLUMN));
-                    } else if (DataConstants.IMAGE_NOTE.equals(type)) {
-                        mImagePath = cursor.getString(DATA_CONTENT_COLUMN);
-                        mNote.setImageDataId(cursor.getLong(DATA_ID_COLUMN));
+                    } else if (DataConstants.CHECK_LIST_ITEM.equals(type)) {
+                        mCheckList.load(cursor.getString(DATA_ITEM_KEY_COLUMN),
+                                cursor.getLong(DATA_POSITION_COLUMN),
+                                cursor.getInt(DATA_CHECKED_COLUMN) == 1,
+                                cursor.getString(DATA_CONTENT_COLUMN));
                     } else {
                         Log.d(TAG, "Wrong note type with type:" + type);
                     }
@@ -179,6 +295,86 @@ public class WorkingNote {
         }
     }
 
+    /**
+     * Load the image and call data on the thread of the {@link NoteSaver}, then notify the
+     * listener on the main thread. The loaded state is cached unless the note has changed
+     * since the given generation.
+     */
+    private void loadAttachmentsInBackground(final NoteStateCache.State state,
+            final int generation) {
+        NoteSaver.getHandler().post(new Runnable() {
+            public void run() {
+                String imagePath = null;
+                long imageDataId = 0;
+                long callDataId = 0;
+                Cursor cursor = mContext.getContentResolver().query(Notes.CONTENT_DATA_URI,
+                        DATA_PROJECTION, ATTACHMENT_DATA_SELECTION, new String[] {
+                            String.valueOf(mNoteId)
+                        }, null);
+                if (cursor != null) {
+                    while (cursor.moveToNext()) {
+                        String type = cursor.getString(DATA_MIME_TYPE_COLUMN);
+                        if (DataConstants.CALL_NOTE.equals(type)) {
+                            callDataId = cursor.getLong(DATA_ID_COLUMN);
+                        } else if (DataConstants.IMAGE_NOTE.equals(type)) {
+                            imagePath = cursor.getString(DATA_CONTENT_COLUMN);
+                            imageDataId = cursor.getLong(DATA_ID_COLUMN);
+                        } else {
+                            Log.d(TAG, "Wrong note type with type:" + type);
+                        }
+                    }
+                    cursor.close();
+                } else {
+                    Log.e(TAG, "No attachment data with id:" + mNoteId);
+                }
+
+                state.imagePath = imagePath;
+                state.imageDataId = imageDataId;
+                state.callDataId = callDataId;
+                state.attachmentsLoaded = true;
+                NoteStateCache.getInstance(mContext).put(mNoteId, state, generation);
+
+                synchronized (WorkingNote.this) {
+                    // an image set while loading is newer than the one in database
+                    if (mImagePath == null) {
+                        mImagePath = imagePath;
+                    }
+                    mImageDataId = imageDataId;
+                    mCallDataId = callDataId;
+                    mAttachmentsLoaded = true;
+                    WorkingNote.this.notifyAll();
+                }
+
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    public void run() {
+                        if (mNoteSettingStatusListener != null) {
+                            mNoteSettingStatusListener.onAttachmentsLoaded();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Wait at most the timeout for the image and call data to be loaded, for tests only, a
+     * save does not need them
+     */
+    synchronized boolean waitForAttachments(long timeout) {
+        long deadline = SystemClock.uptimeMillis() + timeout;
+        long remaining = timeout;
+        while (!mAttachmentsLoaded && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - SystemClock.uptimeMillis();
+        }
+        return mAttachmentsLoaded;
+    }
+
     public static WorkingNote createEmptyNote(Context context, long folderId, int widgetId,
             int widgetType, int defaultBgColorId) {
         WorkingNote note = new WorkingNote(context, folderId);
@@ -192,38 +388,117 @@ public class WorkingNote {
         return new WorkingNote(context, id, 0);
     }
 
-    public synchronized boolean saveNote() {
+    /**
+     * Save the note and wait for it to be written, only for the callers which need the note
+     * in database right now, e.g. for the id of a new note. The others should use
+     * {@link #saveNoteInBackground}.
+     */
+    public boolean saveNote() {
+        boolean saved = saveNoteInBackground(0);
+        // a new note saved in background before gets its id by the flush too
+        if (saved || (mSaver != null && !existInDatabase())) {
+            return mSaver.flush(SAVE_TIMEOUT) && saved;
+        }
+        return false;
+    }
+
+    /**
+     * Save the note in background and get its id right away, for the callers on the main
+     * thread which need the id of a new note. Only the row of a new note is inserted before
+     * returning, its content is written in background like the other changes.
+     *
+     * @return the id of the note, 0 if a new note is not worth saving or is not created
+     */
+    public long saveNoteForId() {
+        NoteSaver saver;
+        synchronized (this) {
+            saveNoteInBackground(0);
+            if (existInDatabase() || mSaver == null) {
+                return getNoteId();
+            }
+            saver = mSaver;
+        }
+        saver.createNote();
+        return getNoteId();
+    }
+
+    /**
+     * Hand the changes to the {@link NoteSaver} of the note, which writes them after the
+     * delay on its own thread. A new note is created by the first write, its id is known
+     * from {@link #getNoteId} once it is written.
+     *
+     * @return true if there are changes worth saving
+     */
+    public synchronized boolean saveNoteInBackground(long delay) {
         if (isWorthSaving()) {
-            if (!existInDatabase()) {
-                if ((mNoteId = Note.getNewNoteId(mContext, mFolderId)) == 0) {
-                    Log.e(TAG, "Create new note fail with id:" + mNoteId);
-                    return false;
-                }
+            /**
+             * The ids of the image and call data are handed over when they are loaded,
+             * otherwise the saver looks them up before writing so that their changes are not
+             * inserted as new data
+             */
+            if (mImageDataId > 0 && mNote.getImageDataId() == 0) {
+                mNote.setImageDataId(mImageDataId);
+            }
+            if (mCallDataId > 0 && mNote.getCallDataId() == 0) {
+                mNote.setCallDataId(mCallDataId);
             }
 
-            mNote.syncNote(mContext, mNoteId);
+            if (existInDatabase()) {
+                // the changes are written later, do not let the note be reopened from the cache
+                NoteStateCache.getInstance(mContext).remove(mNoteId);
+            }
+            if (mSaver == null) {
+                mSaver = existInDatabase() ? NoteSaver.getInstance(mContext, mNoteId, mNote)
+                        : NoteSaver.newInstance(mContext, mFolderId);
+            }
 
             /**
              * Update widget content if there exist any widget of this note
              */
+            Runnable widgetCallback = null;
             if (mWidgetId != AppWidgetManager.INVALID_APPWIDGET_ID
                     && mWidgetType != Notes.TYPE_WIDGET_INVALIDE
                     && mNoteSettingStatusListener != null) {
-                mNoteSettingStatusListener.onWidgetChanged();
+                final NoteSettingChangedListener listener = mNoteSettingStatusListener;
+                widgetCallback = new Runnable() {
+                    public void run() {
+                        listener.onWidgetChanged();
+                    }
+                };
             }
+            mSaver.submit(mNote.takeLocalChanges(), delay, widgetCallback);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Wait at most the timeout for the changes saved in background to be written, not to be
+     * called on the main thread
+     */
+    public boolean flushSave(long timeout) {
+        NoteSaver saver;
+        synchronized (this) {
+            saver = mSaver;
+        }
+        return saver == null || saver.flush(timeout);
+    }
+
     public boolean existInDatabase() {
-        return mNoteId > 0;
+        return getNoteId() > 0;
+    }
+
+    /**
+     * Whether the note is in database, or a new note handed to the saver which creates it
+     */
+    private boolean isInitialized() {
+        return existInDatabase() || mSaver != null;
     }
 
     private boolean isWorthSaving() {
-        if (mIsDeleted || (!existInDatabase() && TextUtils.isEmpty(mContent))
-                || (existInDatabase() && !mNote.isLocalModified())) {
+        if (mIsDeleted || (!isInitialized() && TextUtils.isEmpty(mContent))
+                || (isInitialized() && !mNote.isLocalModified())) {
             return false;
         } else {
             return true;
@@ -262,8 +537,26 @@ public class WorkingNote {
         }
     }
 
+    /**
+     * Switch between check list mode and normal mode. The items are parsed from the text when
+     * entering check list mode, and dropped when leaving it with the text kept, without the
+     * check marks if no item is checked.
+     */
     public void setCheckListMode(int mode) {
         if (mMode != mode) {
+            String content;
+            if (mode == TextNote.MODE_CHECK_LIST) {
+                mCheckList.clear(mNote);
+                mCheckList = CheckList.fromText(mContent);
+                mCheckList.flush(mNote);
+                content = mCheckList.toText();
+            } else {
+                content = mCheckList.hasChecked() ? mCheckList.toText()
+                        : mCheckList.toPlainText();
+                mCheckList.clear(mNote);
+            }
+            mContent = content;
+            mNote.setTextData(DataColumns.CONTENT, content);
             if (mNoteSettingStatusListener != null) {
                 mNoteSettingStatusListener.onCheckListModeChanged(mMode, mode);
             }
@@ -287,16 +580,34 @@ public class WorkingNote {
     }
 
     public void setWorkingText(String text) {
-        if (mNoteId == 0) {
+        if (!isInitialized()) {
             Log.e(TAG, "The note is not initialized properly");
             return;
         }
+        if (TextUtils.equals(mContent, text)) {
+            return;
+        }
         mContent = text;
         mNote.setTextData(DataColumns.CONTENT, text);
     }
 
-    public void setWorkingImage(String imagePath) {
-        if (mNoteId == 0) {
+    /**
+     * Take the items of the note in check list mode in their new order, only the changed
+     * ones are written. The text of the note is rebuilt from them by the provider.
+     */
+    public void setCheckListItems(List<CheckList.Item> items) {
+        if (!isInitialized()) {
+            Log.e(TAG, "The note is not initialized properly");
+            return;
+        }
+        if (mCheckList.update(items, mNote)) {
+            mContent = mCheckList.toText();
+            mNote.setNoteValue(NoteColumns.LOCAL_MODIFIED, String.valueOf(1));
+        }
+    }
+
+    public synchronized void setWorkingImage(String imagePath) {
+        if (!isInitialized()) {
             Log.e(TAG, "The note is not initialized properly");
             return;
         }
@@ -320,11 +631,11 @@ public class WorkingNote {
         return mContent;
     }
 
-    public String getImagePath() {
+    public synchronized String getImagePath() {
         return mImagePath;
     }
 
-    public boolean hasImage() {
+    public synchronized boolean hasImage() {
         return mImagePath != null && !mImagePath.isEmpty();
     }
 
@@ -352,7 +663,17 @@ public class WorkingNote {
         return mMode;
     }
 
+    public CheckList getCheckList() {
+        return mCheckList;
+    }
+
+    /**
+     * The id of the note, 0 until a new note has been written by its saver
+     */
     public long getNoteId() {
+        if (mNoteId == 0 && mSaver != null) {
+            mNoteId = mSaver.getNoteId();
+        }
         return mNoteId;
     }
 
@@ -390,5 +711,11 @@ public class WorkingNote {
          * @param newMode is new mode
          */
         void onCheckListModeChanged(int oldMode, int newMode);
+
+        /**
+         * Called on the main thread when the image and call data of the note loaded in
+         * background are ready
+         */
+        void onAttachmentsLoaded();
     }
 }
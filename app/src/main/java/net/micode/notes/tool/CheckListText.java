@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import net.micode.notes.data.Notes.CheckListItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The text form of a check list: one line for each item, with
+ * {@link CheckListItem#TAG_CHECKED} or {@link CheckListItem#TAG_UNCHECKED} and a space in
+ * front. It is what the database rebuilds from the items, and what notes written before the
+ * items existed are parsed from.
+ */
+public class CheckListText {
+
+    public static class Line {
+        public final boolean checked;
+
+        public final String content;
+
+        public Line(boolean checked, String content) {
+            this.checked = checked;
+            this.content = content;
+        }
+    }
+
+    private CheckListText() {
+    }
+
+    /**
+     * Split the text into items, a line without marker is an unchecked item and lines with
+     * no content are dropped
+     */
+    public static List<Line> parse(String text) {
+        ArrayList<Line> lines = new ArrayList<Line>();
+        if (text == null) {
+            return lines;
+        }
+        for (String line : text.split("\n")) {
+            boolean checked = false;
+            if (line.startsWith(CheckListItem.TAG_CHECKED)) {
+                checked = true;
+                line = line.substring(CheckListItem.TAG_CHECKED.length()).trim();
+            } else if (line.startsWith(CheckListItem.TAG_UNCHECKED)) {
+                line = line.substring(CheckListItem.TAG_UNCHECKED.length()).trim();
+            }
+            if (line.length() > 0) {
+                lines.add(new Line(checked, line));
+            }
+        }
+        return lines;
+    }
+
+    public static void appendLine(StringBuilder sb, boolean checked, CharSequence content) {
+        sb.append(checked ? CheckListItem.TAG_CHECKED : CheckListItem.TAG_UNCHECKED)
+                .append(' ').append(content).append('\n');
+    }
+}
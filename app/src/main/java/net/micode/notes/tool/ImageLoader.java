@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Loads the images of notes in background. An image is decoded sampled down to the size it
+ * is shown at, and the decoded bitmaps are kept in a cache of an eighth of the heap so that
+ * reopening a note shows its image at once.
+ */
+public class ImageLoader {
+    private static final String TAG = "ImageLoader";
+
+    private static ImageLoader sInstance;
+
+    private final LruCache<String, Bitmap> mCache;
+
+    private final Handler mHandler;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public interface OnImageLoadedListener {
+        /**
+         * Called on the main thread, with null if the image could not be decoded
+         */
+        void onImageLoaded(Bitmap bitmap);
+    }
+
+    /**
+     * A load which has not been delivered yet, it is not delivered once cancelled
+     */
+    public class Request implements Runnable {
+        private final String mPath;
+        private final int mWidth;
+        private final int mHeight;
+        private final OnImageLoadedListener mListener;
+        private volatile boolean mCancelled;
+
+        private Request(String path, int width, int height, OnImageLoadedListener listener) {
+            mPath = path;
+            mWidth = width;
+            mHeight = height;
+            mListener = listener;
+        }
+
+        public void cancel() {
+            mCancelled = true;
+            mHandler.removeCallbacks(this);
+        }
+
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap = decode(mPath, mWidth, mHeight);
+            if (bitmap != null) {
+                mCache.put(getKey(mPath, mWidth, mHeight), bitmap);
+            }
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    if (!mCancelled) {
+                        mListener.onImageLoaded(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    private ImageLoader() {
+        int maxSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+        mCache = new LruCache<String, Bitmap>(maxSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        HandlerThread thread = new HandlerThread("ImageLoader",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    public static synchronized ImageLoader getInstance() {
+        if (sInstance == null) {
+            sInstance = new ImageLoader();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get the image if it is cached at this size
+     */
+    public Bitmap getCached(String path, int width, int height) {
+        return mCache.get(getKey(path, width, height));
+    }
+
+    /**
+     * Decode the image in background so that it is not smaller than the given size once
+     * scaled to fit in it
+     *
+     * @param listener called on the main thread unless the request is cancelled before
+     */
+    public Request load(String path, int width, int height, OnImageLoadedListener listener) {
+        Request request = new Request(path, width, height, listener);
+        mHandler.post(request);
+        return request;
+    }
+
+    private static Bitmap decode(String path, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.e(TAG, "Cannot decode the bounds of " + path);
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                width, height);
+        try {
+            return BitmapFactory.decodeFile(path, options);
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Out of memory decoding " + path);
+            return null;
+        }
+    }
+
+    /**
+     * Get the largest power of two the image can be sampled down by, the sampled image
+     * still fills the requested size when it is scaled to fit in it
+     */
+    static int calculateInSampleSize(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0) {
+            return sampleSize;
+        }
+        while (imageWidth / (sampleSize * 2) >= width
+                || imageHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static String getKey(String path, int width, int height) {
+        return path + '@' + width + 'x' + height;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import java.util.Arrays;
+
+/**
+ * Set of long values without boxing them. The values are kept in an open addressing table
+ * with linear probing, 0 marks an empty slot so the value 0 is kept aside in a flag.
+ */
+public class LongHashSet {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mTable;
+
+    private boolean mHasZero;
+
+    private int mSize;
+
+    public LongHashSet() {
+        mTable = new long[MIN_CAPACITY];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public boolean contains(long value) {
+        if (value == 0) {
+            return mHasZero;
+        }
+        return mTable[indexOf(mTable, value)] == value;
+    }
+
+    /**
+     * @return true if the value was not in the set
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            if (mHasZero) {
+                return false;
+            }
+            mHasZero = true;
+            mSize++;
+            return true;
+        }
+        int index = indexOf(mTable, value);
+        if (mTable[index] == value) {
+            return false;
+        }
+        mTable[index] = value;
+        mSize++;
+        // keep at most half of the slots used so the probes stay short
+        if (mSize * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the value was in the set
+     */
+    public boolean remove(long value) {
+        if (value == 0) {
+            if (!mHasZero) {
+                return false;
+            }
+            mHasZero = false;
+            mSize--;
+            return true;
+        }
+        int index = indexOf(mTable, value);
+        if (mTable[index] != value) {
+            return false;
+        }
+        mTable[index] = 0;
+        mSize--;
+
+        // move the values probed past the removed one back, so no probe stops at the hole
+        int mask = mTable.length - 1;
+        int hole = index;
+        int next = (index + 1) & mask;
+        while (mTable[next] != 0) {
+            int home = slotOf(mTable[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                mTable[hole] = mTable[next];
+                mTable[next] = 0;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    public void clear() {
+        if (mTable.length > MIN_CAPACITY) {
+            mTable = new long[MIN_CAPACITY];
+        } else {
+            Arrays.fill(mTable, 0);
+        }
+        mHasZero = false;
+        mSize = 0;
+    }
+
+    /**
+     * Remove the values which are not in the other set
+     */
+    public void retainAll(LongHashSet other) {
+        if (mHasZero && !other.contains(0)) {
+            mHasZero = false;
+            mSize--;
+        }
+        for (long value : toArray()) {
+            if (value != 0 && !other.contains(value)) {
+                remove(value);
+            }
+        }
+    }
+
+    public long[] toArray() {
+        long[] values = new long[mSize];
+        int count = 0;
+        if (mHasZero) {
+            values[count++] = 0;
+        }
+        for (long value : mTable) {
+            if (value != 0) {
+                values[count++] = value;
+            }
+        }
+        return values;
+    }
+
+    private void rehash(int capacity) {
+        long[] table = new long[capacity];
+        for (long value : mTable) {
+            if (value != 0) {
+                table[indexOf(table, value)] = value;
+            }
+        }
+        mTable = table;
+    }
+
+    /**
+     * Get the slot which holds the value, or the empty slot where it would be added
+     */
+    private static int indexOf(long[] table, long value) {
+        int mask = table.length - 1;
+        int index = slotOf(value, mask);
+        while (table[index] != 0 && table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static int slotOf(long value, int mask) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
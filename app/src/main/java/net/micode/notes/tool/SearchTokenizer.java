@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tokenizer for the full text search of notes. Latin text is split into lower case words,
+ * CJK text which has no word boundary is split into overlapping bigrams, plus the last
+ * character of each CJK run so that every single character could be found by prefix query.
+ * The tokens are joined by space before written into the index, so the index only needs the
+ * "simple" tokenizer of sqlite.
+ */
+public class SearchTokenizer {
+
+    private SearchTokenizer() {
+    }
+
+    /**
+     * Split the text into words and CJK runs, every term is in lower case
+     */
+    public static List<String> getTerms(String text) {
+        ArrayList<String> terms = new ArrayList<String>();
+        if (text == null) {
+            return terms;
+        }
+
+        int length = text.length();
+        int start = -1;
+        boolean cjkTerm = false;
+        for (int i = 0; i < length; ) {
+            int codePoint = text.codePointAt(i);
+            boolean cjk = isCJK(codePoint);
+            boolean letter = cjk || Character.isLetterOrDigit(codePoint);
+            if (start >= 0 && (!letter || cjk != cjkTerm)) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+            if (letter && start < 0) {
+                start = i;
+                cjkTerm = cjk;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (start >= 0) {
+            terms.add(text.substring(start).toLowerCase(Locale.ROOT));
+        }
+        return terms;
+    }
+
+    /**
+     * Get the tokens to be indexed for the text
+     */
+    public static List<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        for (String term : getTerms(text)) {
+            if (isCJK(term.codePointAt(0))) {
+                addBigrams(term, tokens);
+            } else {
+                tokens.add(term);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Get the text written into the full text index for the content of a note
+     */
+    public static String getIndexText(String text) {
+        StringBuilder sb = new StringBuilder(text == null ? 0 : text.length() * 2);
+        for (String token : tokenize(text)) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(token);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Build the full text query for the user input. Each word is matched as prefix for the
+     * search as you type, each CJK run is matched as a phrase of its bigrams, a single CJK
+     * character is matched as the prefix of the bigrams. Returns empty string if there is
+     * nothing to search.
+     */
+    public static String buildMatchQuery(String query) {
+        StringBuilder sb = new StringBuilder();
+        for (String term : getTerms(query)) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append('"');
+            if (isCJK(term.codePointAt(0))) {
+                if (term.codePointCount(0, term.length()) == 1) {
+                    sb.append(term).append("\"*");
+                } else {
+                    ArrayList<String> bigrams = new ArrayList<String>();
+                    addBigrams(term, bigrams);
+                    // the trailing single character is not needed for a phrase query
+                    bigrams.remove(bigrams.size() - 1);
+                    for (int i = 0; i < bigrams.size(); i++) {
+                        if (i > 0) {
+                            sb.append(' ');
+                        }
+                        sb.append(bigrams.get(i));
+                    }
+                    sb.append('"');
+                }
+            } else {
+                sb.append(term).append("\"*");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Find the ranges in the text which match the terms of the query, ignoring case. The
+     * ranges are returned as pairs of start and end offset, sorted by start offset and not
+     * overlapped with each other.
+     */
+    public static List<int[]> findMatches(String text, String query) {
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        if (text == null || text.length() == 0) {
+            return ranges;
+        }
+
+        List<String> terms = getTerms(query);
+        if (terms.isEmpty()) {
+            return ranges;
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int matchedLength = 0;
+            for (String term : terms) {
+                if (term.length() > matchedLength
+                        && text.regionMatches(true, i, term, 0, term.length())) {
+                    matchedLength = term.length();
+                }
+            }
+            if (matchedLength > 0) {
+                ranges.add(new int[] { i, i + matchedLength });
+                i += matchedLength;
+            } else {
+                i++;
+            }
+        }
+        return ranges;
+    }
+
+    private static void addBigrams(String run, List<String> tokens) {
+        int length = run.length();
+        int first = 0;
+        int second = Character.charCount(run.codePointAt(0));
+        while (second < length) {
+            int end = second + Character.charCount(run.codePointAt(second));
+            tokens.add(run.substring(first, end));
+            first = second;
+            second = end;
+        }
+        tokens.add(run.substring(first));
+    }
+
+    private static boolean isCJK(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
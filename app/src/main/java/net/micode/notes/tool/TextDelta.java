@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import java.util.HashMap;
+
+/**
+ * Delta between two versions of a text, which rebuilds the target text from the base text.
+ * A delta is a sequence of operations: "c&lt;offset&gt;,&lt;length&gt;;" copies a range of
+ * the base text, "i&lt;length&gt;:&lt;text&gt;" inserts new text.
+ * <p>
+ * The common prefix and suffix are copied as they are. The changed range between them is
+ * matched against the base text in blocks of {@link #BLOCK_SIZE} characters, so text which
+ * is moved or kept between several edits is copied instead of inserted again.
+ */
+public class TextDelta {
+    private static final int BLOCK_SIZE = 16;
+
+    private static final int HASH_BASE = 31;
+
+    private TextDelta() {
+    }
+
+    /**
+     * Get the delta which rebuilds the target from the base
+     */
+    public static String create(String base, String target) {
+        if (base == null) {
+            base = "";
+        }
+        if (target == null) {
+            target = "";
+        }
+
+        int baseLength = base.length();
+        int targetLength = target.length();
+        int prefix = 0;
+        int maxPrefix = Math.min(baseLength, targetLength);
+        while (prefix < maxPrefix && base.charAt(prefix) == target.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix && base.charAt(baseLength - 1 - suffix)
+                == target.charAt(targetLength - 1 - suffix)) {
+            suffix++;
+        }
+
+        StringBuilder delta = new StringBuilder();
+        appendCopy(delta, 0, prefix);
+        appendChangedRange(delta, base, prefix, baseLength - suffix, target, prefix,
+                targetLength - suffix);
+        appendCopy(delta, baseLength - suffix, suffix);
+        return delta.toString();
+    }
+
+    /**
+     * Rebuild the target text from the base and the delta
+     *
+     * @throws IllegalArgumentException if the delta is malformed or does not fit the base
+     */
+    public static String apply(String base, String delta) {
+        if (base == null) {
+            base = "";
+        }
+        StringBuilder target = new StringBuilder(base.length() + delta.length());
+        int i = 0;
+        int length = delta.length();
+        try {
+            while (i < length) {
+                char op = delta.charAt(i++);
+                if (op == 'c') {
+                    int comma = delta.indexOf(',', i);
+                    int end = delta.indexOf(';', comma);
+                    int offset = Integer.parseInt(delta.substring(i, comma));
+                    int count = Integer.parseInt(delta.substring(comma + 1, end));
+                    target.append(base, offset, offset + count);
+                    i = end + 1;
+                } else if (op == 'i') {
+                    int colon = delta.indexOf(':', i);
+                    int count = Integer.parseInt(delta.substring(i, colon));
+                    target.append(delta, colon + 1, colon + 1 + count);
+                    i = colon + 1 + count;
+                } else {
+                    throw new IllegalArgumentException("Unknown delta operation " + op);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Delta does not fit the base text", e);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed delta", e);
+        }
+        return target.toString();
+    }
+
+    /**
+     * Encode target[targetStart, targetEnd) by copying the blocks found in
+     * base[baseStart, baseEnd), the rest is inserted
+     */
+    private static void appendChangedRange(StringBuilder delta, String base, int baseStart,
+            int baseEnd, String target, int targetStart, int targetEnd) {
+        if (targetEnd - targetStart < BLOCK_SIZE || baseEnd - baseStart < BLOCK_SIZE) {
+            appendInsert(delta, target, targetStart, targetEnd);
+            return;
+        }
+
+        // the first position of each aligned block of the base, by the hash of the block
+        HashMap<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        for (int i = baseStart; i + BLOCK_SIZE <= baseEnd; i += BLOCK_SIZE) {
+            Integer hash = hash(base, i);
+            if (!blocks.containsKey(hash)) {
+                blocks.put(hash, i);
+            }
+        }
+
+        int power = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++) {
+            power *= HASH_BASE;
+        }
+
+        int pending = targetStart;
+        int i = targetStart;
+        int hash = hash(target, i);
+        while (i + BLOCK_SIZE <= targetEnd) {
+            Integer match = blocks.get(hash);
+            if (match != null && target.regionMatches(i, base, match, BLOCK_SIZE)) {
+                int baseOffset = match;
+                int start = i;
+                // extend the match both ways as far as the texts agree
+                while (start > pending && baseOffset > baseStart
+                        && target.charAt(start - 1) == base.charAt(baseOffset - 1)) {
+                    start--;
+                    baseOffset--;
+                }
+                int end = i + BLOCK_SIZE;
+                int baseMatchEnd = match + BLOCK_SIZE;
+                while (end < targetEnd && baseMatchEnd < baseEnd
+                        && target.charAt(end) == base.charAt(baseMatchEnd)) {
+                    end++;
+                    baseMatchEnd++;
+                }
+
+                appendInsert(delta, target, pending, start);
+                appendCopy(delta, baseOffset, end - start);
+                pending = i = end;
+                if (i + BLOCK_SIZE <= targetEnd) {
+                    hash = hash(target, i);
+                }
+                continue;
+            }
+
+            if (i + BLOCK_SIZE < targetEnd) {
+                hash = (hash - target.charAt(i) * power) * HASH_BASE
+                        + target.charAt(i + BLOCK_SIZE);
+            }
+            i++;
+        }
+        appendInsert(delta, target, pending, targetEnd);
+    }
+
+    private static int hash(String text, int start) {
+        int hash = 0;
+        for (int i = start; i < start + BLOCK_SIZE; i++) {
+            hash = hash * HASH_BASE + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static void appendCopy(StringBuilder delta, int offset, int length) {
+        if (length > 0) {
+            delta.append('c').append(offset).append(',').append(length).append(';');
+        }
+    }
+
+    private static void appendInsert(StringBuilder delta, String text, int start, int end) {
+        if (end > start) {
+            delta.append('i').append(end - start).append(':').append(text, start, end);
+        }
+    }
+}
@@ -28,14 +28,14 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Paint;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.provider.MediaStore;
 import android.text.Editable;
@@ -63,29 +63,31 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import net.micode.notes.R;
+import net.micode.notes.data.AttachmentStore;
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.CheckListItem;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.model.CheckList;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.model.WorkingNote.NoteSettingChangedListener;
 import net.micode.notes.tool.DataUtils;
+import net.micode.notes.tool.ImageLoader;
 import net.micode.notes.tool.ResourceParser;
 import net.micode.notes.tool.ResourceParser.TextAppearanceResources;
+import net.micode.notes.tool.SearchTokenizer;
 import net.micode.notes.ui.DateTimePickerDialog.OnDateTimeSetListener;
 import net.micode.notes.ui.NoteEditText.OnTextViewChangeListener;
 import net.micode.notes.widget.NoteWidgetProvider_2x;
 import net.micode.notes.widget.NoteWidgetProvider_4x;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import android.Manifest;
-import android.provider.DocumentsContract;
 
 public class NoteEditActivity extends Activity implements OnClickListener,
         NoteSettingChangedListener, OnTextViewChangeListener {
@@ -145,6 +147,11 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     
     private ImageView mNoteImage;
 
+    /**
+     * The image being loaded for {@link #mNoteImage}, cancelled when another one is shown
+     */
+    private ImageLoader.Request mImageRequest;
+
     private View mNoteEditorPanel;
 
     private WorkingNote mWorkingNote;
@@ -156,17 +163,29 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     private static final int SHORTCUT_ICON_TITLE_MAX_LEN = 10;
 
-    public static final String TAG_CHECKED = String.valueOf('\u221A');
-    public static final String TAG_UNCHECKED = String.valueOf('\u25A1');
+    public static final String TAG_CHECKED = CheckListItem.TAG_CHECKED;
+    public static final String TAG_UNCHECKED = CheckListItem.TAG_UNCHECKED;
 
     private LinearLayout mEditTextList;
 
     private String mUserQuery;
-    private Pattern mPattern;
 
     private static final int REQUEST_CODE_IMAGE = 1;
     private static final int REQUEST_CODE_PERMISSION = 2;
 
+    /**
+     * The note is saved in background after the user stops typing for this time
+     */
+    private static final long AUTO_SAVE_DELAY = 2000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mAutoSaveRunnable = new Runnable() {
+        public void run() {
+            saveNoteInBackground();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -291,7 +310,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         mNoteEditor.setTextAppearance(this, TextAppearanceResources
                 .getTexAppearanceResource(mFontSizeId));
         if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
-            switchToListMode(mWorkingNote.getContent());
+            switchToListMode();
         } else {
             mNoteEditor.setText(getHighlightQueryResult(mWorkingNote.getContent(), mUserQuery));
             mNoteEditor.setSelection(mNoteEditor.getText().length());
@@ -348,7 +367,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
          * is no id which is equivalent to create new note
          */
         if (!mWorkingNote.existInDatabase()) {
-            saveNote();
+            saveNewNote();
         }
         outState.putLong(Intent.EXTRA_UID, mWorkingNote.getNoteId());
         Log.d(TAG, "Save working note id: " + mWorkingNote.getNoteId() + " onSaveInstanceState");
@@ -430,6 +449,9 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
                 @Override
                 public void afterTextChanged(Editable s) {
+                    // 用户停止输入一段时间后在后台保存
+                    mHandler.removeCallbacks(mAutoSaveRunnable);
+                    mHandler.postDelayed(mAutoSaveRunnable, AUTO_SAVE_DELAY);
                     // 在文本变化后再次调用，确保更新
                     try {
                         if (s != null) {
@@ -477,7 +499,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         mFontSizeSelector.setVisibility(View.GONE);
 
         if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
-            switchToListMode(mWorkingNote.getContent());
+            switchToListMode();
         } else {
             mNoteEditor.setText(getHighlightQueryResult(mWorkingNote.getContent(), mUserQuery));
             mNoteEditor.setSelection(mNoteEditor.getText().length());
@@ -489,12 +511,22 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     @Override
     protected void onPause() {
         super.onPause();
-        if(saveNote()) {
+        mHandler.removeCallbacks(mAutoSaveRunnable);
+        if(saveNoteInBackground()) {
             Log.d(TAG, "Note data was saved with length:" + mWorkingNote.getContent().length());
         }
         clearSettingState();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mImageRequest != null) {
+            mImageRequest.cancel();
+            mImageRequest = null;
+        }
+    }
+
     private void updateWidget() {
         Intent intent = new Intent(AppWidgetManager.ACTION_APPWIDGET_UPDATE);
         if (mWorkingNote.getWidgetType() == Notes.TYPE_WIDGET_2X) {
@@ -552,7 +584,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
                 // 列表模式需要重新加载整个列表
                 getWorkingText();
-                switchToListMode(mWorkingNote.getContent());
+                switchToListMode();
             } else {
                 // 普通文本模式直接设置文本外观
                 mNoteEditor.setTextAppearance(this,
@@ -569,7 +601,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             return;
         }
 
-        saveNote();
+        saveNoteInBackground();
         super.onBackPressed();
     }
 
@@ -676,7 +708,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     private void createNewNote() {
         // Firstly, save current editing notes
-        saveNote();
+        saveNoteInBackground();
 
         // For safety, start a new NoteEditActivity
         finish();
@@ -718,7 +750,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
          * alert clock, we should save the note first
          */
         if (!mWorkingNote.existInDatabase()) {
-            saveNote();
+            saveNewNote();
         }
         if (mWorkingNote.getNoteId() > 0) {
             Intent intent = new Intent(this, AlarmReceiver.class);
@@ -746,6 +778,12 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         updateWidget();
     }
 
+    public void onAttachmentsLoaded() {
+        if (!isFinishing() && mWorkingNote.hasImage()) {
+            showImage(mWorkingNote.getImagePath());
+        }
+    }
+
     public void onEditTextDelete(int index, String text) {
         int childCount = mEditTextList.getChildCount();
         if (childCount == 1) {
@@ -791,15 +829,12 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         }
     }
 
-    private void switchToListMode(String text) {
+    private void switchToListMode() {
         mEditTextList.removeAllViews();
-        String[] items = text.split("\n");
         int index = 0;
-        for (String item : items) {
-            if(!TextUtils.isEmpty(item)) {
-                mEditTextList.addView(getListItem(item, index));
-                index++;
-            }
+        for (CheckList.Item item : mWorkingNote.getCheckList().getItems()) {
+            mEditTextList.addView(getListItem(item, index));
+            index++;
         }
         mEditTextList.addView(getListItem("", index));
         mEditTextList.getChildAt(index).findViewById(R.id.et_edit_text).requestFocus();
@@ -809,7 +844,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         
         // 列表模式也更新字数统计
         try {
-            updateWordCount(text);
+            updateWordCount(mWorkingNote.getContent());
         } catch (Exception e) {
             Log.e(TAG, "切换到列表模式时更新字数出错: " + e.getMessage());
         }
@@ -818,20 +853,28 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     private Spannable getHighlightQueryResult(String fullText, String userQuery) {
         SpannableString spannable = new SpannableString(fullText == null ? "" : fullText);
         if (!TextUtils.isEmpty(userQuery)) {
-            mPattern = Pattern.compile(userQuery);
-            Matcher m = mPattern.matcher(fullText);
-            int start = 0;
-            while (m.find(start)) {
+            // highlight the same terms as the search of NotesProvider matches
+            for (int[] range : SearchTokenizer.findMatches(fullText, userQuery)) {
                 spannable.setSpan(
                         new BackgroundColorSpan(this.getResources().getColor(
-                                R.color.user_query_highlight)), m.start(), m.end(),
+                                R.color.user_query_highlight)), range[0], range[1],
                         Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
-                start = m.end();
             }
         }
         return spannable;
     }
 
+    /**
+     * The row of the item, which keeps the item as its tag so that the edits of the row
+     * are written to the same item
+     */
+    private View getListItem(CheckList.Item item, int index) {
+        View view = getListItem(item.getContent(), index);
+        ((CheckBox) view.findViewById(R.id.cb_edit_item)).setChecked(item.isChecked());
+        view.setTag(item);
+        return view;
+    }
+
     private View getListItem(String item, int index) {
         View view = LayoutInflater.from(this).inflate(R.layout.note_edit_list_item, null);
         final NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
@@ -877,12 +920,8 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     public void onCheckListModeChanged(int oldMode, int newMode) {
         if (newMode == TextNote.MODE_CHECK_LIST) {
-            switchToListMode(mNoteEditor.getText().toString());
+            switchToListMode();
         } else {
-            if (!getWorkingText()) {
-                mWorkingNote.setWorkingText(mWorkingNote.getContent().replace(TAG_UNCHECKED + " ",
-                        ""));
-            }
             mNoteEditor.setText(getHighlightQueryResult(mWorkingNote.getContent(), mUserQuery));
             mEditTextList.setVisibility(View.GONE);
             mNoteEditor.setVisibility(View.VISIBLE);
@@ -892,29 +931,50 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     private boolean getWorkingText() {
         boolean hasChecked = false;
         if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
-            StringBuilder sb = new StringBuilder();
+            ArrayList<CheckList.Item> items = new ArrayList<CheckList.Item>();
             for (int i = 0; i < mEditTextList.getChildCount(); i++) {
                 View view = mEditTextList.getChildAt(i);
                 NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
                 if (!TextUtils.isEmpty(edit.getText())) {
-                    if (((CheckBox) view.findViewById(R.id.cb_edit_item)).isChecked()) {
-                        sb.append(TAG_CHECKED).append(" ").append(edit.getText()).append("\n");
-                        hasChecked = true;
+                    boolean checked = ((CheckBox) view.findViewById(R.id.cb_edit_item))
+                            .isChecked();
+                    CheckList.Item item = (CheckList.Item) view.getTag();
+                    if (item == null) {
+                        item = new CheckList.Item(checked, edit.getText().toString());
+                        view.setTag(item);
                     } else {
-                        sb.append(TAG_UNCHECKED).append(" ").append(edit.getText()).append("\n");
+                        item.setChecked(checked);
+                        item.setContent(edit.getText().toString());
                     }
+                    items.add(item);
+                    hasChecked |= checked;
                 }
             }
-            mWorkingNote.setWorkingText(sb.toString());
+            mWorkingNote.setCheckListItems(items);
         } else {
             mWorkingNote.setWorkingText(mNoteEditor.getText().toString());
         }
         return hasChecked;
     }
 
-    private boolean saveNote() {
+    /**
+     * Save the note not in database yet so that it gets its id. The row of the note is created
+     * right away, the main thread does not wait for its content to be written.
+     */
+    private void saveNewNote() {
+        getWorkingText();
+        onNoteSaved(mWorkingNote.saveNoteForId() > 0);
+    }
+
+    /**
+     * Save the note in background without blocking the UI
+     */
+    private boolean saveNoteInBackground() {
         getWorkingText();
-        boolean saved = mWorkingNote.saveNote();
+        return onNoteSaved(mWorkingNote.saveNoteInBackground(0));
+    }
+
+    private boolean onNoteSaved(boolean saved) {
         if (saved) {
             /**
              * There are two modes from List view to edit view, open one note,
@@ -935,7 +995,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
          * save it
          */
         if (!mWorkingNote.existInDatabase()) {
-            saveNote();
+            saveNewNote();
         }
 
         if (mWorkingNote.getNoteId() > 0) {
@@ -984,6 +1044,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     }
 
     private void switchModeBetweenTextAndList() {
+        getWorkingText();
         mWorkingNote.setCheckListMode(mWorkingNote.getCheckListMode() == 0 ?
                 TextNote.MODE_CHECK_LIST : 0);
     }
@@ -1056,10 +1117,9 @@ public class NoteEditActivity extends Activity implements OnClickListener,
      * 处理从其他Activity返回的结果
      * 主要负责处理图片选择的结果：
      * 1. 验证返回的数据是否有效
-     * 2. 从返回的URI中提取图片路径
-     * 3. 验证图片文件是否存在
-     * 4. 将图片添加到笔记并保存
-     * 5. 显示图片并向用户提供操作反馈
+     * 2. 在后台将图片复制到应用私有目录，相同内容的图片只保存一份
+     * 3. 将图片添加到笔记并保存
+     * 4. 显示图片并向用户提供操作反馈
      * @param requestCode 请求码，用于识别请求类型
      * @param resultCode 结果码，表示操作是否成功
      * @param data 返回的数据，包含选择的图片URI
@@ -1071,30 +1131,12 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             // 处理图片选择结果
             Uri selectedImage = data.getData();
             if (selectedImage != null) {
-                // 从URI获取图片的实际文件路径
-                String imagePath = getImagePathFromUri(selectedImage);
-                
-                if (imagePath != null) {
-                    // 验证图片文件是否存在
-                    File imageFile = new File(imagePath);
-                    if (imageFile.exists()) {
-                        // 设置笔记的图片路径
-                        mWorkingNote.setWorkingImage(imagePath);
-                        // 保存笔记到数据库
-                        saveNote();
-                        
-                        // 显示图片到界面上
-                        showImage(imagePath);
-                        // 提示用户图片插入成功
-                        Toast.makeText(this, R.string.insert_image_success, Toast.LENGTH_SHORT).show();
-                    } else {
-                        // 图片文件不存在，提示用户
-                        Toast.makeText(this, R.string.file_not_exist, Toast.LENGTH_SHORT).show();
-                    }
-                } else {
-                    // 无法获取图片路径，提示用户
-                    Toast.makeText(this, R.string.image_path_error, Toast.LENGTH_SHORT).show();
-                }
+                new AttachmentStore(this).store(selectedImage,
+                        new AttachmentStore.OnAttachmentStoredListener() {
+                            public void onAttachmentStored(String imagePath) {
+                                onImageStored(imagePath);
+                            }
+                        });
             } else {
                 // 选择的图片URI为空，提示用户
                 Toast.makeText(this, R.string.image_select_failed, Toast.LENGTH_SHORT).show();
@@ -1102,146 +1144,80 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         }
     }
 
-    private String getImagePathFromUri(Uri uri) {
-        String imagePath = null;
-
-        // 处理content协议URI（现代Android文件选择常用类型）
-        if ("content".equals(uri.getScheme())) {
-            // 构建MediaStore查询获取真实路径
-            String[] projection = {MediaStore.Images.Media.DATA};
-            Cursor cursor = getContentResolver().query(uri, projection, null, null, null);
-
-            if (cursor != null && cursor.moveToFirst()) {
-                try {
-                    int columnIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-                    imagePath = cursor.getString(columnIndex);
-                } finally {
-                    cursor.close(); // 确保游标始终关闭
-                }
-            }
-
-            // 标准查询失败时使用备用复制方案
-            if (imagePath == null) {
-                imagePath = copyFileFromUri(uri);
-            }
-        }
-        // 处理传统文件协议URI
-        else if ("file".equals(uri.getScheme())) {
-            imagePath = uri.getPath(); // 直接提取物理路径
-        }
-        // 处理文档协议URI（Android 4.4+ DocumentsContract）
-        else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
-                && DocumentsContract.isDocumentUri(this, uri)) {
-            try {
-                // 解析文档ID格式（例："image:12345"）
-                String docId = DocumentsContract.getDocumentId(uri);
-                String[] split = docId.split(":");
-                String type = split[0];
-
-                // 构建对应媒体库的ContentUri
-                Uri contentUri = null;
-                if ("image".equals(type)) {
-                    contentUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                }
-                // 可扩展处理其他媒体类型（如video/audio）
-
-                if (contentUri != null) {
-                    // 构造精确查询条件
-                    String selection = "_id=?";
-                    String[] selectionArgs = new String[]{split[1]};
-                    String[] projection = {MediaStore.Images.Media.DATA};
-
-                    Cursor cursor = getContentResolver().query(
-                            contentUri, projection, selection, selectionArgs, null);
-                    if (cursor != null && cursor.moveToFirst()) {
-                        try {
-                            int columnIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-                            imagePath = cursor.getString(columnIndex);
-                        } finally {
-                            cursor.close();
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "DocumentsContract解析失败: " + e.getMessage());
-            }
-
-            // 文档查询失败时降级到文件复制
-            if (imagePath == null) {
-                imagePath = copyFileFromUri(uri);
-            }
+    /**
+     * 图片复制到附件目录后调用，路径为null表示复制失败
+     */
+    private void onImageStored(String imagePath) {
+        if (isFinishing()) {
+            return;
         }
-        // 处理未知URI类型
-        else {
-            imagePath = copyFileFromUri(uri); // 最终备用方案
+        if (imagePath == null) {
+            // 无法读取或保存图片，提示用户
+            Toast.makeText(this, R.string.image_path_error, Toast.LENGTH_SHORT).show();
+            return;
         }
 
-        // 记录路径获取结果
-        if (imagePath != null) {
-            Log.d(TAG, "成功解析图片路径: " + imagePath);
-        } else {
-            Log.e(TAG, "路径解析失败，所有方案均未生效");
-        }
+        Log.d(TAG, "图片已保存到: " + imagePath);
+        // 设置笔记的图片路径
+        mWorkingNote.setWorkingImage(imagePath);
+        // 保存笔记到数据库
+        saveNoteInBackground();
 
-        return imagePath;
-    }
-    
-    // 从URI复制文件到本地缓存
-    private String copyFileFromUri(Uri uri) {
-        try {
-            File cacheDir = new File(getExternalCacheDir(), "images");
-            if (!cacheDir.exists()) {
-                cacheDir.mkdirs();
-            }
-            
-            String fileName = "img_" + System.currentTimeMillis() + ".jpg";
-            File targetFile = new File(cacheDir, fileName);
-            
-            java.io.InputStream input = getContentResolver().openInputStream(uri);
-            if (input == null) return null;
-            
-            java.io.OutputStream output = new java.io.FileOutputStream(targetFile);
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = input.read(buffer)) != -1) {
-                output.write(buffer, 0, bytesRead);
-            }
-            input.close();
-            output.close();
-            
-            return targetFile.getAbsolutePath();
-        } catch (Exception e) {
-            Log.e(TAG, "复制文件失败: " + e.getMessage());
-            return null;
-        }
+        // 显示图片到界面上
+        showImage(imagePath);
+        // 提示用户图片插入成功
+        Toast.makeText(this, R.string.insert_image_success, Toast.LENGTH_SHORT).show();
     }
 
     /**
      * 根据图片路径加载并显示图片到视图
      * 1. 检查路径有效性，无效则隐藏图片视图
-     * 2. 尝试解码图片文件为Bitmap
+     * 2. 按视图大小在后台采样解码图片，已缓存的图片直接显示
      * 3. 解码成功则显示图片，失败则隐藏视图
      *
      * @param imagePath 图片文件路径，null或空时视为无效路径
      */
     private void showImage(String imagePath) {
+        // 取消还未显示的上一张图片
+        if (mImageRequest != null) {
+            mImageRequest.cancel();
+            mImageRequest = null;
+        }
+
         // 检查路径是否有效
-        if (imagePath != null && !imagePath.isEmpty()) {
-            // 从文件系统解码位图
-            Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
-
-            if (bitmap != null) {
-                // 解码成功：设置位图并显示视图
-                mNoteImage.setImageBitmap(bitmap);
-                mNoteImage.setVisibility(View.VISIBLE);
-            } else {
-                // 解码失败：隐藏图片视图（避免显示破损图片）
-                mNoteImage.setVisibility(View.GONE);
-            }
-        } else {
+        if (imagePath == null || imagePath.isEmpty()) {
             // 无效路径：隐藏图片视图（当路径被清空时清除显示）
             mNoteImage.setVisibility(View.GONE);
+            return;
+        }
+
+        // 图片按宽度铺满、高度不超过maxHeight显示，视图还未布局时按屏幕宽度计算
+        int width = mNoteImage.getWidth() > 0 ? mNoteImage.getWidth()
+                : getResources().getDisplayMetrics().widthPixels;
+        int height = mNoteImage.getMaxHeight() < Integer.MAX_VALUE ? mNoteImage.getMaxHeight()
+                : getResources().getDisplayMetrics().heightPixels;
+        ImageLoader loader = ImageLoader.getInstance();
+        Bitmap bitmap = loader.getCached(imagePath, width, height);
+        if (bitmap != null) {
+            mNoteImage.setImageBitmap(bitmap);
+            mNoteImage.setVisibility(View.VISIBLE);
+            return;
         }
+
+        mImageRequest = loader.load(imagePath, width, height,
+                new ImageLoader.OnImageLoadedListener() {
+                    public void onImageLoaded(Bitmap bitmap) {
+                        mImageRequest = null;
+                        if (bitmap != null) {
+                            // 解码成功：设置位图并显示视图
+                            mNoteImage.setImageBitmap(bitmap);
+                            mNoteImage.setVisibility(View.VISIBLE);
+                        } else {
+                            // 解码失败：隐藏图片视图（避免显示破损图片）
+                            mNoteImage.setVisibility(View.GONE);
+                        }
+                    }
+                });
     }
 
     private void updateWordCount(String text) {
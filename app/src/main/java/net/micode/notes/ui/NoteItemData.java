@@ -23,7 +23,10 @@ import android.text.TextUtils;
 import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
-import net.micode.notes.tool.DataUtils;
+import net.micode.notes.data.Notes.NoteListColumns;
+
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class NoteItemData {//
@@ -40,6 +43,8 @@ public class NoteItemData {//
         NoteColumns.TYPE,
         NoteColumns.WIDGET_ID,
         NoteColumns.WIDGET_TYPE,
+        NoteListColumns.PHONE_NUMBER,
+        NoteListColumns.CALL_DATE,
     };
 
     private static final int ID_COLUMN                    = 0;
@@ -54,6 +59,8 @@ public class NoteItemData {//
     private static final int TYPE_COLUMN                  = 9;
     private static final int WIDGET_ID_COLUMN             = 10;
     private static final int WIDGET_TYPE_COLUMN           = 11;
+    private static final int PHONE_NUMBER_COLUMN          = 12;
+    private static final int CALL_DATE_COLUMN             = 13;
 
     private long mId;
     private long mAlertDate;
@@ -69,6 +76,7 @@ public class NoteItemData {//
     private int mWidgetType;
     private String mName;
     private String mPhoneNumber;
+    private long mCallDate;
 
     private boolean mIsLastItem;
     private boolean mIsFirstItem;
@@ -76,6 +84,10 @@ public class NoteItemData {//
     private boolean mIsOneNoteFollowingFolder;
     private boolean mIsMultiNotesFollowingFolder;
 
+    /**
+     * Read the row the cursor is at, which may look up the name of a contact so it is done off
+     * the main thread. The flags of its place in the list are set by {@link #placeItems}.
+     */
     public NoteItemData(Context context, Cursor cursor) {
         mId = cursor.getLong(ID_COLUMN);
         mAlertDate = cursor.getLong(ALERTED_DATE_COLUMN);
@@ -85,16 +97,19 @@ public class NoteItemData {//
         mModifiedDate = cursor.getLong(MODIFIED_DATE_COLUMN);
         mNotesCount = cursor.getInt(NOTES_COUNT_COLUMN);
         mParentId = cursor.getLong(PARENT_ID_COLUMN);
+        // the snippet is already cut into a preview without check list markers when written
         mSnippet = cursor.getString(SNIPPET_COLUMN);
-        mSnippet = mSnippet.replace(NoteEditActivity.TAG_CHECKED, "").replace(
-                NoteEditActivity.TAG_UNCHECKED, "");
         mType = cursor.getInt(TYPE_COLUMN);
         mWidgetId = cursor.getInt(WIDGET_ID_COLUMN);
         mWidgetType = cursor.getInt(WIDGET_TYPE_COLUMN);
 
-        mPhoneNumber = "";
+        // the call data is joined by the list query, see Notes#CONTENT_NOTE_LIST_URI
+        mPhoneNumber = cursor.getString(PHONE_NUMBER_COLUMN);
+        mCallDate = cursor.getLong(CALL_DATE_COLUMN);
+        if (mPhoneNumber == null) {
+            mPhoneNumber = "";
+        }
         if (mParentId == Notes.ID_CALL_RECORD_FOLDER) {
-            mPhoneNumber = DataUtils.getCallNumberByNoteId(context.getContentResolver(), mId);
             if (!TextUtils.isEmpty(mPhoneNumber)) {
                 mName = Contact.getContact(context, mPhoneNumber);
                 if (mName == null) {
@@ -106,32 +121,117 @@ public class NoteItemData {//
         if (mName == null) {
             mName = "";
         }
-        checkPostion(cursor);
-    }
-
-    private void checkPostion(Cursor cursor) {
-        mIsLastItem = cursor.isLast() ? true : false;
-        mIsFirstItem = cursor.isFirst() ? true : false;
-        mIsOnlyOneItem = (cursor.getCount() == 1);
-        mIsMultiNotesFollowingFolder = false;
-        mIsOneNoteFollowingFolder = false;
-
-        if (mType == Notes.TYPE_NOTE && !mIsFirstItem) {
-            int position = cursor.getPosition();
-            if (cursor.moveToPrevious()) {
-                if (cursor.getInt(TYPE_COLUMN) == Notes.TYPE_FOLDER
-                        || cursor.getInt(TYPE_COLUMN) == Notes.TYPE_SYSTEM) {
-                    if (cursor.getCount() > (position + 1)) {
-                        mIsMultiNotesFollowingFolder = true;
+    }
+
+    /**
+     * Look up the contacts of the call notes of the cursor in one go, before the rows are
+     * read. The cursor is moved back before its first row.
+     */
+    static void prefetchContacts(Context context, Cursor cursor) {
+        ArrayList<String> phoneNumbers = new ArrayList<String>();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            if (cursor.getLong(PARENT_ID_COLUMN) == Notes.ID_CALL_RECORD_FOLDER) {
+                String phoneNumber = cursor.getString(PHONE_NUMBER_COLUMN);
+                if (!TextUtils.isEmpty(phoneNumber)) {
+                    phoneNumbers.add(phoneNumber);
+                }
+            }
+        }
+        cursor.moveToPosition(-1);
+        if (!phoneNumbers.isEmpty()) {
+            Contact.prefetch(context, phoneNumbers);
+        }
+    }
+
+    /**
+     * A copy of the row with the flags of its place in the list
+     */
+    private NoteItemData(NoteItemData data, boolean first, boolean last, boolean single,
+            boolean oneFollowingFolder, boolean multiFollowingFolder) {
+        mId = data.mId;
+        mAlertDate = data.mAlertDate;
+        mBgColorId = data.mBgColorId;
+        mCreatedDate = data.mCreatedDate;
+        mHasAttachment = data.mHasAttachment;
+        mModifiedDate = data.mModifiedDate;
+        mNotesCount = data.mNotesCount;
+        mParentId = data.mParentId;
+        mSnippet = data.mSnippet;
+        mType = data.mType;
+        mWidgetId = data.mWidgetId;
+        mWidgetType = data.mWidgetType;
+        mName = data.mName;
+        mPhoneNumber = data.mPhoneNumber;
+        mCallDate = data.mCallDate;
+        mIsFirstItem = first;
+        mIsLastItem = last;
+        mIsOnlyOneItem = single;
+        mIsOneNoteFollowingFolder = oneFollowingFolder;
+        mIsMultiNotesFollowingFolder = multiFollowingFolder;
+    }
+
+    /**
+     * Set the flags of the rows from their neighbours, which the background of an item depends
+     * on. A row is replaced by a copy when its flags change, so the rows in a list which is
+     * shown are never modified.
+     */
+    static List<NoteItemData> placeItems(List<NoteItemData> rows) {
+        ArrayList<NoteItemData> items = new ArrayList<NoteItemData>(rows.size());
+        int count = rows.size();
+        for (int i = 0; i < count; i++) {
+            NoteItemData row = rows.get(i);
+            boolean first = i == 0;
+            boolean last = i == count - 1;
+            boolean oneFollowingFolder = false;
+            boolean multiFollowingFolder = false;
+            if (row.mType == Notes.TYPE_NOTE && !first) {
+                int previousType = rows.get(i - 1).mType;
+                if (previousType == Notes.TYPE_FOLDER || previousType == Notes.TYPE_SYSTEM) {
+                    if (last) {
+                        oneFollowingFolder = true;
                     } else {
-                        mIsOneNoteFollowingFolder = true;
+                        multiFollowingFolder = true;
                     }
                 }
-                if (!cursor.moveToNext()) {
-                    throw new IllegalStateException("cursor move to previous but can't move back");
-                }
             }
+
+            if (row.mIsFirstItem != first || row.mIsLastItem != last
+                    || row.mIsOnlyOneItem != (count == 1)
+                    || row.mIsOneNoteFollowingFolder != oneFollowingFolder
+                    || row.mIsMultiNotesFollowingFolder != multiFollowingFolder) {
+                row = new NoteItemData(row, first, last, count == 1, oneFollowingFolder,
+                        multiFollowingFolder);
+            }
+            items.add(row);
         }
+        return items;
+    }
+
+    /**
+     * Whether the item would be shown the same as the other one
+     */
+    boolean isSameContent(NoteItemData other) {
+        return mId == other.mId
+                && mAlertDate == other.mAlertDate
+                && mBgColorId == other.mBgColorId
+                && mCreatedDate == other.mCreatedDate
+                && mHasAttachment == other.mHasAttachment
+                && mModifiedDate == other.mModifiedDate
+                && mNotesCount == other.mNotesCount
+                && mParentId == other.mParentId
+                && TextUtils.equals(mSnippet, other.mSnippet)
+                && mType == other.mType
+                && mWidgetId == other.mWidgetId
+                && mWidgetType == other.mWidgetType
+                && TextUtils.equals(mName, other.mName)
+                && TextUtils.equals(mPhoneNumber, other.mPhoneNumber)
+                && mCallDate == other.mCallDate
+                && mIsFirstItem == other.mIsFirstItem
+                && mIsLastItem == other.mIsLastItem
+                && mIsOnlyOneItem == other.mIsOnlyOneItem
+                && mIsOneNoteFollowingFolder == other.mIsOneNoteFollowingFolder
+                && mIsMultiNotesFollowingFolder == other.mIsMultiNotesFollowingFolder;
     }
 
     public boolean isOneFollowingFolder() {
@@ -150,6 +250,10 @@ public class NoteItemData {//
         return mName;
     }
 
+    public long getCallDate() {
+        return mCallDate;
+    }
+
     public boolean isFirst() {
         return mIsFirstItem;
     }
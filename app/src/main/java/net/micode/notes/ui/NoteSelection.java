@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import net.micode.notes.tool.LongHashSet;
+
+/**
+ * The notes selected in the notes list, by note id so the selection is kept when the list is
+ * reloaded. The selection is kept as a flag telling whether all the notes are selected and
+ * the ids of the notes toggled from it, which makes select all and invert constant time.
+ */
+class NoteSelection {
+    private final LongHashSet mToggled = new LongHashSet();
+
+    private boolean mInverted;
+
+    /**
+     * The number of notes which can be selected
+     */
+    private int mTotal;
+
+    public boolean isSelected(long id) {
+        return mInverted != mToggled.contains(id);
+    }
+
+    public void setSelected(long id, boolean selected) {
+        if (selected != mInverted) {
+            mToggled.add(id);
+        } else {
+            mToggled.remove(id);
+        }
+    }
+
+    public void setAll(boolean selected) {
+        mToggled.clear();
+        mInverted = selected;
+    }
+
+    public void invert() {
+        mInverted = !mInverted;
+    }
+
+    public int getCount() {
+        return mInverted ? mTotal - mToggled.size() : mToggled.size();
+    }
+
+    public boolean isAllSelected() {
+        return mTotal != 0 && getCount() == mTotal;
+    }
+
+    /**
+     * Whether the ids of the selected notes are the toggled ones, otherwise they are all the
+     * notes but the toggled ones
+     */
+    public boolean isInverted() {
+        return mInverted;
+    }
+
+    public boolean hasToggled() {
+        return !mToggled.isEmpty();
+    }
+
+    public long[] getToggledIds() {
+        return mToggled.toArray();
+    }
+
+    /**
+     * Set the notes which can be selected after the list is reloaded, the toggled notes which
+     * are gone are dropped. When all the notes are selected the new notes are selected too.
+     *
+     * @param noteIds the ids of the notes, may be null if no note is toggled
+     * @param total the number of notes
+     */
+    public void setNotes(LongHashSet noteIds, int total) {
+        if (noteIds != null && !mToggled.isEmpty()) {
+            mToggled.retainAll(noteIds);
+        }
+        mTotal = total;
+    }
+}
@@ -27,9 +27,12 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.text.Editable;
 import android.text.TextUtils;
@@ -39,7 +42,6 @@ import android.view.ActionMode;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Display;
-import android.view.HapticFeedbackConstants;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -50,16 +52,16 @@ import android.view.View.OnClickListener;
 import android.view.View.OnCreateContextMenuListener;
 import android.view.View.OnTouchListener;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
-import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.PopupMenu;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.SimpleItemAnimator;
+
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
@@ -69,6 +71,9 @@ import net.micode.notes.tool.BackupUtils;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser;
 import net.micode.notes.ui.NotesListAdapter.AppWidgetAttribute;
+import net.micode.notes.ui.NotesListAdapter.OnItemClickListener;
+import net.micode.notes.ui.NotesListAdapter.OnItemLongClickListener;
+import net.micode.notes.ui.NotesListAdapter.SelectedNotes;
 import net.micode.notes.widget.NoteWidgetProvider_2x;
 import net.micode.notes.widget.NoteWidgetProvider_4x;
 
@@ -83,6 +88,15 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private static final int FOLDER_LIST_QUERY_TOKEN      = 1;
 
+    private static final int FOLDER_NOTE_LIST_PAGE_QUERY_TOKEN = 2;
+
+    private static final int NOTES_LIST_PAGE_SIZE = 50;
+
+    /**
+     * Load the next page when the bottom of the list is this close
+     */
+    private static final int NOTES_LIST_PRELOAD_COUNT = 10;
+
     private static final int MENU_FOLDER_DELETE = 0;
 
     private static final int MENU_FOLDER_VIEW = 1;
@@ -101,7 +115,9 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private NotesListAdapter mNotesListAdapter;
 
-    private ListView mNotesListView;
+    private RecyclerView mNotesListView;
+
+    private LinearLayoutManager mNotesListLayoutManager;
 
     private Button mAddNewNote;
 
@@ -119,6 +135,19 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private ModeCallback mModeCallBack;
 
+    /**
+     * Increased on every reload of the list, results of older queries are dropped
+     */
+    private int mNotesListGeneration;
+
+    private int mNotesListFirstPageSize;
+
+    private boolean mNotesListLoading;
+
+    private boolean mNotesListEnd;
+
+    private ContentObserver mNotesListObserver;
+
     private static final String TAG = "NotesListActivity";
 
     public static final int NOTES_LISTVIEW_SCROLL_RATE = 30;
@@ -152,7 +181,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (resultCode == RESULT_OK
                 && (requestCode == REQUEST_CODE_OPEN_NODE || requestCode == REQUEST_CODE_NEW_NODE)) {
-            mNotesListAdapter.changeCursor(null);
+            // onStart reloads the list, only the rows which have changed are updated
         } else {
             super.onActivityResult(requestCode, resultCode, data);
         }
@@ -231,9 +260,17 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     @Override
     protected void onStart() {
         super.onStart();
+        mContentResolver.registerContentObserver(Notes.CONTENT_NOTE_URI, true,
+                mNotesListObserver);
         startAsyncNotesListQuery();
     }
 
+    @Override
+    protected void onStop() {
+        mContentResolver.unregisterContentObserver(mNotesListObserver);
+        super.onStop();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -255,17 +292,37 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         // 设置当前文件夹为根文件夹
         mCurrentFolderId = Notes.ID_ROOT_FOLDER;
         // 初始化笔记列表视图
-        mNotesListView = (ListView) findViewById(R.id.notes_list);
-        // 添加列表底部视图（用于美观和滚动效果）
-        mNotesListView.addFooterView(LayoutInflater.from(this).inflate(R.layout.note_list_footer, null),
-                null, false);
-        // 设置列表项点击监听器
-        mNotesListView.setOnItemClickListener(new OnListItemClickListener());
-        // 设置列表项长按监听器
-        mNotesListView.setOnItemLongClickListener(this);
+        mNotesListView = (RecyclerView) findViewById(R.id.notes_list);
+        mNotesListLayoutManager = new LinearLayoutManager(this);
+        mNotesListView.setLayoutManager(mNotesListLayoutManager);
+        // 勾选时直接重绘列表项，不做淡入淡出
+        ((SimpleItemAnimator) mNotesListView.getItemAnimator())
+                .setSupportsChangeAnimations(false);
         // 创建并设置列表适配器
         mNotesListAdapter = new NotesListAdapter(this);
+        // 设置列表项点击监听器
+        mNotesListAdapter.setOnItemClickListener(new OnListItemClickListener());
+        // 设置列表项长按监听器
+        mNotesListAdapter.setOnItemLongClickListener(this);
         mNotesListView.setAdapter(mNotesListAdapter);
+        // 滚动到列表底部附近时加载下一页
+        mNotesListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (mNotesListLayoutManager.findLastVisibleItemPosition()
+                        >= mNotesListAdapter.getItemCount() - NOTES_LIST_PRELOAD_COUNT) {
+                    startAsyncNotesListPageQuery();
+                }
+            }
+        });
+        // 数据变化时重新加载已加载的所有行
+        mNotesListObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                startAsyncNotesListQuery(Math.max(NOTES_LIST_PAGE_SIZE,
+                        mNotesListAdapter.getItemCount()));
+            }
+        };
         
         // 初始化新建笔记按钮
         mAddNewNote = (Button) findViewById(R.id.btn_new_note);
@@ -284,7 +341,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         mModeCallBack = new ModeCallback();
     }
 
-    private class ModeCallback implements ListView.MultiChoiceModeListener, OnMenuItemClickListener {
+    private class ModeCallback implements ActionMode.Callback, OnMenuItemClickListener {
         private DropdownMenu mDropDownMenu;
         private ActionMode mActionMode;
         private MenuItem mMoveMenu;
@@ -302,7 +359,6 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
             }
             mActionMode = mode;
             mNotesListAdapter.setChoiceMode(true);
-            mNotesListView.setLongClickable(false);
             mAddNewNote.setVisibility(View.GONE);
 
             View customView = LayoutInflater.from(NotesListActivity.this).inflate(
@@ -313,7 +369,11 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                     R.menu.note_list_dropdown);
             mDropDownMenu.setOnDropdownMenuItemClickListener(new PopupMenu.OnMenuItemClickListener(){
                 public boolean onMenuItemClick(MenuItem item) {
-                    mNotesListAdapter.selectAll(!mNotesListAdapter.isAllSelected());
+                    if (item.getItemId() == R.id.action_invert_selection) {
+                        mNotesListAdapter.invertSelection();
+                    } else {
+                        mNotesListAdapter.selectAll(!mNotesListAdapter.isAllSelected());
+                    }
                     updateMenu();
                     return true;
                 }
@@ -351,7 +411,6 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
         public void onDestroyActionMode(ActionMode mode) {
             mNotesListAdapter.setChoiceMode(false);
-            mNotesListView.setLongClickable(true);
             mAddNewNote.setVisibility(View.VISIBLE);
         }
 
@@ -359,8 +418,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
             mActionMode.finish();
         }
 
-        public void onItemCheckedStateChanged(ActionMode mode, int position, long id,
-                boolean checked) {
+        public void onItemCheckedStateChanged(int position, boolean checked) {
             mNotesListAdapter.setCheckedItem(position, checked);
             updateMenu();
         }
@@ -374,16 +432,18 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
             switch (item.getItemId()) {
                 case R.id.delete:
+                    // the notes deleted are the ones the dialog tells
+                    final SelectedNotes notes = mNotesListAdapter.getSelectedNotes();
                     AlertDialog.Builder builder = new AlertDialog.Builder(NotesListActivity.this);
                     builder.setTitle(getString(R.string.alert_title_delete));
                     builder.setIcon(android.R.drawable.ic_dialog_alert);
                     builder.setMessage(getString(R.string.alert_message_delete_notes,
-                                             mNotesListAdapter.getSelectedCount()));
+                                             notes.getCount()));
                     builder.setPositiveButton(android.R.string.ok,
                                              new DialogInterface.OnClickListener() {
                                                  public void onClick(DialogInterface dialog,
                                                          int which) {
-                                                     batchDelete();
+                                                     batchDelete(notes);
                                                  }
                                              });
                     builder.setNegativeButton(android.R.string.cancel, null);
@@ -426,8 +486,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                      * also change. This is very bad, just for the UI designer's strong requirement.
                      */
                     if (event.getY() < (event.getX() * (-0.12) + 94)) {
-                        View view = mNotesListView.getChildAt(mNotesListView.getChildCount() - 1
-                                - mNotesListView.getFooterViewsCount());
+                        View view = mNotesListView.getChildAt(mNotesListView.getChildCount() - 1);
                         if (view != null && view.getBottom() > start
                                 && (view.getTop() < (start + 94))) {
                             mOriginY = (int) event.getY();
@@ -462,12 +521,93 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     };
 
     private void startAsyncNotesListQuery() {
-        String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
-                : NORMAL_SELECTION;
-        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                Notes.CONTENT_NOTE_URI, NoteItemData.PROJECTION, selection, new String[] {
+        startAsyncNotesListQuery(NOTES_LIST_PAGE_SIZE);
+    }
+
+    /**
+     * Load the first page of the current folder, the pages loaded before are replaced when it
+     * is done
+     */
+    private void startAsyncNotesListQuery(int pageSize) {
+        mNotesListGeneration++;
+        mNotesListFirstPageSize = pageSize;
+        mNotesListLoading = true;
+        mNotesListEnd = false;
+        mBackgroundQueryHandler.cancelOperation(FOLDER_NOTE_LIST_QUERY_TOKEN);
+        mBackgroundQueryHandler.cancelOperation(FOLDER_NOTE_LIST_PAGE_QUERY_TOKEN);
+        Uri uri = Notes.CONTENT_NOTE_LIST_URI.buildUpon()
+                .appendQueryParameter(Notes.PARAM_PAGE_SIZE, String.valueOf(pageSize))
+                .build();
+        String[] selectionArgs = new String[] {
+            String.valueOf(mCurrentFolderId)
+        };
+        mNotesListAdapter.setNotesQuery(getNotesListSelection(), selectionArgs);
+        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, mNotesListGeneration,
+                uri, NoteItemData.PROJECTION, getNotesListSelection(), selectionArgs, null);
+    }
+
+    /**
+     * Load the page after the last row loaded
+     */
+    private void startAsyncNotesListPageQuery() {
+        int count = mNotesListAdapter.getItemCount();
+        if (mNotesListLoading || mNotesListEnd || count == 0) {
+            return;
+        }
+        NoteItemData last = mNotesListAdapter.getItem(count - 1);
+
+        mNotesListLoading = true;
+        Uri uri = Notes.CONTENT_NOTE_LIST_URI.buildUpon()
+                .appendQueryParameter(Notes.PARAM_PAGE_SIZE, String.valueOf(NOTES_LIST_PAGE_SIZE))
+                .appendQueryParameter(Notes.PARAM_AFTER_TYPE, String.valueOf(last.getType()))
+                .appendQueryParameter(Notes.PARAM_AFTER_MODIFIED_DATE,
+                        String.valueOf(last.getModifiedDate()))
+                .appendQueryParameter(Notes.PARAM_AFTER_ID, String.valueOf(last.getId()))
+                .build();
+        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_PAGE_QUERY_TOKEN, mNotesListGeneration,
+                uri, NoteItemData.PROJECTION, getNotesListSelection(), new String[] {
                     String.valueOf(mCurrentFolderId)
-                }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+                }, null);
+    }
+
+    private String getNotesListSelection() {
+        return (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
+                : NORMAL_SELECTION;
+    }
+
+    /**
+     * Hand the rows to the adapter, the list stays loading until they are shown as the next
+     * page starts after the last row shown
+     */
+    private void onNotesListPageLoaded(int token, Cursor cursor) {
+        if (token == FOLDER_NOTE_LIST_QUERY_TOKEN) {
+            mNotesListEnd = cursor == null || cursor.getCount() < mNotesListFirstPageSize;
+            mNotesListAdapter.load(cursor, false, newNotesListLoadedCallback());
+            return;
+        }
+
+        if (cursor == null) {
+            mNotesListLoading = false;
+            return;
+        }
+        mNotesListEnd = cursor.getCount() < NOTES_LIST_PAGE_SIZE;
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            mNotesListLoading = false;
+            return;
+        }
+        mNotesListAdapter.load(cursor, true, newNotesListLoadedCallback());
+    }
+
+    private Runnable newNotesListLoadedCallback() {
+        final int generation = mNotesListGeneration;
+        return new Runnable() {
+            public void run() {
+                if (generation == mNotesListGeneration) {
+                    mNotesListLoading = false;
+                }
+            }
+        };
     }
 
     private final class BackgroundQueryHandler extends AsyncQueryHandler {
@@ -479,7 +619,14 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
             switch (token) {
                 case FOLDER_NOTE_LIST_QUERY_TOKEN:
-                    mNotesListAdapter.changeCursor(cursor);
+                case FOLDER_NOTE_LIST_PAGE_QUERY_TOKEN:
+                    if (!Integer.valueOf(mNotesListGeneration).equals(cookie)) {
+                        if (cursor != null) {
+                            cursor.close();
+                        }
+                        break;
+                    }
+                    onNotesListPageLoaded(token, cursor);
                     break;
                 case FOLDER_LIST_QUERY_TOKEN:
                     if (cursor != null && cursor.getCount() > 0) {
@@ -501,15 +648,8 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         builder.setAdapter(adapter, new DialogInterface.OnClickListener() {
 
             public void onClick(DialogInterface dialog, int which) {
-                DataUtils.batchMoveToFolder(mContentResolver,
-                        mNotesListAdapter.getSelectedItemIds(), adapter.getItemId(which));
-                Toast.makeText(
-                        NotesListActivity.this,
-                        getString(R.string.format_move_notes_to_folder,
-                                mNotesListAdapter.getSelectedCount(),
-                                adapter.getFolderName(NotesListActivity.this, which)),
-                        Toast.LENGTH_SHORT).show();
-                mModeCallBack.finishActionMode();
+                batchMove(mNotesListAdapter.getSelectedNotes(), adapter.getItemId(which),
+                        adapter.getFolderName(NotesListActivity.this, which));
             }
         });
         builder.show();
@@ -522,30 +662,67 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         this.startActivityForResult(intent, REQUEST_CODE_NEW_NODE);
     }
 
-    private void batchDelete() {
-        new AsyncTask<Void, Void, HashSet<AppWidgetAttribute>>() {
-            protected HashSet<AppWidgetAttribute> doInBackground(Void... unused) {
-                HashSet<AppWidgetAttribute> widgets = mNotesListAdapter.getSelectedWidget();
+    /**
+     * Move the selected notes in background, the ids of the notes selected in the pages not
+     * loaded yet are queried
+     */
+    private void batchMove(final SelectedNotes notes, final long folderId,
+            final String folderName) {
+        new AsyncTask<Void, Void, Boolean>() {
+            protected Boolean doInBackground(Void... unused) {
+                if (!notes.resolve(NotesListActivity.this)) {
+                    return false;
+                }
+                DataUtils.batchMoveToFolder(mContentResolver, notes.getIds(), folderId);
+                return true;
+            }
+
+            @Override
+            protected void onPostExecute(Boolean moved) {
+                if (!moved) {
+                    Toast.makeText(NotesListActivity.this, R.string.error_notes_changed,
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                Toast.makeText(NotesListActivity.this,
+                        getString(R.string.format_move_notes_to_folder, notes.getCount(),
+                                folderName), Toast.LENGTH_SHORT).show();
+                mModeCallBack.finishActionMode();
+            }
+        }.execute();
+    }
+
+    private void batchDelete(final SelectedNotes notes) {
+        new AsyncTask<Void, Void, Boolean>() {
+            protected Boolean doInBackground(Void... unused) {
+                if (!notes.resolve(NotesListActivity.this)) {
+                    return false;
+                }
                 if (!isSyncMode()) {
                     // if not synced, delete notes directly
-                    if (DataUtils.batchDeleteNotes(mContentResolver, mNotesListAdapter
-                            .getSelectedItemIds())) {
+                    if (DataUtils.batchDeleteNotes(mContentResolver, notes.getIds())) {
                     } else {
                         Log.e(TAG, "Delete notes error, should not happens");
                     }
                 } else {
                     // in sync mode, we'll move the deleted note into the trash
                     // folder
-                    if (!DataUtils.batchMoveToFolder(mContentResolver, mNotesListAdapter
-                            .getSelectedItemIds(), Notes.ID_TRASH_FOLER)) {
+                    if (!DataUtils.batchMoveToFolder(mContentResolver, notes.getIds(),
+                            Notes.ID_TRASH_FOLER)) {
                         Log.e(TAG, "Move notes to trash folder error, should not happens");
                     }
                 }
-                return widgets;
+                return true;
             }
 
             @Override
-            protected void onPostExecute(HashSet<AppWidgetAttribute> widgets) {
+            protected void onPostExecute(Boolean deleted) {
+                if (!deleted) {
+                    Toast.makeText(NotesListActivity.this, R.string.error_notes_changed,
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                HashSet<AppWidgetAttribute> widgets = notes.getWidgets();
                 if (widgets != null) {
                     for (AppWidgetAttribute widget : widgets) {
                         if (widget.widgetId != AppWidgetManager.INVALID_APPWIDGET_ID
@@ -931,13 +1108,12 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private class OnListItemClickListener implements OnItemClickListener {
 
-        public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        public void onItemClick(View view, int position) {
             if (view instanceof NotesListItem) {
                 NoteItemData item = ((NotesListItem) view).getItemData();
                 if (mNotesListAdapter.isInChoiceMode()) {
                     if (item.getType() == Notes.TYPE_NOTE) {
-                        position = position - mNotesListView.getHeaderViewsCount();
-                        mModeCallBack.onItemCheckedStateChanged(null, position, id,
+                        mModeCallBack.onItemCheckedStateChanged(position,
                                 !mNotesListAdapter.isSelectedItem(position));
                     }
                     return;
@@ -988,18 +1164,20 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                 NoteColumns.MODIFIED_DATE + " DESC");
     }
 
-    public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-        if (view instanceof NotesListItem) {
+    public boolean onItemLongClick(View view, int position) {
+        if (view instanceof NotesListItem && !mNotesListAdapter.isInChoiceMode()) {
             mFocusNoteDataItem = ((NotesListItem) view).getItemData();
-            if (mFocusNoteDataItem.getType() == Notes.TYPE_NOTE && !mNotesListAdapter.isInChoiceMode()) {
+            if (mFocusNoteDataItem.getType() == Notes.TYPE_NOTE) {
                 if (mNotesListView.startActionMode(mModeCallBack) != null) {
-                    mModeCallBack.onItemCheckedStateChanged(null, position, id, true);
-                    mNotesListView.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+                    // the item view gives the haptic feedback of a handled long click
+                    mModeCallBack.onItemCheckedStateChanged(position, true);
+                    return true;
                 } else {
                     Log.e(TAG, "startActionMode fails");
                 }
             } else if (mFocusNoteDataItem.getType() == Notes.TYPE_FOLDER) {
                 mNotesListView.setOnCreateContextMenuListener(mFolderOnCreateContextMenuListener);
+                return mNotesListView.showContextMenu();
             }
         }
         return false;
@@ -18,55 +18,216 @@ package net.micode.notes.ui;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
 import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.LongHashSet;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 
 
-public class NotesListAdapter extends CursorAdapter {
+/**
+ * The rows of the notes list. The rows of a query are read into {@link NoteItemData} and
+ * compared with the ones shown in background, only the items which have changed are then
+ * updated on the main thread.
+ */
+public class NotesListAdapter extends RecyclerView.Adapter<NotesListAdapter.ViewHolder> {
     private static final String TAG = "NotesListAdapter";
+
+    private static Handler sLoaderHandler;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
     private Context mContext;
-    private HashMap<Integer, Boolean> mSelectedIndex;
+    private List<NoteItemData> mItems;
+    private NoteSelection mSelection;
     private int mNotesCount;
+    // whether the notes count is the total of the provider rather than the loaded notes
+    private boolean mNotesTotal;
     private boolean mChoiceMode;
+    private OnItemClickListener mOnItemClickListener;
+    private OnItemLongClickListener mOnItemLongClickListener;
+
+    /**
+     * Increased on every load, the result of a load started before another one is dropped
+     */
+    private int mLoadGeneration;
+
+    // the query of the notes of the list, for the notes of the pages not loaded yet
+    private String mNotesSelection;
+    private String[] mNotesSelectionArgs;
 
     public static class AppWidgetAttribute {
         public int widgetId;
         public int widgetType;
     };
 
+    public interface OnItemClickListener {
+        void onItemClick(View view, int position);
+    }
+
+    public interface OnItemLongClickListener {
+        boolean onItemLongClick(View view, int position);
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        ViewHolder(NotesListItem view) {
+            super(view);
+        }
+    }
+
     public NotesListAdapter(Context context) {
-        super(context, null);
-        mSelectedIndex = new HashMap<Integer, Boolean>();
+        mSelection = new NoteSelection();
         mContext = context;
-        mNotesCount = 0;
+        mItems = Collections.emptyList();
+        setHasStableIds(true);
+    }
+
+    private static synchronized Handler getLoaderHandler() {
+        if (sLoaderHandler == null) {
+            HandlerThread thread = new HandlerThread("NotesListLoader",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sLoaderHandler = new Handler(thread.getLooper());
+        }
+        return sLoaderHandler;
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        mOnItemClickListener = listener;
+    }
+
+    public void setOnItemLongClickListener(OnItemLongClickListener listener) {
+        mOnItemLongClickListener = listener;
+    }
+
+    /**
+     * Read the rows of the cursor in background and show them instead of the current ones, or
+     * after them if append is set. The cursor is closed once read, a null one is empty.
+     *
+     * @param onLoaded run on the main thread when the rows are shown, not run if another load
+     *        has been started in the meantime
+     */
+    public void load(final Cursor cursor, final boolean append, final Runnable onLoaded) {
+        final int generation = ++mLoadGeneration;
+        final List<NoteItemData> oldItems = mItems;
+        final int oldNotesCount = append ? mNotesCount : 0;
+        final boolean oldNotesTotal = append && mNotesTotal;
+        final boolean choiceMode = mChoiceMode;
+        getLoaderHandler().post(new Runnable() {
+            public void run() {
+                ArrayList<NoteItemData> rows = new ArrayList<NoteItemData>();
+                if (append) {
+                    rows.addAll(oldItems);
+                }
+                int pageNotesCount = 0;
+                int total = -1;
+                if (cursor != null) {
+                    try {
+                        total = cursor.getExtras().getInt(Notes.EXTRA_NOTES_TOTAL, -1);
+                        NoteItemData.prefetchContacts(mContext, cursor);
+                        while (cursor.moveToNext()) {
+                            NoteItemData row = new NoteItemData(mContext, cursor);
+                            if (row.getType() == Notes.TYPE_NOTE) {
+                                pageNotesCount++;
+                            }
+                            rows.add(row);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+
+                final List<NoteItemData> newItems = NoteItemData.placeItems(rows);
+                // the notes of the pages not loaded yet can be selected too, they are counted
+                // from the total of the first page
+                final boolean notesTotal = total >= 0 || oldNotesTotal;
+                final int notesCount = total >= 0 ? total
+                        : oldNotesTotal ? oldNotesCount : oldNotesCount + pageNotesCount;
+                // the ids are only needed to drop the selected notes which are gone
+                final LongHashSet noteIds = choiceMode ? getNoteIds(newItems) : null;
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new ItemsDiffCallback(oldItems, newItems));
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        if (generation != mLoadGeneration) {
+                            return;
+                        }
+                        mItems = newItems;
+                        mNotesCount = notesCount;
+                        mNotesTotal = notesTotal;
+                        mSelection.setNotes(noteIds == null && mSelection.hasToggled()
+                                ? getNoteIds(newItems) : noteIds, notesCount);
+                        diff.dispatchUpdatesTo(NotesListAdapter.this);
+                        if (onLoaded != null) {
+                            onLoaded.run();
+                        }
+                    }
+                });
+            }
+        });
     }
 
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return new NotesListItem(context);
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        NotesListItem view = new NotesListItem(mContext);
+        view.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT));
+        final ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                int position = holder.getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && mOnItemClickListener != null) {
+                    mOnItemClickListener.onItemClick(v, position);
+                }
+            }
+        });
+        view.setOnLongClickListener(new View.OnLongClickListener() {
+            public boolean onLongClick(View v) {
+                int position = holder.getBindingAdapterPosition();
+                return position != RecyclerView.NO_POSITION && mOnItemLongClickListener != null
+                        && mOnItemLongClickListener.onItemLongClick(v, position);
+            }
+        });
+        return holder;
     }
 
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        if (view instanceof NotesListItem) {
-            NoteItemData itemData = new NoteItemData(context, cursor);
-            ((NotesListItem) view).bind(context, itemData, mChoiceMode,
-                    isSelectedItem(cursor.getPosition()));
-        }
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        NoteItemData item = mItems.get(position);
+        ((NotesListItem) holder.itemView).bind(mContext, item, mChoiceMode, isSelected(item));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mItems.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mItems.get(position).getId();
+    }
+
+    public NoteItemData getItem(int position) {
+        return mItems.get(position);
     }
 
     public void setCheckedItem(final int position, final boolean checked) {
-        mSelectedIndex.put(position, checked);
-        notifyDataSetChanged();
+        mSelection.setSelected(getItemId(position), checked);
+        notifyItemChanged(position);
     }
 
     public boolean isInChoiceMode() {
@@ -74,111 +235,208 @@ public class NotesListAdapter extends CursorAdapter {
     }
 
     public void setChoiceMode(boolean mode) {
-        mSelectedIndex.clear();
+        mSelection.setAll(false);
         mChoiceMode = mode;
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     public void selectAll(boolean checked) {
-        Cursor cursor = getCursor();
-        for (int i = 0; i < getCount(); i++) {
-            if (cursor.moveToPosition(i)) {
-                if (NoteItemData.getNoteType(cursor) == Notes.TYPE_NOTE) {
-                    setCheckedItem(i, checked);
-                }
-            }
-        }
+        mSelection.setAll(checked);
+        notifyItemRangeChanged(0, getItemCount());
     }
 
-    public HashSet<Long> getSelectedItemIds() {
-        HashSet<Long> itemSet = new HashSet<Long>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Long id = getItemId(position);
+    public void invertSelection() {
+        mSelection.invert();
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    /**
+     * Set the selection the notes of the list are queried with
+     */
+    public void setNotesQuery(String selection, String[] selectionArgs) {
+        mNotesSelection = selection;
+        mNotesSelectionArgs = selectionArgs;
+    }
+
+    /**
+     * Take the selected notes for an action on them, on the main thread. The toggled notes have
+     * all been loaded, the notes of the pages not loaded yet are queried by
+     * {@link SelectedNotes#resolve} in background.
+     */
+    public SelectedNotes getSelectedNotes() {
+        SelectedNotes notes = new SelectedNotes(mSelection.getCount(), mSelection.isInverted(),
+                mSelection.getToggledIds(), mNotesSelection, mNotesSelectionArgs);
+        if (!notes.mInverted) {
+            for (long id : notes.mToggledIds) {
                 if (id == Notes.ID_ROOT_FOLDER) {
                     Log.d(TAG, "Wrong item id, should not happen");
                 } else {
-                    itemSet.add(id);
+                    notes.mIds.add(id);
                 }
             }
-        }
-
-        return itemSet;
-    }
-
-    public HashSet<AppWidgetAttribute> getSelectedWidget() {
-        HashSet<AppWidgetAttribute> itemSet = new HashSet<AppWidgetAttribute>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Cursor c = (Cursor) getItem(position);
-                if (c != null) {
-                    AppWidgetAttribute widget = new AppWidgetAttribute();
-                    NoteItemData item = new NoteItemData(mContext, c);
-                    widget.widgetId = item.getWidgetId();
-                    widget.widgetType = item.getWidgetType();
-                    itemSet.add(widget);
-                    /**
-                     * Don't close cursor here, only the adapter could close it
-                     */
-                } else {
-                    Log.e(TAG, "Invalid cursor");
-                    return null;
+            for (NoteItemData item : mItems) {
+                if (isSelected(item)) {
+                    notes.mWidgets.add(newWidget(item.getWidgetId(), item.getWidgetType()));
                 }
             }
         }
-        return itemSet;
+        return notes;
     }
 
-    public int getSelectedCount() {
-        Collection<Boolean> values = mSelectedIndex.values();
-        if (null == values) {
-            return 0;
+    private static AppWidgetAttribute newWidget(int widgetId, int widgetType) {
+        AppWidgetAttribute widget = new AppWidgetAttribute();
+        widget.widgetId = widgetId;
+        widget.widgetType = widgetType;
+        return widget;
+    }
+
+    /**
+     * The selected notes as they were when the action on them was confirmed, so the action run
+     * in background does not read the selection while it is changed on the main thread
+     */
+    public static class SelectedNotes {
+        private final int mCount;
+        private final boolean mInverted;
+        private final long[] mToggledIds;
+        private final String mNotesSelection;
+        private final String[] mNotesSelectionArgs;
+        private final HashSet<Long> mIds = new HashSet<Long>();
+        private final HashSet<AppWidgetAttribute> mWidgets = new HashSet<AppWidgetAttribute>();
+
+        private SelectedNotes(int count, boolean inverted, long[] toggledIds,
+                String notesSelection, String[] notesSelectionArgs) {
+            mCount = count;
+            mInverted = inverted;
+            mToggledIds = toggledIds;
+            mNotesSelection = notesSelection;
+            mNotesSelectionArgs = notesSelectionArgs;
         }
-        Iterator<Boolean> iter = values.iterator();
-        int count = 0;
-        while (iter.hasNext()) {
-            if (true == iter.next()) {
-                count++;
+
+        /**
+         * Query the notes of the list but the toggled ones when all of them are selected,
+         * called in background.
+         *
+         * @return false if the list does not have the number of notes which were selected any
+         *         more, a sync has added or removed some of them, the action should not go on
+         */
+        public boolean resolve(Context context) {
+            if (!mInverted) {
+                return true;
+            }
+            if (mNotesSelection == null) {
+                Log.e(TAG, "The query of the notes is not set");
+                return false;
+            }
+
+            StringBuilder selection = new StringBuilder("(" + mNotesSelection + ") AND "
+                    + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE);
+            if (mToggledIds.length > 0) {
+                selection.append(" AND ").append(NoteColumns.ID).append(" NOT IN (");
+                for (int i = 0; i < mToggledIds.length; i++) {
+                    selection.append(i > 0 ? "," : "").append(mToggledIds[i]);
+                }
+                selection.append(')');
+            }
+            Cursor cursor = context.getContentResolver().query(Notes.CONTENT_NOTE_URI,
+                    new String[] { NoteColumns.ID, NoteColumns.WIDGET_ID,
+                            NoteColumns.WIDGET_TYPE }, selection.toString(),
+                    mNotesSelectionArgs, null);
+            if (cursor == null) {
+                return false;
             }
+            try {
+                while (cursor.moveToNext()) {
+                    mIds.add(cursor.getLong(0));
+                    mWidgets.add(newWidget(cursor.getInt(1), cursor.getInt(2)));
+                }
+            } finally {
+                cursor.close();
+            }
+            return mIds.size() == mCount;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public HashSet<Long> getIds() {
+            return mIds;
+        }
+
+        public HashSet<AppWidgetAttribute> getWidgets() {
+            return mWidgets;
         }
-        return count;
+    }
+
+    /**
+     * The number of notes in the list including the pages not loaded yet, folders are not
+     * counted
+     */
+    public int getNotesCount() {
+        return mNotesCount;
+    }
+
+    public int getSelectedCount() {
+        return mSelection.getCount();
     }
 
     public boolean isAllSelected() {
-        int checkedCount = getSelectedCount();
-        return (checkedCount != 0 && checkedCount == mNotesCount);
+        return mSelection.isAllSelected();
     }
 
     public boolean isSelectedItem(final int position) {
-        if (null == mSelectedIndex.get(position)) {
-            return false;
-        }
-        return mSelectedIndex.get(position);
+        return isSelected(mItems.get(position));
     }
 
-    @Override
-    protected void onContentChanged() {
-        super.onContentChanged();
-        calcNotesCount();
+    private boolean isSelected(NoteItemData item) {
+        return item.getType() == Notes.TYPE_NOTE && mSelection.isSelected(item.getId());
     }
 
-    @Override
-    public void changeCursor(Cursor cursor) {
-        super.changeCursor(cursor);
-        calcNotesCount();
-    }
-
-    private void calcNotesCount() {
-        mNotesCount = 0;
-        for (int i = 0; i < getCount(); i++) {
-            Cursor c = (Cursor) getItem(i);
-            if (c != null) {
-                if (NoteItemData.getNoteType(c) == Notes.TYPE_NOTE) {
-                    mNotesCount++;
-                }
-            } else {
-                Log.e(TAG, "Invalid cursor");
-                return;
+    /**
+     * The ids of the notes among the rows, which are the ones that can be selected
+     */
+    private static LongHashSet getNoteIds(List<NoteItemData> items) {
+        LongHashSet ids = new LongHashSet();
+        for (NoteItemData item : items) {
+            if (item.getType() == Notes.TYPE_NOTE) {
+                ids.add(item.getId());
             }
         }
+        return ids;
+    }
+
+    /**
+     * Rows are the same item if they have the same id, and are rebound only if something they
+     * show has changed, including the flags of their place in the list
+     */
+    private static class ItemsDiffCallback extends DiffUtil.Callback {
+        private final List<NoteItemData> mOldItems;
+
+        private final List<NoteItemData> mNewItems;
+
+        ItemsDiffCallback(List<NoteItemData> oldItems, List<NoteItemData> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).getId() == mNewItems.get(newItemPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).isSameContent(mNewItems.get(newItemPosition));
+        }
     }
 }
@@ -0,0 +1,17 @@
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageLoaderTest {
+    @Test
+    public void calculateInSampleSize_keepsTheFittedSize() {
+        // a 12 MP photo shown in a 1080 x 840 box is fitted to 1080 x 810
+        assertEquals(2, ImageLoader.calculateInSampleSize(4000, 3000, 1080, 840));
+        // a tall image is bound by the height of the box
+        assertEquals(8, ImageLoader.calculateInSampleSize(3000, 12000, 1080, 840));
+        assertEquals(1, ImageLoader.calculateInSampleSize(800, 600, 1080, 840));
+        assertEquals(1, ImageLoader.calculateInSampleSize(4000, 3000, 0, 0));
+    }
+}
@@ -0,0 +1,66 @@
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongHashSetTest {
+    @Test
+    public void add_keepsZeroAndNegativeValues() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(0));
+        assertTrue(set.add(-2));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(-2));
+        assertFalse(set.contains(2));
+        assertEquals(2, set.size());
+        assertTrue(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void matchesHashSetOnRandomOperations() {
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet();
+        HashSet<Long> expected = new HashSet<Long>();
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextInt(2000) - 100;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long value = -100; value < 1900; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        long[] values = set.toArray();
+        assertEquals(expected.size(), values.length);
+        for (long value : values) {
+            assertTrue(expected.contains(value));
+        }
+    }
+
+    @Test
+    public void retainAll_dropsMissingValues() {
+        LongHashSet set = new LongHashSet();
+        LongHashSet other = new LongHashSet();
+        for (long value = 0; value < 100; value++) {
+            set.add(value);
+            if (value % 3 == 0) {
+                other.add(value);
+            }
+        }
+        set.retainAll(other);
+        assertEquals(other.size(), set.size());
+        for (long value = 0; value < 100; value++) {
+            assertEquals(value % 3 == 0, set.contains(value));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SearchTokenizerTest {
+    @Test
+    public void tokenize_latinWords() {
+        assertEquals(Arrays.asList("hello", "world", "abc123"),
+                SearchTokenizer.tokenize("Hello, World! abc123"));
+    }
+
+    @Test
+    public void tokenize_cjkBigrams() {
+        assertEquals(Arrays.asList("中文", "文分", "分词", "词"),
+                SearchTokenizer.tokenize("中文分词"));
+        assertEquals(Arrays.asList("中"), SearchTokenizer.tokenize("中"));
+    }
+
+    @Test
+    public void tokenize_mixedText() {
+        assertEquals(Arrays.asList("android", "便签", "签", "v2"),
+                SearchTokenizer.tokenize("Android便签 v2"));
+    }
+
+    @Test
+    public void buildMatchQuery_quotesEveryTerm() {
+        assertEquals("\"中文 文分\" \"hello\"* \"分\"*",
+                SearchTokenizer.buildMatchQuery("中文分 hello 分"));
+        assertEquals("\"or\"*", SearchTokenizer.buildMatchQuery("\"OR*"));
+        assertEquals("", SearchTokenizer.buildMatchQuery("  ,.  "));
+    }
+
+    @Test
+    public void findMatches_ignoresCase() {
+        List<int[]> ranges = SearchTokenizer.findMatches("Hello 中文分词 hello", "HELLO 文分");
+        assertEquals(3, ranges.size());
+        assertArrayEquals(new int[] { 0, 5 }, ranges.get(0));
+        assertArrayEquals(new int[] { 7, 9 }, ranges.get(1));
+        assertArrayEquals(new int[] { 11, 16 }, ranges.get(2));
+    }
+}
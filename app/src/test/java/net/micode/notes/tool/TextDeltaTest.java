@@ -0,0 +1,69 @@
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TextDeltaTest {
+    private static final String[] WORDS = new String[] {
+        "alpha ", "beta ", "gamma\n", "中文 ", "delta ", "x"
+    };
+
+    @Test
+    public void create_copiesUnchangedText() {
+        assertEquals("c0,6;i6:brave c6,5;", TextDelta.create("hello world", "hello brave world"));
+        assertEquals("i3:abc", TextDelta.create(null, "abc"));
+        assertEquals("", TextDelta.create("abc", ""));
+        assertEquals("c0,3;", TextDelta.create("abc", "abc"));
+    }
+
+    @Test
+    public void create_copiesMovedBlocks() {
+        String first = "the first paragraph which is long enough\n";
+        String second = "the second paragraph which is long too\n";
+        String delta = TextDelta.create(first + second, second + first);
+        assertEquals(second + first, TextDelta.apply(first + second, delta));
+        assertTrue(delta.length() < (first + second).length() / 2);
+    }
+
+    @Test
+    public void apply_rebuildsRandomEdits() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            StringBuilder sb = new StringBuilder();
+            int words = random.nextInt(300);
+            for (int i = 0; i < words; i++) {
+                sb.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            String base = sb.toString();
+
+            int edits = random.nextInt(5);
+            for (int i = 0; i < edits; i++) {
+                int position = sb.length() == 0 ? 0 : random.nextInt(sb.length());
+                int end = Math.min(sb.length(), position + random.nextInt(100));
+                switch (random.nextInt(3)) {
+                    case 0:
+                        sb.insert(position, WORDS[random.nextInt(WORDS.length)] + i);
+                        break;
+                    case 1:
+                        sb.delete(position, end);
+                        break;
+                    default:
+                        String moved = sb.substring(position, end);
+                        sb.delete(position, end);
+                        sb.append(moved);
+                        break;
+                }
+            }
+            String target = sb.toString();
+            assertEquals(target, TextDelta.apply(base, TextDelta.create(base, target)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void apply_rejectsDeltaOfOtherBase() {
+        TextDelta.apply("short", TextDelta.create("a much longer base text", "a much longer"));
+    }
+}
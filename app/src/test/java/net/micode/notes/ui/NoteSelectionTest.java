@@ -0,0 +1,57 @@
+package net.micode.notes.ui;
+
+import net.micode.notes.tool.LongHashSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NoteSelectionTest {
+    private static LongHashSet ids(long... values) {
+        LongHashSet set = new LongHashSet();
+        for (long value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+
+    @Test
+    public void selectAll_countsAllButDeselected() {
+        NoteSelection selection = new NoteSelection();
+        selection.setNotes(ids(1, 2, 3, 4), 4);
+        selection.setAll(true);
+        assertTrue(selection.isAllSelected());
+        assertEquals(4, selection.getCount());
+
+        selection.setSelected(2, false);
+        assertFalse(selection.isSelected(2));
+        assertTrue(selection.isSelected(3));
+        assertEquals(3, selection.getCount());
+        assertFalse(selection.isAllSelected());
+
+        selection.invert();
+        assertTrue(selection.isSelected(2));
+        assertFalse(selection.isSelected(3));
+        assertEquals(1, selection.getCount());
+    }
+
+    @Test
+    public void setNotes_keepsSelectionAcrossReloads() {
+        NoteSelection selection = new NoteSelection();
+        selection.setNotes(null, 3);
+        selection.setSelected(1, true);
+        selection.setSelected(3, true);
+        assertEquals(2, selection.getCount());
+
+        // note 3 is deleted and note 4 is added by a reload
+        selection.setNotes(ids(1, 2, 4), 3);
+        assertTrue(selection.isSelected(1));
+        assertFalse(selection.isSelected(3));
+        assertFalse(selection.isSelected(4));
+        assertEquals(1, selection.getCount());
+
+        selection.setSelected(2, true);
+        selection.setSelected(4, true);
+        assertTrue(selection.isAllSelected());
+    }
+}